@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.CountingObserver;
+
+import java.util.Arrays;
+
+/*
+    Checks the provider's compiled-statement bulk insert, and benchmarks it in rows/sec against
+    inserting one ContentValues at a time with SQLiteDatabase.insert, the way bulkInsert used
+    to, at 14, 1,000 and 100,000 rows.  The 100,000 row run is a large test, so it can be left
+    out with the instrumentation runner's size filter.
+ */
+public class TestBulkInsert extends AndroidTestCase {
+    private static final String LOG_TAG = TestBulkInsert.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = 1419033600000L; // December 20th, 2014
+    // Days per location, and so rows per bulkInsert: only a location's dates must differ, so
+    // 100,000 rows take 20 large batches
+    private static final int DAYS_PER_LOCATION = 5000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    private static ContentValues[] createWeatherValues(int count) {
+        ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            values.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            values.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 75);
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, 65);
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+            rows[i] = values;
+        }
+        return rows;
+    }
+
+    /**
+     * Points the rows at a location and consecutive days, each a few hours into its day so the
+     * insert has something to normalize.
+     */
+    private static void setLocationAndDays(ContentValues[] rows, long locationId) {
+        for (int i = 0; i < rows.length; i++) {
+            rows[i].put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            rows[i].put(WeatherEntry.COLUMN_DATE, FIRST_DAY + i * DAY_IN_MILLIS + 5 * 60 * 60 * 1000);
+        }
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testBulkInsertLocations() {
+        ContentValues[] locations = new ContentValues[]{
+                TestUtilities.createLocationValues("99705"),
+                TestUtilities.createLocationValues("94043"),
+                // A duplicate setting is skipped, as SQLiteDatabase.insert would skip it
+                TestUtilities.createLocationValues("99705")
+        };
+        CountingObserver observer = CountingObserver.register(mContext.getContentResolver(),
+                LocationEntry.CONTENT_URI);
+        try {
+            assertEquals(2, mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI,
+                    locations));
+            assertEquals("One notification per batch", 1, observer.awaitChanges());
+        } finally {
+            observer.unregister();
+        }
+
+        // The registry learnt of both without being told to read the table again
+        LocationRegistry registry = LocationRegistry.getInstance();
+        LocationRegistry.Location mountainView = registry.get(mContext, "94043");
+        assertNotNull(mountainView);
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_CITY_NAME},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"94043"}, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(cursor.getLong(0), mountainView.id);
+            assertEquals("City 94043", cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testBulkInsertWeatherNormalizesDates() {
+        long locationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createLocationValues("99705")));
+        ContentValues[] rows = createWeatherValues(14);
+        setLocationAndDays(rows, locationId);
+
+        CountingObserver observer = CountingObserver.register(mContext.getContentResolver(),
+                WeatherEntry.CONTENT_URI);
+        try {
+            assertEquals(14, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                    rows));
+            assertEquals("One notification per batch", 1, observer.awaitChanges());
+        } finally {
+            observer.unregister();
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_SHORT_DESC},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertEquals(14, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                assertEquals(WeatherContract.normalizeDate(FIRST_DAY + i * DAY_IN_MILLIS),
+                        cursor.getLong(0));
+                assertEquals("Asteroids", cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long[] queryWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testBulkInsertUpdatesDaysInPlace() {
+        long locationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createLocationValues("99705")));
+        ContentValues[] rows = createWeatherValues(14);
+        setLocationAndDays(rows, locationId);
+        assertEquals(14, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, rows));
+        long[] ids = queryWeatherIds();
+
+        // The same days again, one of them changed and one given at another hour of its day
+        rows[3].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        rows[5].put(WeatherEntry.COLUMN_DATE, FIRST_DAY + 5 * DAY_IN_MILLIS + 60 * 60 * 1000);
+        assertEquals(14, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, rows));
+
+        assertTrue(Arrays.equals(ids, queryWeatherIds()));
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry._ID + " = ?", new String[]{Long.toString(ids[3])}, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Meteors",
+                    cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        } finally {
+            cursor.close();
+        }
+
+        // A single insert of a stored day updates it too
+        rows[0].put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        Uri uri = mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, rows[0]);
+        assertEquals(ids[0], ContentUris.parseId(uri));
+        assertEquals(14, countWeatherRows());
+    }
+
+    /**
+     * Inserts the rows the way bulkInsert used to: a ContentValues map, and a Time for its
+     * date, per row.
+     */
+    private static void insertOneByOne(SQLiteDatabase db, ContentValues[] rows) {
+        db.beginTransaction();
+        try {
+            for (ContentValues values : rows) {
+                values.put(WeatherEntry.COLUMN_DATE,
+                        WeatherContract.normalizeDate(values.getAsLong(WeatherEntry.COLUMN_DATE)));
+                assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, values) != -1);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @param bulk true to go through the provider's bulkInsert, false to insert one by one
+     * @return the nanoseconds spent inserting, not counting building the rows
+     */
+    private long timeInsert(int rowCount, boolean bulk) {
+        TestUtilities.deleteAllRecords(mContext);
+        // 100,000 rows of ContentValues don't fit a test's heap at once, so they are inserted
+        // one location, at most DAYS_PER_LOCATION rows, per batch
+        ContentValues[] rows = createWeatherValues(Math.min(rowCount, DAYS_PER_LOCATION));
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long nanos = 0;
+        try {
+            for (int inserted = 0; inserted < rowCount; inserted += rows.length) {
+                ContentValues[] batch = Arrays.copyOf(rows,
+                        Math.min(rows.length, rowCount - inserted));
+                Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                        TestUtilities.createLocationValues("loc" + inserted));
+                setLocationAndDays(batch, ContentUris.parseId(locationUri));
+
+                long start = System.nanoTime();
+                if (bulk) {
+                    assertEquals(batch.length, mContext.getContentResolver().bulkInsert(
+                            WeatherEntry.CONTENT_URI, batch));
+                } else {
+                    insertOneByOne(db, batch);
+                }
+                nanos += System.nanoTime() - start;
+            }
+        } finally {
+            db.close();
+        }
+        assertEquals(rowCount, countWeatherRows());
+        return nanos;
+    }
+
+    private void benchmark(int rowCount) {
+        long oneByOneNanos = timeInsert(rowCount, false);
+        long bulkNanos = timeInsert(rowCount, true);
+        Log.i(LOG_TAG, rowCount + " rows: "
+                + rowCount * 1000000000L / Math.max(oneByOneNanos, 1)
+                + " rows/sec one by one, "
+                + rowCount * 1000000000L / Math.max(bulkNanos, 1)
+                + " rows/sec through the compiled bulk insert");
+    }
+
+    public void testBenchmarkFourteenRows() {
+        benchmark(14);
+    }
+
+    public void testBenchmarkThousandRows() {
+        benchmark(1000);
+    }
+
+    @LargeTest
+    public void testBenchmarkHundredThousandRows() {
+        benchmark(100000);
+    }
+}
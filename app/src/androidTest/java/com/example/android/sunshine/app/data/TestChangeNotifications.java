@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.CountingObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks that the provider tells only the observers of what a write changed: the detail
+    screens of other days and the lists and widgets of other locations must stay idle.
+    Observers are registered the way a cursor registers them, for the uri and its descendants.
+ */
+public class TestChangeNotifications extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = 1419033600000L; // December 20th, 2014
+    private static final long SECOND_DAY = FIRST_DAY + DAY_IN_MILLIS;
+    private static final String NORTH_POLE = "99705";
+    private static final String MOUNTAIN_VIEW = "94043";
+
+    private long mNorthPoleId;
+    private long mMountainViewId;
+    private final List<CountingObserver> mObservers = new ArrayList<CountingObserver>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mNorthPoleId = insertLocation(NORTH_POLE);
+        mMountainViewId = insertLocation(MOUNTAIN_VIEW);
+        for (long locationId : new long[]{mNorthPoleId, mMountainViewId}) {
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{
+                    createWeatherValues(locationId, FIRST_DAY, 0),
+                    createWeatherValues(locationId, SECOND_DAY, 0)
+            });
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (CountingObserver observer : mObservers) {
+            observer.unregister();
+        }
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    private long insertLocation(String locationSetting) {
+        return ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createLocationValues(locationSetting)));
+    }
+
+    private static ContentValues createWeatherValues(long locationId, long date, double high) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        values.put(WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, -1);
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+        return values;
+    }
+
+    private static ContentValues createHourlyValues(long locationId, long time) {
+        ContentValues values = new ContentValues();
+        values.put(HourlyEntry.COLUMN_LOC_KEY, locationId);
+        values.put(HourlyEntry.COLUMN_TIME, time);
+        values.put(HourlyEntry.COLUMN_WEATHER_ID, 321);
+        values.put(HourlyEntry.COLUMN_TEMP, 1250);
+        values.put(HourlyEntry.COLUMN_HUMIDITY, 80);
+        values.put(HourlyEntry.COLUMN_PRESSURE, 10132);
+        values.put(HourlyEntry.COLUMN_WIND_SPEED, 550);
+        values.put(HourlyEntry.COLUMN_DEGREES, 180);
+        return values;
+    }
+
+    private CountingObserver observe(Uri uri) {
+        CountingObserver observer = CountingObserver.register(mContext.getContentResolver(), uri);
+        mObservers.add(observer);
+        return observer;
+    }
+
+    public void testOneDayNotifiesThatDay() {
+        CountingObserver day = observe(WeatherEntry.buildWeatherLocationWithDate(NORTH_POLE,
+                FIRST_DAY));
+        CountingObserver otherDay = observe(WeatherEntry.buildWeatherLocationWithDate(NORTH_POLE,
+                SECOND_DAY));
+        CountingObserver list = observe(WeatherEntry.buildWeatherLocationWithStartDate(NORTH_POLE,
+                FIRST_DAY));
+        CountingObserver otherList = observe(WeatherEntry.buildWeatherLocation(MOUNTAIN_VIEW));
+        CountingObserver table = observe(WeatherEntry.CONTENT_URI);
+
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                createWeatherValues(mNorthPoleId, FIRST_DAY, 21.5));
+
+        assertEquals(1, day.awaitChanges());
+        assertEquals(1, list.getChangeCount());
+        assertEquals(1, table.getChangeCount());
+        assertEquals(0, otherDay.getChangeCount());
+        assertEquals(0, otherList.getChangeCount());
+    }
+
+    public void testSeveralDaysNotifyEachDay() {
+        long thirdDay = SECOND_DAY + DAY_IN_MILLIS;
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                createWeatherValues(mNorthPoleId, thirdDay, 0));
+        CountingObserver list = observe(WeatherEntry.buildWeatherLocation(NORTH_POLE));
+        CountingObserver day = observe(WeatherEntry.buildWeatherLocationWithDate(NORTH_POLE,
+                SECOND_DAY));
+        CountingObserver unchangedDay = observe(WeatherEntry.buildWeatherLocationWithDate(
+                NORTH_POLE, thirdDay));
+        CountingObserver otherList = observe(WeatherEntry.buildWeatherLocation(MOUNTAIN_VIEW));
+        CountingObserver otherDay = observe(WeatherEntry.buildWeatherLocationWithDate(
+                MOUNTAIN_VIEW, SECOND_DAY));
+
+        assertEquals(2, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{
+                        createWeatherValues(mNorthPoleId, FIRST_DAY, 21.5),
+                        createWeatherValues(mNorthPoleId, SECOND_DAY, 21.5)
+                }));
+
+        // The list hears of each day, the detail screen of another day of none
+        assertEquals(2, list.awaitChanges());
+        assertEquals(1, day.getChangeCount());
+        assertEquals(0, unchangedDay.getChangeCount());
+        assertEquals(0, otherList.getChangeCount());
+        assertEquals(0, otherDay.getChangeCount());
+    }
+
+    public void testUnchangedDaysNotifyNoOne() {
+        CountingObserver day = observe(WeatherEntry.buildWeatherLocationWithDate(NORTH_POLE,
+                FIRST_DAY));
+        CountingObserver unchangedDay = observe(WeatherEntry.buildWeatherLocationWithDate(
+                NORTH_POLE, SECOND_DAY));
+
+        // The second day comes back as stored, so it counts but isn't written
+        assertEquals(2, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{
+                        createWeatherValues(mNorthPoleId, FIRST_DAY, 21.5),
+                        createWeatherValues(mNorthPoleId, SECOND_DAY, 0)
+                }));
+
+        assertEquals(1, day.awaitChanges());
+        assertEquals(0, unchangedDay.settle());
+    }
+
+    public void testDeleteNotifiesTheDeletedDays() {
+        CountingObserver day = observe(WeatherEntry.buildWeatherLocationWithDate(NORTH_POLE,
+                FIRST_DAY));
+        CountingObserver otherLocationDay = observe(WeatherEntry.buildWeatherLocationWithDate(
+                MOUNTAIN_VIEW, FIRST_DAY));
+        CountingObserver otherDay = observe(WeatherEntry.buildWeatherLocationWithDate(NORTH_POLE,
+                SECOND_DAY));
+        CountingObserver table = observe(WeatherEntry.CONTENT_URI);
+
+        // The way the sync prunes past days, across every location
+        assertEquals(2, mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(WeatherContract.normalizeDate(FIRST_DAY))}));
+
+        assertEquals(1, day.awaitChanges());
+        assertEquals(1, otherLocationDay.awaitChanges());
+        assertEquals(2, table.getChangeCount());
+        assertEquals(0, otherDay.getChangeCount());
+
+        // A delete that matches nothing tells no one
+        assertEquals(0, mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(WeatherContract.normalizeDate(FIRST_DAY))}));
+        assertEquals(2, table.settle());
+    }
+
+    public void testBatchNotifiesOnlyWhatItChanged() throws Exception {
+        CountingObserver day = observe(WeatherEntry.buildWeatherLocationWithDate(NORTH_POLE,
+                FIRST_DAY));
+        CountingObserver otherDay = observe(WeatherEntry.buildWeatherLocationWithDate(NORTH_POLE,
+                SECOND_DAY));
+        CountingObserver otherLocationDay = observe(WeatherEntry.buildWeatherLocationWithDate(
+                MOUNTAIN_VIEW, SECOND_DAY));
+        CountingObserver otherLocationOtherDay = observe(WeatherEntry.buildWeatherLocationWithDate(
+                MOUNTAIN_VIEW, FIRST_DAY));
+        CountingObserver hourly = observe(HourlyEntry.buildHourlyLocation(NORTH_POLE));
+        CountingObserver otherHourly = observe(HourlyEntry.buildHourlyLocation(MOUNTAIN_VIEW));
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(createWeatherValues(mNorthPoleId, FIRST_DAY, 21.5))
+                .build());
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(createWeatherValues(mMountainViewId, SECOND_DAY, 21.5))
+                .build());
+        operations.add(ContentProviderOperation.newInsert(HourlyEntry.CONTENT_URI)
+                .withValues(createHourlyValues(mNorthPoleId, FIRST_DAY / 1000))
+                .build());
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        assertEquals(1, day.awaitChanges());
+        assertEquals(1, otherLocationDay.awaitChanges());
+        assertEquals(1, hourly.awaitChanges());
+        assertEquals(0, otherDay.getChangeCount());
+        assertEquals(0, otherLocationOtherDay.getChangeCount());
+        assertEquals(0, otherHourly.getChangeCount());
+    }
+
+    public void testUnknownLocationNotifiesTheTable() {
+        // A row the registry can't place, e.g. for a location written around the provider
+        long unknownLocationId = mMountainViewId + 1000;
+        CountingObserver list = observe(WeatherEntry.buildWeatherLocation(NORTH_POLE));
+
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                createWeatherValues(unknownLocationId, FIRST_DAY, 21.5));
+
+        assertEquals(1, list.awaitChanges());
+    }
+}
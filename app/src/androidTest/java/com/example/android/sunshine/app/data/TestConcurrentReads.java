@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Runs one writer, storing a forecast for every location through applyBatch the way the sync
+    does, against several readers querying a location's days the way the list and the widgets
+    do, and reports the readers' p50/p99 latency while a sync is open.  Every read must see one
+    sync's forecast whole.  On Jelly Bean and up, where the database is in write-ahead-log mode,
+    reads must also finish while a sync is open rather than queue behind it.  The provider's
+    forecast cache is off throughout, so that every read reaches the database.
+ */
+public class TestConcurrentReads extends AndroidTestCase {
+    private static final String LOG_TAG = TestConcurrentReads.class.getSimpleName();
+
+    private static final int READERS = 4;
+    private static final int SYNCS = 20;
+    private static final int LOCATIONS = 20;
+    private static final int DAYS = 14;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FIRST_DAY = 1419033600000L; // December 20th, 2014
+
+    private final long[] mLocationIds = new long[LOCATIONS];
+    // The sync in progress, or 0 between syncs
+    private final AtomicInteger mOpenSync = new AtomicInteger();
+    private final AtomicReference<String> mFailure = new AtomicReference<String>();
+    private volatile boolean mDone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        setForecastCacheEnabled(mContext, false);
+        TestUtilities.deleteAllRecords(mContext);
+        for (int i = 0; i < LOCATIONS; i++) {
+            mLocationIds[i] = ContentUris.parseId(mContext.getContentResolver().insert(
+                    LocationEntry.CONTENT_URI, TestUtilities.createLocationValues("loc" + i)));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        setForecastCacheEnabled(mContext, true);
+        super.tearDown();
+    }
+
+    /**
+     * Turns the forecast cache of the app's own provider, which the readers query, on or off.
+     */
+    private static void setForecastCacheEnabled(Context context, boolean enabled) {
+        ContentProviderClient client = context.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        assertNotNull("Error: no provider", client);
+        try {
+            ((WeatherProvider) client.getLocalContentProvider()).setForecastCacheEnabled(enabled);
+        } finally {
+            client.release();
+        }
+    }
+
+    /**
+     * Stores every location's days, each with the sync's number as its high, and prunes the
+     * past, in one batch.
+     */
+    private void sync(int sync) throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (long locationId : mLocationIds) {
+            for (int day = 0; day < DAYS; day++) {
+                ContentValues values = new ContentValues();
+                values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+                values.put(WeatherEntry.COLUMN_DATE, FIRST_DAY + day * DAY_IN_MILLIS);
+                values.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+                values.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+                values.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+                values.put(WeatherEntry.COLUMN_MAX_TEMP, sync);
+                values.put(WeatherEntry.COLUMN_MIN_TEMP, -sync);
+                values.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+                values.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+                values.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+                operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                        .withValues(values)
+                        .build());
+            }
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " < ?",
+                        new String[]{Long.toString(FIRST_DAY)})
+                .build());
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+    }
+
+    private void recordFailure(String failure) {
+        mFailure.compareAndSet(null, failure);
+    }
+
+    /**
+     * Reads a location's days over and over until the writer is done.
+     *
+     * @param duringSync collects the latency, in nanoseconds, of every read that started while
+     *                   a sync was open
+     * @return how many reads finished within the sync they started in
+     */
+    private int read(int reader, List<Long> duringSync) {
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate("loc" + reader % LOCATIONS,
+                FIRST_DAY);
+        String[] projection = new String[]{WeatherEntry.COLUMN_MAX_TEMP};
+        int overlapped = 0;
+        while (!mDone && mFailure.get() == null) {
+            int openSync = mOpenSync.get();
+            long start = System.nanoTime();
+            Cursor cursor = mContext.getContentResolver().query(uri, projection, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            try {
+                if (cursor.getCount() != DAYS) {
+                    recordFailure("Read " + cursor.getCount() + " of " + DAYS + " days");
+                }
+                cursor.moveToFirst();
+                int sync = cursor.getInt(0);
+                while (cursor.moveToNext()) {
+                    if (cursor.getInt(0) != sync) {
+                        recordFailure("Read the days of syncs " + sync + " and "
+                                + cursor.getInt(0));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            long nanos = System.nanoTime() - start;
+            if (openSync != 0) {
+                duringSync.add(nanos);
+                if (mOpenSync.get() == openSync) {
+                    overlapped++;
+                }
+            }
+        }
+        return overlapped;
+    }
+
+    private static double percentileMillis(long[] sortedNanos, int percentile) {
+        int index = Math.min(sortedNanos.length - 1, sortedNanos.length * percentile / 100);
+        return sortedNanos[index] / 1000000.0;
+    }
+
+    public void testDatabaseIsInWalMode() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        try {
+            String journalMode = DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                assertEquals("wal", journalMode.toLowerCase());
+            } else {
+                assertFalse("wal".equals(journalMode.toLowerCase()));
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testReadsDuringSyncs() throws Exception {
+        // The first sync stores the days every read expects to find
+        sync(1);
+
+        final List<List<Long>> latencies = new ArrayList<List<Long>>();
+        final AtomicInteger overlapped = new AtomicInteger();
+        Thread[] readers = new Thread[READERS];
+        for (int i = 0; i < READERS; i++) {
+            final int reader = i;
+            final List<Long> duringSync = new ArrayList<Long>();
+            latencies.add(duringSync);
+            readers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        overlapped.addAndGet(read(reader, duringSync));
+                    } catch (RuntimeException e) {
+                        recordFailure("Reader " + reader + " failed: " + e);
+                    }
+                }
+            });
+            readers[i].start();
+        }
+
+        long writeNanos = 0;
+        try {
+            for (int sync = 2; sync < SYNCS + 2 && mFailure.get() == null; sync++) {
+                long start = System.nanoTime();
+                mOpenSync.set(sync);
+                try {
+                    sync(sync);
+                } finally {
+                    mOpenSync.set(0);
+                }
+                writeNanos += System.nanoTime() - start;
+            }
+        } finally {
+            mDone = true;
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+        assertNull(mFailure.get(), mFailure.get());
+
+        int count = 0;
+        for (List<Long> duringSync : latencies) {
+            count += duringSync.size();
+        }
+        long[] sorted = new long[count];
+        int i = 0;
+        for (List<Long> duringSync : latencies) {
+            for (long nanos : duringSync) {
+                sorted[i++] = nanos;
+            }
+        }
+        Arrays.sort(sorted);
+        Log.i(LOG_TAG, SYNCS + " syncs of " + LOCATIONS * DAYS + " rows, "
+                + writeNanos / SYNCS / 1000 + "us each, against " + READERS + " readers: "
+                + count + " reads during the syncs, " + overlapped.get()
+                + " of them finished while it was still open, "
+                + (count == 0 ? "no latencies"
+                : String.format("p50 %.2fms, p99 %.2fms", percentileMillis(sorted, 50),
+                percentileMillis(sorted, 99))));
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            assertTrue("Error: no read got through while a sync was open", overlapped.get() > 0);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Upgrades a database created by each past version of the schema, frozen here as that version
+    created it, and checks that the rows and their ids survive and that the result matches a
+    database created at the current version.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    static final String UPGRADE_DATABASE_NAME = "upgrade_test.db";
+    static final String FRESH_DATABASE_NAME = "fresh_test.db";
+
+    private static final String VERSION_2_LOCATION_TABLE =
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY, location_setting TEXT UNIQUE NOT NULL, "
+                    + "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL );";
+    private static final String VERSION_3_LOCATION_TABLE =
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY, location_setting TEXT UNIQUE NOT NULL, "
+                    + "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, "
+                    + "coord_long REAL NOT NULL, city_id INTEGER );";
+    private static final String VERSION_2_WEATHER_TABLE =
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "location_id INTEGER NOT NULL, date INTEGER NOT NULL, "
+                    + "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL, "
+                    + "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, "
+                    + "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, "
+                    + "FOREIGN KEY (location_id) REFERENCES location (_id), "
+                    + "UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+    private static final String VERSION_5_WEATHER_TABLE =
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "location_id INTEGER NOT NULL, date INTEGER NOT NULL, "
+                    + "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL, "
+                    + "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, "
+                    + "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, "
+                    + "FOREIGN KEY (location_id) REFERENCES location (_id), "
+                    + "UNIQUE (date, location_id));";
+    private static final String VERSION_4_HOURLY_TABLE =
+            "CREATE TABLE hourly (_id INTEGER PRIMARY KEY, location_id INTEGER NOT NULL, "
+                    + "time INTEGER NOT NULL, weather_id INTEGER NOT NULL, "
+                    + "temp INTEGER NOT NULL, humidity INTEGER NOT NULL, "
+                    + "pressure INTEGER NOT NULL, wind INTEGER NOT NULL, "
+                    + "degrees INTEGER NOT NULL, "
+                    + "FOREIGN KEY (location_id) REFERENCES location (_id), "
+                    + "UNIQUE (location_id, time) ON CONFLICT REPLACE);";
+
+    // The tables as each version created them, by version
+    private static final String[][] SCHEMAS = {
+            null,
+            // Version 1 predates the migrations, so any tables will do: an upgrade starts over
+            {VERSION_2_LOCATION_TABLE, VERSION_2_WEATHER_TABLE},
+            {VERSION_2_LOCATION_TABLE, VERSION_2_WEATHER_TABLE},
+            {VERSION_3_LOCATION_TABLE, VERSION_2_WEATHER_TABLE},
+            {VERSION_3_LOCATION_TABLE, VERSION_2_WEATHER_TABLE, VERSION_4_HOURLY_TABLE},
+            {VERSION_3_LOCATION_TABLE, VERSION_5_WEATHER_TABLE, VERSION_4_HOURLY_TABLE},
+    };
+
+    private long mLocationRowId;
+    private long mWeatherRowId;
+    // The last id the weather table handed out, to a row that is gone by the upgrade
+    private long mDeletedWeatherRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(UPGRADE_DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(UPGRADE_DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /**
+     * Creates the upgrade test database as the given version left it, with a location and a
+     * day of weather in it.
+     */
+    private void createDatabaseAt(int version) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(UPGRADE_DATABASE_NAME, 0, null);
+        try {
+            for (String statement : SCHEMAS[version]) {
+                db.execSQL(statement);
+            }
+            mLocationRowId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                    TestUtilities.createNorthPoleLocationValues());
+            ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationRowId);
+            // The replacing versions burnt an id on every write of the same day, the later
+            // ones refuse all but the first
+            for (int i = 0; i < 3; i++) {
+                long rowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                        weatherValues);
+                if (rowId != -1) {
+                    mWeatherRowId = rowId;
+                }
+            }
+            ContentValues nextDayValues = new ContentValues(weatherValues);
+            nextDayValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + 1);
+            mDeletedWeatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                    nextDayValues);
+            db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                    WeatherContract.WeatherEntry._ID + " = " + mDeletedWeatherRowId, null);
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * @return every table's columns and indexes, in a form that doesn't depend on how
+     * the table came to be
+     */
+    private static List<String> describeSchema(SQLiteDatabase db) {
+        List<String> description = new ArrayList<String>();
+        Cursor tables = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' "
+                + "AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (tables.moveToNext()) {
+                String table = tables.getString(0);
+                Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+                try {
+                    while (columns.moveToNext()) {
+                        description.add(table + "." + columns.getString(1) + " "
+                                + columns.getString(2) + " notnull=" + columns.getInt(3)
+                                + " pk=" + columns.getInt(5));
+                    }
+                } finally {
+                    columns.close();
+                }
+                Cursor indexes = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+                try {
+                    while (indexes.moveToNext()) {
+                        String index = indexes.getString(1);
+                        StringBuilder indexColumns = new StringBuilder();
+                        Cursor info = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+                        try {
+                            while (info.moveToNext()) {
+                                indexColumns.append(info.getString(2)).append(',');
+                            }
+                        } finally {
+                            info.close();
+                        }
+                        description.add(table + " index(" + indexColumns + ") unique="
+                                + indexes.getInt(2));
+                    }
+                } finally {
+                    indexes.close();
+                }
+            }
+        } finally {
+            tables.close();
+        }
+        Collections.sort(description);
+        return description;
+    }
+
+    /**
+     * @return the sql the table was created with, e.g. to look for its conflict clause
+     */
+    private static String getTableSql(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{table});
+        try {
+            assertTrue("Error: no table " + table, cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertMatchesFreshSchema(SQLiteDatabase upgraded) {
+        SQLiteDatabase fresh = new WeatherDbHelper(mContext, FRESH_DATABASE_NAME)
+                .getWritableDatabase();
+        try {
+            assertEquals(describeSchema(fresh), describeSchema(upgraded));
+            assertFalse("Error: weather still replaces on conflict",
+                    getTableSql(upgraded, WeatherContract.WeatherEntry.TABLE_NAME).contains("REPLACE"));
+        } finally {
+            fresh.close();
+        }
+    }
+
+    private void checkUpgradeKeepsRows(int fromVersion) {
+        createDatabaseAt(fromVersion);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext, UPGRADE_DATABASE_NAME)
+                .getWritableDatabase();
+        try {
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertMatchesFreshSchema(db);
+
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME, null, null, null,
+                    null, null, null);
+            assertTrue("Error: the location didn't survive the upgrade", cursor.moveToFirst());
+            assertEquals(mLocationRowId,
+                    cursor.getLong(cursor.getColumnIndex(WeatherContract.LocationEntry._ID)));
+            TestUtilities.validateCurrentRecord("Error: location changed by the upgrade",
+                    cursor, TestUtilities.createNorthPoleLocationValues());
+            cursor.close();
+
+            ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationRowId);
+            cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null,
+                    null, null, null);
+            assertTrue("Error: the weather didn't survive the upgrade", cursor.moveToFirst());
+            assertEquals(mWeatherRowId,
+                    cursor.getLong(cursor.getColumnIndex(WeatherContract.WeatherEntry._ID)));
+            TestUtilities.validateCurrentRecord("Error: weather changed by the upgrade",
+                    cursor, weatherValues);
+            assertFalse(cursor.moveToNext());
+            cursor.close();
+
+            // A second row for the day is refused rather than replacing the first
+            assertEquals(-1, db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                    weatherValues));
+            // New rows carry on from the old counter, not from the highest surviving id
+            db.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+            assertEquals(mDeletedWeatherRowId + 1, db.insert(
+                    WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues));
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testUpgradeFromVersion2() {
+        checkUpgradeKeepsRows(2);
+    }
+
+    public void testUpgradeFromVersion3() {
+        checkUpgradeKeepsRows(3);
+    }
+
+    public void testUpgradeFromVersion4() {
+        checkUpgradeKeepsRows(4);
+    }
+
+    public void testUpgradeFromVersion5() {
+        checkUpgradeKeepsRows(5);
+    }
+
+    public void testEveryVersionHasAStep() {
+        assertEquals("Error: a schema change needs a frozen schema and a test here",
+                WeatherDbHelper.DATABASE_VERSION, SCHEMAS.length);
+        for (int version = WeatherDbHelper.OLDEST_MIGRATED_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            createDatabaseAt(version);
+            SQLiteDatabase db = mContext.openOrCreateDatabase(UPGRADE_DATABASE_NAME, 0, null);
+            try {
+                // One step at a time, each from the schema that version really had
+                db.beginTransaction();
+                try {
+                    WeatherDbHelper.migrate(db, version);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (version + 1 < SCHEMAS.length) {
+                    SQLiteDatabase expected = mContext.openOrCreateDatabase(FRESH_DATABASE_NAME,
+                            0, null);
+                    try {
+                        for (String statement : SCHEMAS[version + 1]) {
+                            expected.execSQL(statement);
+                        }
+                        assertEquals("Error: step from version " + version,
+                                describeSchema(expected), describeSchema(db));
+                    } finally {
+                        expected.close();
+                    }
+                }
+            } finally {
+                db.close();
+            }
+            mContext.deleteDatabase(UPGRADE_DATABASE_NAME);
+            mContext.deleteDatabase(FRESH_DATABASE_NAME);
+        }
+    }
+
+    public void testUpgradeFromUnknownVersionStartsOver() {
+        createDatabaseAt(1);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext, UPGRADE_DATABASE_NAME)
+                .getWritableDatabase();
+        try {
+            assertMatchesFreshSchema(db);
+            Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null,
+                    null, null, null);
+            assertEquals(0, cursor.getCount());
+            cursor.close();
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the provider serves repeated reads of a forecast from memory, exactly as the
+    database would have, and that a write throws the cached forecasts away.  The provider under
+    test is our own instance, and every write goes through it.
+ */
+public class TestForecastCache extends AndroidTestCase {
+
+    private static final String[] FORECAST_PROJECTION = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID
+    };
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // The rows of newRows, for the tests of the cache itself
+    private static final ForecastCache.Slice ALL_DAYS = ForecastCache.Slice.of(
+            new String[]{WeatherEntry.COLUMN_DATE}, null, 0, Long.MAX_VALUE, 0);
+
+    private WeatherProvider mProvider;
+    private ForecastCache mCache;
+    private long mLocationId;
+    private Uri mForecastUri;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mProvider = new WeatherProvider();
+        mProvider.attachInfo(mContext, null);
+        mCache = mProvider.getForecastCache();
+
+        mLocationId = ContentUris.parseId(mProvider.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        mProvider.insert(WeatherEntry.CONTENT_URI, TestUtilities.createWeatherValues(mLocationId));
+        mForecastUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    private Cursor queryForecast(String[] projection) {
+        Cursor cursor = mProvider.query(mForecastUri, projection, null, null, SORT_ORDER);
+        assertNotNull("Error: no cursor for " + mForecastUri, cursor);
+        return cursor;
+    }
+
+    public void testRepeatedReadsHitTheCache() {
+        if (mCache == null) {
+            return;
+        }
+        Cursor first = queryForecast(FORECAST_PROJECTION);
+        Cursor second = queryForecast(FORECAST_PROJECTION);
+        try {
+            assertEquals("Error: the first read should have missed", 1, mCache.getMissCount());
+            assertEquals("Error: the second read should have hit", 1, mCache.getHitCount());
+            assertEquals(1, first.getCount());
+            assertEquals(1, second.getCount());
+
+            // Read twice off the same snapshot, each cursor keeps its own position
+            assertTrue(second.moveToFirst());
+            assertTrue(first.moveToFirst());
+            assertFalse(first.moveToNext());
+            // As the database gives them, e.g. the max temperature, a real, reads as "75"
+            ContentValues expected = new ContentValues();
+            expected.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            expected.put(WeatherEntry.COLUMN_MAX_TEMP, 75);
+            expected.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+            TestUtilities.validateCurrentRecord("Error: the cached forecast differs", second,
+                    expected);
+            assertEquals(Cursor.FIELD_TYPE_FLOAT,
+                    second.getType(second.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+            assertEquals(321, second.getInt(second.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID)));
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    public void testConsumersShareOneRead() {
+        if (mCache == null) {
+            return;
+        }
+        // The list, then the today widget, each with its own columns and order
+        queryForecast(FORECAST_PROJECTION).close();
+        Cursor today = mProvider.query(
+                WeatherEntry.buildWeatherLocationToday(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE),
+                new String[]{
+                        WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                        WeatherEntry.COLUMN_MIN_TEMP,
+                        LocationEntry.COLUMN_CITY_NAME
+                },
+                null, null, null);
+        try {
+            assertEquals("Error: the today read queried the database again",
+                    1, mCache.getMissCount());
+            assertEquals(1, mCache.getHitCount());
+            assertEquals(3, today.getColumnCount());
+            assertEquals(WeatherEntry._ID, today.getColumnName(0));
+            assertTrue(today.moveToFirst());
+            assertEquals(1, today.getCount());
+            assertEquals(65, today.getInt(1));
+            assertEquals("North Pole", today.getString(2));
+        } finally {
+            today.close();
+        }
+    }
+
+    public void testRangeIsCutFromTheSnapshot() {
+        if (mCache == null) {
+            return;
+        }
+        ContentValues tomorrow = TestUtilities.createWeatherValues(mLocationId);
+        tomorrow.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + DAY_IN_MILLIS);
+        tomorrow.put(WeatherEntry.COLUMN_SHORT_DESC, "Comets");
+        mProvider.insert(WeatherEntry.CONTENT_URI, tomorrow);
+
+        queryForecast(FORECAST_PROJECTION).close();
+        // The latest day, as SQLite would order and limit it
+        Cursor latest = mProvider.query(
+                WeatherEntry.buildWeatherLocationWithRange(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE, 0, 1),
+                new String[]{WeatherEntry.COLUMN_SHORT_DESC},
+                null, null, WeatherEntry.COLUMN_DATE + " DESC");
+        try {
+            assertEquals(1, mCache.getMissCount());
+            assertEquals(1, latest.getCount());
+            assertTrue(latest.moveToFirst());
+            assertEquals("Comets", latest.getString(0));
+        } finally {
+            latest.close();
+        }
+    }
+
+    public void testWriteInvalidates() {
+        if (mCache == null) {
+            return;
+        }
+        queryForecast(FORECAST_PROJECTION).close();
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Comets");
+        assertEquals(1, mProvider.update(WeatherEntry.CONTENT_URI, values, null, null));
+
+        Cursor cursor = queryForecast(FORECAST_PROJECTION);
+        try {
+            assertEquals("Error: the forecast was served after a write",
+                    2, mCache.getMissCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Comets",
+                    cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testStatsAreReported() {
+        if (mCache == null) {
+            return;
+        }
+        // The app's own provider, which the dumps report on, not the one under test
+        mContext.getContentResolver().query(mForecastUri, FORECAST_PROJECTION, null, null,
+                SORT_ORDER).close();
+        String stats = WeatherProvider.getForecastCacheStats(mContext);
+        assertTrue("Error: unexpected stats " + stats, stats.matches("\\d+ hits, \\d+ misses"));
+    }
+
+    public void testReadOverlappingAWriteIsNotKept() {
+        if (mCache == null) {
+            return;
+        }
+        ForecastCache cache = new ForecastCache(ForecastCache.DEFAULT_MAX_ROWS);
+        int generation = cache.getGeneration();
+        cache.invalidate();
+        cache.put("key", generation, newRows(1), ALL_DAYS).close();
+
+        assertNull("Error: a read from before a write was kept", cache.get("key", ALL_DAYS));
+    }
+
+    public void testSizeIsBounded() {
+        if (mCache == null) {
+            return;
+        }
+        ForecastCache cache = new ForecastCache(5);
+        cache.put("first", cache.getGeneration(), newRows(2), ALL_DAYS).close();
+        cache.put("second", cache.getGeneration(), newRows(2), ALL_DAYS).close();
+        cache.put("third", cache.getGeneration(), newRows(2), ALL_DAYS).close();
+
+        assertNull("Error: the least recently read forecast was kept",
+                cache.get("first", ALL_DAYS));
+        Cursor third = cache.get("third", ALL_DAYS);
+        assertNotNull("Error: the latest forecast was dropped", third);
+        assertEquals(2, third.getCount());
+        third.close();
+    }
+
+    private static Cursor newRows(int count) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{WeatherEntry.COLUMN_DATE});
+        for (int i = 0; i < count; i++) {
+            cursor.addRow(new Object[]{(long) i});
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+
+/*
+    Checks that the location registry follows the provider's writes, and benchmarks resolving
+    every location of a sync through it against one provider query per location, the way the
+    sync adapter used to, at 1 and 100 locations.
+ */
+public class TestLocationRegistry extends AndroidTestCase {
+    private static final String LOG_TAG = TestLocationRegistry.class.getSimpleName();
+
+    // Rounds of each benchmark, to smooth out the first query's cost
+    private static final int BENCHMARK_ROUNDS = 5;
+
+    private LocationRegistry mRegistry;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRegistry = LocationRegistry.getInstance();
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    private long insertLocation(String locationSetting) {
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createLocationValues(locationSetting));
+        return ContentUris.parseId(uri);
+    }
+
+    public void testFollowsProviderWrites() {
+        long first = insertLocation("99705");
+        assertEquals(first, mRegistry.get(mContext, "99705").id);
+        int warmCount = mRegistry.getWarmCount();
+
+        // An insert is added without reading the table again
+        long second = insertLocation("94043");
+        assertEquals(second, mRegistry.get(mContext, "94043").id);
+        assertEquals(warmCount, mRegistry.getWarmCount());
+
+        // An update may change any row, so the table is read again
+        ContentValues cityId = new ContentValues();
+        cityId.put(LocationEntry.COLUMN_CITY_ID, 5375480L);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, cityId,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(second)});
+        assertEquals(5375480L, mRegistry.get(mContext, "94043").cityId);
+        assertEquals(warmCount + 1, mRegistry.getWarmCount());
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(first)});
+        assertNull(mRegistry.get(mContext, "99705"));
+        assertEquals(second, mRegistry.get(mContext, "94043").id);
+    }
+
+    public void testRolledBackInsertIsForgotten() throws Exception {
+        mRegistry.get(mContext, "99705");
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createLocationValues("99705"))
+                .build());
+        // The same setting again breaks the unique constraint and rolls the batch back
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createLocationValues("99705"))
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("The batch should have failed");
+        } catch (OperationApplicationException | android.database.SQLException expected) {
+        }
+        assertNull(mRegistry.get(mContext, "99705"));
+    }
+
+    private String[] insertLocations(int count) throws Exception {
+        String[] settings = new String[count];
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (int i = 0; i < count; i++) {
+            settings[i] = "loc" + i;
+            operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                    .withValues(TestUtilities.createLocationValues(settings[i]))
+                    .build());
+        }
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        return settings;
+    }
+
+    private long lookUpByQuery(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void benchmark(int locationCount) throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        String[] settings = insertLocations(locationCount);
+
+        long queryNanos = 0;
+        long registryNanos = 0;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            long[] queried = new long[locationCount];
+            long start = System.nanoTime();
+            for (int i = 0; i < locationCount; i++) {
+                queried[i] = lookUpByQuery(settings[i]);
+            }
+            queryNanos += System.nanoTime() - start;
+
+            // A cold registry each round, so its one read of the table is counted every time
+            mRegistry.invalidate();
+            int warmCount = mRegistry.getWarmCount();
+            start = System.nanoTime();
+            for (int i = 0; i < locationCount; i++) {
+                assertEquals(queried[i], mRegistry.get(mContext, settings[i]).id);
+            }
+            registryNanos += System.nanoTime() - start;
+            assertEquals(warmCount + 1, mRegistry.getWarmCount());
+        }
+
+        Log.i(LOG_TAG, locationCount + " locations per sync: "
+                + queryNanos / BENCHMARK_ROUNDS / 1000 + "us in " + locationCount
+                + " provider queries, " + registryNanos / BENCHMARK_ROUNDS / 1000
+                + "us through the registry (1 query when cold, none once warm)");
+    }
+
+    public void testBenchmarkOneLocation() throws Exception {
+        benchmark(1);
+    }
+
+    public void testBenchmarkHundredLocations() throws Exception {
+        benchmark(100);
+    }
+}
@@ -16,20 +16,26 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -56,6 +62,11 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -512,4 +523,156 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        A location's hourly query starts with the period that contains the start time, and comes
+        back in time order whatever order the periods were inserted in.
+     */
+    public void testHourlyQuery() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        long periodSeconds = 3 * 60 * 60;
+        long firstTime = 1419120000L; // December 21st, 2014
+        ContentValues[] periods = new ContentValues[4];
+        for (int i = 0; i < periods.length; i++) {
+            ContentValues values = new ContentValues();
+            values.put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+            // Newest first
+            values.put(HourlyEntry.COLUMN_TIME, firstTime + (periods.length - 1 - i) * periodSeconds);
+            values.put(HourlyEntry.COLUMN_WEATHER_ID, 800);
+            values.put(HourlyEntry.COLUMN_TEMP, HourlyEntry.encode(-12.34 + i, HourlyEntry.TEMP_SCALE));
+            values.put(HourlyEntry.COLUMN_HUMIDITY, 80);
+            values.put(HourlyEntry.COLUMN_PRESSURE, HourlyEntry.encode(1013.2, HourlyEntry.PRESSURE_SCALE));
+            values.put(HourlyEntry.COLUMN_WIND_SPEED, HourlyEntry.encode(5.5, HourlyEntry.WIND_SPEED_SCALE));
+            values.put(HourlyEntry.COLUMN_DEGREES, 90);
+            periods[i] = values;
+        }
+        assertEquals(periods.length,
+                mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, periods));
+
+        // An hour into the second period
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithStartTime(TestUtilities.TEST_LOCATION,
+                        (firstTime + periodSeconds + 60 * 60) * 1000),
+                new String[]{HourlyEntry.COLUMN_TIME, HourlyEntry.COLUMN_TEMP},
+                null, null, null);
+        assertEquals(3, cursor.getCount());
+        long expectedTime = firstTime + periodSeconds;
+        while (cursor.moveToNext()) {
+            assertEquals(expectedTime, cursor.getLong(0));
+            expectedTime += periodSeconds;
+        }
+        cursor.moveToFirst();
+        assertEquals(-10.34, HourlyEntry.decode(cursor.getLong(1), HourlyEntry.TEMP_SCALE), 0.001);
+        cursor.close();
+
+        // A period stored again replaces the old row rather than duplicating it
+        periods[0].put(HourlyEntry.COLUMN_WEATHER_ID, 500);
+        mContext.getContentResolver().insert(HourlyEntry.CONTENT_URI, periods[0]);
+        assertEquals(periods.length, countRows(HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION)));
+    }
+
+    /*
+        A location's today is the first day stored from the given day on, a single row, and a
+        range comes back in date order, cut at its end date and at its limit.
+     */
+    public void testTodayAndRangeQueries() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] days = createBulkInsertWeatherValues(locationRowId);
+        assertEquals(days.length, mContext.getContentResolver().bulkInsert(
+                WeatherEntry.CONTENT_URI, days));
+        long dayInMillis = 1000 * 60 * 60 * 24;
+        long firstDay = TestUtilities.TEST_DATE;
+
+        // Before the first stored day, today is the first one
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationToday(TestUtilities.TEST_LOCATION,
+                        firstDay - 3 * dayInMillis), null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        TestUtilities.validateCursor("testTodayAndRangeQueries.  Error validating today",
+                cursor, days[0]);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationToday(TestUtilities.TEST_LOCATION,
+                        firstDay + 2 * dayInMillis), null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        TestUtilities.validateCursor("testTodayAndRangeQueries.  Error validating today",
+                cursor, days[2]);
+
+        // Five days wanted, three allowed
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithRange(TestUtilities.TEST_LOCATION,
+                        firstDay + dayInMillis, firstDay + 5 * dayInMillis, 3),
+                null, null, null, null);
+        assertEquals(3, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            TestUtilities.validateCurrentRecord("testTodayAndRangeQueries.  Error validating day "
+                    + i + " of the range", cursor, days[1 + i]);
+        }
+        cursor.close();
+
+        // The end comes before the limit
+        assertEquals(2, countRows(WeatherEntry.buildWeatherLocationWithRange(
+                TestUtilities.TEST_LOCATION, firstDay + 3 * dayInMillis,
+                firstDay + 4 * dayInMillis, 5)));
+        // Neither an end nor a limit
+        assertEquals(3, countRows(WeatherEntry.buildWeatherLocationWithRange(
+                TestUtilities.TEST_LOCATION, firstDay + 7 * dayInMillis, 0, 0)));
+    }
+
+    private static ArrayList<ContentProviderOperation> createForecastBatch() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (ContentValues weatherValues : createBulkInsertWeatherValues(0)) {
+            weatherValues.remove(WeatherEntry.COLUMN_LOC_KEY);
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        return operations;
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    /*
+        The sync stores every location it fetched with one applyBatch, which must commit all of it
+        or none of it.
+     */
+    public void testApplyBatch() throws Exception {
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, createForecastBatch());
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT + 1, results.length);
+        assertEquals(1, countRows(LocationEntry.CONTENT_URI));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, countRows(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION)));
+
+        // Now a batch whose last insert fails: nothing before it may be left behind
+        deleteAllRecordsFromProvider();
+        ArrayList<ContentProviderOperation> failing = createForecastBatch();
+        failing.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(TestUtilities.createWeatherValues(0))
+                .withValue(WeatherEntry.COLUMN_LOC_KEY, null)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, failing);
+            fail("The batch should have failed on the weather row without a location");
+        } catch (SQLException expected) {
+        }
+        assertEquals(0, countRows(LocationEntry.CONTENT_URI));
+        assertEquals(0, countRows(WeatherEntry.CONTENT_URI));
+    }
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs EXPLAIN QUERY PLAN on every query the provider serves and on the statements the sync
+    runs against the tables, and fails if one of them scans a whole table, or sorts rows an
+    index should have returned in order.  Reads of a whole table, such as the registry's load of
+    every location, are meant to scan and aren't checked.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+    private static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final String UNKNOWN_LOCATION = "00000";
+    private static final String DATE_SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private WeatherProvider mProvider;
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        // Known to the registry, so the provider filters on its id
+        TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        mProvider = new WeatherProvider();
+        mProvider.attachInfo(mContext, null);
+        mDb = new WeatherDbHelper(mContext).getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    /**
+     * @return the plan's steps, one description per step
+     */
+    private static List<String> readPlan(Cursor cursor) {
+        assertNotNull("Error: no plan", cursor);
+        List<String> plan = new ArrayList<String>();
+        try {
+            int detail = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertFalse("Error: empty plan", plan.isEmpty());
+        return plan;
+    }
+
+    private static void assertIndexed(String what, List<String> plan, boolean ordered) {
+        Log.d(LOG_TAG, what + ": " + plan);
+        for (String step : plan) {
+            assertFalse("Error: " + what + " scans a table: " + plan, step.startsWith("SCAN"));
+            if (ordered) {
+                assertFalse("Error: " + what + " sorts its rows: " + plan,
+                        step.contains("TEMP B-TREE"));
+            }
+        }
+    }
+
+    private void assertQueryIndexed(Uri uri, String selection, String[] selectionArgs,
+                                    String sortOrder) {
+        assertIndexed(uri + (selection != null ? " where " + selection : ""),
+                readPlan(mProvider.explainQuery(uri, null, selection, selectionArgs, sortOrder)),
+                sortOrder != null);
+    }
+
+    private void assertStatementIndexed(String sql, String... bindArgs) {
+        assertIndexed(sql, readPlan(mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, bindArgs)), false);
+    }
+
+    public void testWeatherQueriesUseIndexes() {
+        long now = System.currentTimeMillis();
+        for (String location : new String[]{TestUtilities.TEST_LOCATION, UNKNOWN_LOCATION}) {
+            // The list, the widgets and the wearable
+            assertQueryIndexed(WeatherEntry.buildWeatherLocation(location), null, null,
+                    DATE_SORT_ORDER);
+            assertQueryIndexed(WeatherEntry.buildWeatherLocationWithStartDate(location, now),
+                    null, null, DATE_SORT_ORDER);
+            // The detail view and the notification
+            assertQueryIndexed(WeatherEntry.buildWeatherLocationWithDate(location, now),
+                    null, null, null);
+            // The today widget, the wearable and Muzei
+            assertQueryIndexed(WeatherEntry.buildWeatherLocationToday(location, now),
+                    null, null, null);
+            assertQueryIndexed(WeatherEntry.buildWeatherLocationWithRange(location, now,
+                    now + 6 * 24 * 60 * 60 * 1000L, 3), null, null, DATE_SORT_ORDER);
+        }
+        // The sync's hashes of the stored days
+        assertQueryIndexed(WeatherEntry.CONTENT_URI, WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{"1"}, null);
+    }
+
+    public void testHourlyQueriesUseIndexes() {
+        long now = System.currentTimeMillis();
+        for (String location : new String[]{TestUtilities.TEST_LOCATION, UNKNOWN_LOCATION}) {
+            assertQueryIndexed(HourlyEntry.buildHourlyLocation(location), null, null, null);
+            assertQueryIndexed(HourlyEntry.buildHourlyLocationWithStartTime(location, now),
+                    null, null, null);
+        }
+    }
+
+    public void testLocationQueriesUseIndexes() {
+        assertQueryIndexed(LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION}, null);
+        assertQueryIndexed(LocationEntry.CONTENT_URI, LocationEntry._ID + " = ?",
+                new String[]{"1"}, null);
+    }
+
+    public void testSyncStatementsUseIndexes() {
+        // The lookup of a stored day before its update
+        assertStatementIndexed(WeatherUpserter.LOOKUP_SQL, "1", "0");
+        // The pruning of past days and periods
+        assertStatementIndexed("DELETE FROM " + WeatherEntry.TABLE_NAME + " WHERE "
+                + WeatherEntry.COLUMN_DATE + " <= ?", "0");
+        assertStatementIndexed("DELETE FROM " + HourlyEntry.TABLE_NAME + " WHERE "
+                + HourlyEntry.COLUMN_TIME + " < ?", "0");
+    }
+}
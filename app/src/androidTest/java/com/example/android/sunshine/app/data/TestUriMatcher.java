@@ -34,8 +34,13 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_TODAY = WeatherContract.WeatherEntry.buildWeatherLocationToday(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_RANGE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithRange(LOCATION_QUERY, TEST_DATE, 0, 1);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/hourly"
+    private static final Uri TEST_HOURLY_DIR = WeatherContract.HourlyEntry.CONTENT_URI;
+    private static final Uri TEST_HOURLY_WITH_LOCATION_DIR = WeatherContract.HourlyEntry.buildHourlyLocationWithStartTime(LOCATION_QUERY, TEST_DATE * 1000);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +56,15 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER TODAY URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_TODAY), WeatherProvider.WEATHER_TODAY);
+        assertEquals("Error: The WEATHER RANGE URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_RANGE_DIR), WeatherProvider.WEATHER_RANGE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The HOURLY URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_DIR), WeatherProvider.HOURLY);
+        assertEquals("Error: The HOURLY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_DIR), WeatherProvider.HOURLY_WITH_LOCATION);
     }
 }
@@ -92,6 +92,28 @@ public class TestUtilities extends AndroidTestCase {
         return testValues;
     }
 
+    /**
+     * @return a location at the North Pole's coordinates, under the given setting
+     */
+    static ContentValues createLocationValues(String locationSetting) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "City " + locationSetting);
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        return values;
+    }
+
+    /**
+     * Deletes every forecast, 3-hour period and location, through the provider.  Public for
+     * the tests of the other packages.
+     */
+    public static void deleteAllRecords(Context context) {
+        context.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        context.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        context.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
     /*
         Students: You can uncomment this function once you have finished creating the
         LocationEntry part of the WeatherContract as well as the WeatherDbHelper.
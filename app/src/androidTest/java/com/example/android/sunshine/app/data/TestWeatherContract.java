@@ -42,4 +42,24 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    public void testBuildWeatherLocationWithRange() {
+        long dayInMillis = 1000 * 60 * 60 * 24;
+        Uri rangeUri = WeatherContract.WeatherEntry.buildWeatherLocationWithRange(
+                TEST_WEATHER_LOCATION, TEST_WEATHER_DATE, TEST_WEATHER_DATE + 6 * dayInMillis, 3);
+        assertEquals("Error: Weather location not read back from the range Uri",
+                TEST_WEATHER_LOCATION,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(rangeUri));
+        assertEquals(WeatherContract.normalizeDate(TEST_WEATHER_DATE),
+                WeatherContract.WeatherEntry.getRangeStartFromUri(rangeUri));
+        assertEquals(WeatherContract.normalizeDate(TEST_WEATHER_DATE + 6 * dayInMillis),
+                WeatherContract.WeatherEntry.getRangeEndFromUri(rangeUri));
+        assertEquals(3, WeatherContract.WeatherEntry.getRangeLimitFromUri(rangeUri));
+
+        // Without an end or a limit
+        rangeUri = WeatherContract.WeatherEntry.buildWeatherLocationWithRange(
+                TEST_WEATHER_LOCATION, TEST_WEATHER_DATE, 0, 0);
+        assertEquals(0, WeatherContract.WeatherEntry.getRangeEndFromUri(rangeUri));
+        assertEquals(0, WeatherContract.WeatherEntry.getRangeLimitFromUri(rangeUri));
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Walks the circuit breaker through its states on a fake clock.
+ */
+public class TestCircuitBreaker extends AndroidTestCase {
+
+    private long mNow = 1000;
+    private final List<String> mTransitions = new ArrayList<String>();
+    private CircuitBreaker mBreaker;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBreaker = new CircuitBreaker("test", 2, 10000) {
+            @Override
+            long now() {
+                return mNow;
+            }
+        };
+        mBreaker.setListener(new CircuitBreaker.Listener() {
+            @Override
+            public void onStateChanged(CircuitBreaker breaker, CircuitBreaker.State from,
+                                       CircuitBreaker.State to) {
+                mTransitions.add(from + "->" + to);
+            }
+        });
+    }
+
+    private boolean tryAcquire() {
+        try {
+            mBreaker.acquire();
+            return true;
+        } catch (CircuitBreaker.OpenException e) {
+            return false;
+        }
+    }
+
+    public void testOpensAfterConsecutiveFailures() {
+        assertTrue(tryAcquire());
+        mBreaker.recordFailure(-1);
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+
+        // A success in between resets the count
+        assertTrue(tryAcquire());
+        mBreaker.recordSuccess();
+        assertTrue(tryAcquire());
+        mBreaker.recordFailure(-1);
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+
+        assertTrue(tryAcquire());
+        mBreaker.recordFailure(-1);
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+        assertFalse("An open breaker must turn requests away", tryAcquire());
+    }
+
+    public void testHalfOpenTrial() {
+        for (int i = 0; i < 2; i++) {
+            assertTrue(tryAcquire());
+            mBreaker.recordFailure(-1);
+        }
+
+        mNow += 10000;
+        assertTrue("The trial request should be let through", tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, mBreaker.getState());
+        assertFalse("Only one trial at a time", tryAcquire());
+
+        // The trial fails: open again for another period
+        mBreaker.recordFailure(-1);
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+        mNow += 9999;
+        assertFalse(tryAcquire());
+
+        mNow += 1;
+        assertTrue(tryAcquire());
+        mBreaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+
+        assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->OPEN, OPEN->HALF_OPEN, HALF_OPEN->CLOSED]",
+                mTransitions.toString());
+    }
+
+    public void testRetryAfterExtendsTheOpenPeriod() {
+        for (int i = 0; i < 2; i++) {
+            assertTrue(tryAcquire());
+            mBreaker.recordFailure(60000);
+        }
+        mNow += 10000;
+        assertFalse(tryAcquire());
+        mNow += 50000;
+        assertTrue(tryAcquire());
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.RecordedPayloads;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Tests HttpFetcher against a local server: conditional revalidation with If-None-Match and
+    If-Modified-Since, gzip negotiation and byte counting, and the total deadline.
+ */
+public class TestHttpFetcher extends AndroidTestCase {
+    private static final String LAST_MODIFIED = "Tue, 27 Oct 2015 12:00:00 GMT";
+
+    private StubHttpServer mServer;
+    private ConditionalRequestCache mCache;
+    private HttpFetcher mFetcher;
+    private URL mUrl;
+
+    // What the server currently serves.  Changing it changes the ETag.
+    private volatile String mCurrentBody = RecordedPayloads.MOUNTAIN_VIEW_DAILY;
+    private volatile boolean mSendETag = true;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response serve(StubHttpServer.Request request) {
+                String body = mCurrentBody;
+                String eTag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+                if (mSendETag) {
+                    if (eTag.equals(request.getHeader("If-None-Match"))) {
+                        return new StubHttpServer.Response(HttpURLConnection.HTTP_NOT_MODIFIED);
+                    }
+                    return StubHttpServer.Response.ok(body).header("ETag", eTag);
+                }
+                if (LAST_MODIFIED.equals(request.getHeader("If-Modified-Since"))) {
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_NOT_MODIFIED);
+                }
+                return StubHttpServer.Response.ok(body).header("Last-Modified", LAST_MODIFIED);
+            }
+        });
+        mServer.start();
+        mUrl = mServer.getUrl("/data/2.5/forecast/daily?q=94043&mode=json&units=metric&cnt=4");
+
+        mCache = new ConditionalRequestCache(mContext);
+        mCache.clear();
+        mFetcher = new HttpFetcher(mCache);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mCache.clear();
+        super.tearDown();
+    }
+
+    private static String readBody(HttpFetcher.Response response) throws IOException {
+        InputStream in = response.getBody();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+
+    /*
+        Fetches the url and, if there is a body, reads it and commits the response the way the
+        sync adapter does once the forecast is stored.
+     */
+    private int fetchAndCommit() throws IOException {
+        HttpFetcher.Response response = mFetcher.get(mUrl);
+        try {
+            if (!response.isNotModified()) {
+                assertEquals(mCurrentBody, readBody(response));
+                mFetcher.commit(response);
+            }
+            return response.getResponseCode();
+        } finally {
+            response.close();
+        }
+    }
+
+    public void testETagRevalidation() throws IOException {
+        assertEquals(HttpURLConnection.HTTP_OK, fetchAndCommit());
+        assertNull("The first request must be unconditional",
+                mServer.getLastRequest().getHeader("If-None-Match"));
+        assertEquals(1, mCache.getMissCount());
+
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, fetchAndCommit());
+        assertNotNull("The second request must carry the ETag",
+                mServer.getLastRequest().getHeader("If-None-Match"));
+        assertEquals(1, mCache.getRevalidatedCount());
+        assertEquals(1, mCache.getHitCount());
+
+        // New content upstream: the revalidation fails and the new validator is stored
+        mCurrentBody = RecordedPayloads.MOUNTAIN_VIEW_DAILY_REORDERED;
+        assertEquals(HttpURLConnection.HTTP_OK, fetchAndCommit());
+        assertEquals(2, mCache.getRevalidatedCount());
+        assertEquals(1, mCache.getHitCount());
+
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, fetchAndCommit());
+        assertEquals(3, mCache.getRevalidatedCount());
+        assertEquals(2, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+        assertEquals(4, mServer.getRequestCount());
+    }
+
+    public void testLastModifiedRevalidation() throws IOException {
+        mSendETag = false;
+        assertEquals(HttpURLConnection.HTTP_OK, fetchAndCommit());
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, fetchAndCommit());
+        assertEquals(LAST_MODIFIED, mServer.getLastRequest().getHeader("If-Modified-Since"));
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    public void testUncommittedResponseIsNotCached() throws IOException {
+        // The caller failed to process the body, so it never calls commit()
+        HttpFetcher.Response response = mFetcher.get(mUrl);
+        response.close();
+
+        assertFalse(mCache.contains(mUrl.toString()));
+        assertEquals(HttpURLConnection.HTTP_OK, fetchAndCommit());
+        assertEquals(2, mCache.getMissCount());
+        assertEquals(0, mCache.getHitCount());
+    }
+
+    public void testInvalidateForcesFullFetch() throws IOException {
+        assertEquals(HttpURLConnection.HTTP_OK, fetchAndCommit());
+        mFetcher.invalidate(mUrl);
+        assertEquals(HttpURLConnection.HTTP_OK, fetchAndCommit());
+        assertNull(mServer.getLastRequest().getHeader("If-None-Match"));
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    public void testApiKeyIsNotStored() {
+        String uri = "http://example.com/forecast/daily?q=94043&APPID=secret&units=metric";
+        assertEquals("http://example.com/forecast/daily?q=94043&units=metric",
+                ConditionalRequestCache.keyFor(uri));
+
+        mCache.put(uri, "\"1\"", null);
+        assertEquals("\"1\"", mCache.getETag(uri));
+        assertEquals("Error: the validators should not depend on the key",
+                "\"1\"", mCache.getETag(uri.replace("secret", "another")));
+        for (String key : mContext.getSharedPreferences(ConditionalRequestCache.PREFS_NAME, 0)
+                .getAll().keySet()) {
+            assertFalse("Error: the API key was stored in " + key, key.contains("secret"));
+        }
+    }
+
+    public void testRemoveWhere() {
+        mCache.put("http://example.com/forecast?q=94043&APPID=key", "\"1\"", null);
+        mCache.put("http://example.com/forecast/daily?q=94043&cnt=14", null, LAST_MODIFIED);
+        mCache.put("http://example.com/forecast?q=10001&APPID=key", "\"2\"", null);
+
+        mCache.removeWhere("q", "94043");
+        assertFalse(mCache.contains("http://example.com/forecast?q=94043"));
+        assertFalse(mCache.contains("http://example.com/forecast/daily?q=94043&cnt=14"));
+        assertTrue("Error: another location's validators were dropped",
+                mCache.contains("http://example.com/forecast?q=10001"));
+    }
+
+    private static byte[] gzip(String body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzipOut = new GZIPOutputStream(out);
+        gzipOut.write(body.getBytes("UTF-8"));
+        gzipOut.close();
+        return out.toByteArray();
+    }
+
+    public void testGzipIsNegotiatedAndCounted() throws IOException {
+        StubHttpServer gzipServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response serve(StubHttpServer.Request request) throws IOException {
+                String acceptEncoding = request.getHeader("Accept-Encoding");
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_OK)
+                            .header("Content-Encoding", "gzip")
+                            .body(gzip(mCurrentBody));
+                }
+                return StubHttpServer.Response.ok(mCurrentBody);
+            }
+        });
+        gzipServer.start();
+        try {
+            HttpFetcher.Response response = new HttpFetcher(null).get(gzipServer.getUrl("/"));
+            try {
+                assertEquals(mCurrentBody, readBody(response));
+                long decodedLength = mCurrentBody.getBytes("UTF-8").length;
+                assertEquals(decodedLength, response.getDecodedBytes());
+                assertEquals(gzip(mCurrentBody).length, response.getWireBytes());
+                assertTrue("gzip should have saved something",
+                        response.getWireBytes() < response.getDecodedBytes());
+            } finally {
+                response.close();
+            }
+        } finally {
+            gzipServer.shutdown();
+        }
+    }
+
+    public void testTotalDeadlineIsEnforced() throws IOException {
+        // A server that answers promptly, then trickles the body a byte at a time.  No single
+        // read ever waits long enough for the read timeout to fire.
+        StubHttpServer slowServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response serve(StubHttpServer.Request request) {
+                return StubHttpServer.Response.ok(mCurrentBody);
+            }
+        }) {
+            @Override
+            protected void writeBody(OutputStream out, byte[] body) throws IOException {
+                for (byte b : body) {
+                    out.write(b);
+                    out.flush();
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        slowServer.start();
+        try {
+            HttpFetcher fetcher = new HttpFetcher(null);
+            fetcher.setTimeouts(1000, 1000, 500);
+            HttpFetcher.Response response = fetcher.get(slowServer.getUrl("/"));
+            try {
+                readBody(response);
+                fail("The body took longer than the total deadline but was read anyway");
+            } catch (SocketTimeoutException expected) {
+            } finally {
+                response.close();
+            }
+        } finally {
+            slowServer.shutdown();
+        }
+    }
+}
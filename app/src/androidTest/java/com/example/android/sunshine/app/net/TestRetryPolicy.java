@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import android.test.AndroidTestCase;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+/*
+    Tests the backoff delays, Retry-After handling and what counts as retryable.
+ */
+public class TestRetryPolicy extends AndroidTestCase {
+
+    public void testFullJitterStaysUnderTheExponentialCap() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, new Random(1));
+        IOException failure = new HttpStatusException(503, -1);
+        for (int i = 0; i < 100; i++) {
+            assertBetween(0, 100, policy.getDelayMillis(1, failure));
+            assertBetween(0, 200, policy.getDelayMillis(2, failure));
+            assertBetween(0, 400, policy.getDelayMillis(3, failure));
+            // Capped at the maximum delay
+            assertBetween(0, 1000, policy.getDelayMillis(8, failure));
+        }
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+
+    public void testGivesUpAfterMaxAttempts() {
+        RetryPolicy policy = new RetryPolicy(3, 100, 1000, new Random(1));
+        IOException failure = new IOException("connection reset");
+        assertTrue(policy.getDelayMillis(1, failure) >= 0);
+        assertTrue(policy.getDelayMillis(2, failure) >= 0);
+        assertEquals(-1, policy.getDelayMillis(3, failure));
+    }
+
+    public void testRetryAfterIsHonored() {
+        RetryPolicy policy = new RetryPolicy(3, 100, 5000, new Random(1));
+        assertTrue(policy.getDelayMillis(1, new HttpStatusException(503, 2000)) >= 2000);
+        // Longer than we are willing to wait: give up instead
+        assertEquals(-1, policy.getDelayMillis(1, new HttpStatusException(429, 60000)));
+    }
+
+    public void testRetryableFailures() {
+        assertTrue(RetryPolicy.isRetryable(new IOException()));
+        assertTrue(RetryPolicy.isRetryable(new SocketTimeoutException()));
+        assertTrue(RetryPolicy.isRetryable(new HttpStatusException(500, -1)));
+        assertTrue(RetryPolicy.isRetryable(new HttpStatusException(429, -1)));
+        assertFalse(RetryPolicy.isRetryable(new HttpStatusException(404, -1)));
+        assertFalse(RetryPolicy.isRetryable(new HttpStatusException(401, -1)));
+        assertFalse(RetryPolicy.isRetryable(new InterruptedIOException()));
+        assertFalse(RetryPolicy.isRetryable(new CircuitBreaker.OpenException("test")));
+    }
+
+    public void testParseRetryAfter() {
+        long now = 1445976000000L; // Tue, 27 Oct 2015 20:00:00 GMT
+        assertEquals(120000, HttpStatusException.parseRetryAfter("120", now));
+        assertEquals(30000, HttpStatusException.parseRetryAfter(
+                "Tue, 27 Oct 2015 20:00:30 GMT", now));
+        assertEquals(0, HttpStatusException.parseRetryAfter(
+                "Tue, 27 Oct 2015 19:00:00 GMT", now));
+        assertEquals(-1, HttpStatusException.parseRetryAfter(null, now));
+        assertEquals(-1, HttpStatusException.parseRetryAfter("soon", now));
+    }
+}
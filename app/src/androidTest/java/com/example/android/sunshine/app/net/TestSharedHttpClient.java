@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.RecordedPayloads;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+import com.squareup.okhttp.Dns;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Tests that requests through the shared client reuse pooled connections, that the DNS cache
+    answers repeated lookups, and that the stats count both.
+ */
+public class TestSharedHttpClient extends AndroidTestCase {
+
+    private StubHttpServer mServer;
+    private ConnectionStats mStats;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response serve(StubHttpServer.Request request) {
+                return StubHttpServer.Response.ok(RecordedPayloads.MOUNTAIN_VIEW_DAILY);
+            }
+        });
+        mServer.start();
+        mStats = new ConnectionStats();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private static void readFully(HttpFetcher.Response response) throws IOException {
+        InputStream in = response.getBody();
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) != -1) {
+            // Keep reading, the connection only goes back to the pool at the end of the body
+        }
+        response.close();
+    }
+
+    public void testConnectionsAreReused() throws IOException {
+        HttpFetcher fetcher = new HttpFetcher(null,
+                SharedHttpClient.createClient(Dns.SYSTEM, mStats));
+        URL url = mServer.getUrl("/data/2.5/forecast/daily?q=94043");
+
+        for (int i = 0; i < 3; i++) {
+            readFully(fetcher.get(url));
+        }
+
+        assertEquals(1, mStats.getNewConnections());
+        assertEquals(2, mStats.getReusedConnections());
+        assertEquals(2.0 / 3, mStats.getPoolHitRate(), 0.001);
+    }
+
+    public void testDnsLookupsAreCached() throws UnknownHostException {
+        final int[] lookups = new int[1];
+        Dns countingDns = new Dns() {
+            @Override
+            public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+                lookups[0]++;
+                return Collections.singletonList(InetAddress.getByName("127.0.0.1"));
+            }
+        };
+        CachingDns dns = new CachingDns(countingDns, CachingDns.DEFAULT_TTL_MILLIS, mStats);
+
+        dns.lookup("api.openweathermap.org");
+        dns.lookup("api.openweathermap.org");
+        dns.lookup("api.openweathermap.org");
+        assertEquals(1, lookups[0]);
+        assertEquals(2, mStats.getDnsHits());
+        assertEquals(1, mStats.getDnsMisses());
+
+        // A different host, and the same host once the cache is cleared, are looked up again
+        dns.lookup("openweathermap.org");
+        dns.clear();
+        dns.lookup("api.openweathermap.org");
+        assertEquals(3, lookups[0]);
+
+        // And an expired entry too
+        CachingDns shortLived = new CachingDns(countingDns, 0, mStats);
+        shortLived.lookup("api.openweathermap.org");
+        shortLived.lookup("api.openweathermap.org");
+        assertEquals(5, lookups[0]);
+    }
+}
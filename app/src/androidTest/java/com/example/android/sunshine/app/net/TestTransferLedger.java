@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import java.util.List;
+
+public class TestTransferLedger extends AndroidTestCase {
+
+    private TransferLedger mLedger;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLedger = new TransferLedger(mContext);
+        mLedger.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mLedger.clear();
+        super.tearDown();
+    }
+
+    public void testSyncsAccumulatePerDay() {
+        mLedger.recordSync(1200, 5400);
+        mLedger.recordSync(0, 0);
+        mLedger.recordSync(800, 3100);
+
+        TransferLedger.Day today = mLedger.getDay(System.currentTimeMillis());
+        assertEquals(3, today.syncs);
+        assertEquals(2000, today.wireBytes);
+        assertEquals(8500, today.decodedBytes);
+
+        // A fresh instance reads the same totals back from disk
+        TransferLedger reloaded = new TransferLedger(mContext);
+        List<TransferLedger.Day> days = reloaded.getDays();
+        assertEquals(1, days.size());
+        assertEquals(2000, days.get(0).wireBytes);
+    }
+
+    public void testOldDaysArePruned() {
+        // Plant a day from well before the retention window
+        mContext.getSharedPreferences(TransferLedger.PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putLong("20140101.syncs", 4)
+                .putLong("20140101.wire", 100)
+                .putLong("20140101.decoded", 400)
+                .commit();
+        assertEquals(1, mLedger.getDays().size());
+
+        mLedger.recordSync(10, 20);
+
+        List<TransferLedger.Day> days = mLedger.getDays();
+        assertEquals(1, days.size());
+        assertFalse("20140101".equals(days.get(0).date));
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Walks the scheduler through unchanged, shifting and severe forecasts and checks that the
+    intervals move the right way, stay within their bounds, and that every decision is kept.
+ */
+public class TestAdaptiveSyncScheduler extends AndroidTestCase {
+    private static final int MIN_SECONDS = 60 * 60;
+    private static final int MAX_SECONDS = 60 * 60 * 12;
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000;
+
+    private AdaptiveSyncScheduler mScheduler;
+    private long mNow;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mScheduler = new AdaptiveSyncScheduler(mContext, MIN_SECONDS, MAX_SECONDS);
+        mScheduler.clear();
+        mNow = 1445976000000L;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mScheduler.clear();
+        super.tearDown();
+    }
+
+    private static ForecastSyncEngine.LocationResult result(String location, int changedRows,
+                                                            boolean nearTermChanged,
+                                                            int todaysWeatherId) {
+        ForecastSyncEngine.LocationResult result = new ForecastSyncEngine.LocationResult(location);
+        result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+        result.changedRows = changedRows;
+        result.nearTermChanged = nearTermChanged;
+        Forecast forecast = new Forecast(1);
+        forecast.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+        ContentValues today = new ContentValues();
+        today.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, todaysWeatherId);
+        forecast.days.add(today);
+        result.forecast = forecast;
+        return result;
+    }
+
+    private AdaptiveSyncScheduler.Decision record(ForecastSyncEngine.LocationResult result) {
+        mNow += HOUR_IN_MILLIS;
+        return mScheduler.record(Collections.singletonList(result), mNow).get(0);
+    }
+
+    public void testUnchangedForecastsLengthenTheInterval() {
+        assertEquals(AdaptiveSyncScheduler.REASON_FIRST_SYNC,
+                record(result("94043", 14, true, 800)).reason);
+        int interval = mScheduler.getInterval("94043");
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL, interval);
+
+        // One quiet sync isn't a trend yet
+        record(result("94043", 0, false, 800));
+        assertEquals(interval, mScheduler.getInterval("94043"));
+        record(result("94043", 0, false, 800));
+        assertEquals(interval + interval / 2, mScheduler.getInterval("94043"));
+
+        // And it never grows past the maximum
+        for (int i = 0; i < 20; i++) {
+            record(result("94043", 0, false, 800));
+        }
+        assertEquals(MAX_SECONDS, mScheduler.getInterval("94043"));
+
+        // Changes further out leave it where it is
+        record(result("94043", 3, false, 800));
+        assertEquals(MAX_SECONDS, mScheduler.getInterval("94043"));
+    }
+
+    public void testShiftingForecastShortensTheInterval() {
+        record(result("94043", 14, true, 800));
+        int interval = mScheduler.getInterval("94043");
+
+        AdaptiveSyncScheduler.Decision decision = record(result("94043", 1, true, 800));
+        assertEquals(AdaptiveSyncScheduler.REASON_NEAR_TERM_CHANGED, decision.reason);
+        assertEquals(interval / 2, mScheduler.getInterval("94043"));
+
+        for (int i = 0; i < 5; i++) {
+            record(result("94043", 1, true, 800));
+        }
+        assertEquals(MIN_SECONDS, mScheduler.getInterval("94043"));
+    }
+
+    public void testSevereConditionsGoToTheMinimum() {
+        record(result("94043", 14, true, 800));
+        assertEquals(AdaptiveSyncScheduler.REASON_SEVERE, record(result("94043", 0, false, 211)).reason);
+        assertEquals(MIN_SECONDS, mScheduler.getInterval("94043"));
+
+        // While it is still severe, an unchanged answer doesn't stretch it
+        ForecastSyncEngine.LocationResult notModified =
+                new ForecastSyncEngine.LocationResult("94043");
+        notModified.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+        notModified.notModified = true;
+        record(notModified);
+        record(notModified);
+        assertEquals(MIN_SECONDS, mScheduler.getInterval("94043"));
+
+        record(result("10001", 14, true, 800));
+        record(result("10001", 0, false, 902));
+        assertEquals(MIN_SECONDS, mScheduler.getInterval("10001"));
+    }
+
+    public void testDueLocationsAndPeriod() {
+        List<String> locations = Arrays.asList("94043", "10001");
+        // Never synced, so due
+        assertEquals(locations, mScheduler.getDueLocations(locations, mNow));
+
+        record(result("10001", 14, true, 800));
+        record(result("10001", 0, false, 211));
+        record(result("94043", 14, true, 800));
+        assertEquals(MIN_SECONDS, mScheduler.getPeriod(locations));
+        assertTrue(mScheduler.setScheduledPeriod(MIN_SECONDS));
+        assertFalse(mScheduler.setScheduledPeriod(MIN_SECONDS));
+
+        // An hour on, only the severe location needs another look
+        assertEquals(Arrays.asList("10001"),
+                mScheduler.getDueLocations(locations, mNow + HOUR_IN_MILLIS));
+        assertEquals(locations, mScheduler.getDueLocations(locations,
+                mNow + SunshineSyncAdapter.SYNC_INTERVAL * 1000L));
+    }
+
+    public void testDroppedLocationIsForgotten() {
+        List<String> locations = Collections.singletonList("10001");
+        ForecastSyncEngine.LocationResult result = result("10001", 14, true, 800);
+        record(result);
+        LocationSyncStatus status = new LocationSyncStatus(mContext);
+        status.record(Collections.singletonList(result));
+        assertTrue(mScheduler.getDueLocations(locations, mNow).isEmpty());
+
+        SunshineSyncAdapter.forgetLocation(mContext, "10001");
+        assertEquals("Error: a dropped location kept its next sync time",
+                locations, mScheduler.getDueLocations(locations, mNow));
+        assertEquals("Error: a dropped location kept its status",
+                0, status.getLastSyncTime("10001"));
+    }
+
+    public void testHistoryIsKeptAndBounded() {
+        record(result("94043", 14, true, 800));
+        record(result("94043", 1, true, 800));
+        List<AdaptiveSyncScheduler.Decision> history = mScheduler.getHistory();
+        assertEquals(2, history.size());
+        assertEquals(AdaptiveSyncScheduler.REASON_FIRST_SYNC, history.get(0).reason);
+        assertEquals(history.get(1).fromSeconds, history.get(1).toSeconds * 2);
+
+        for (int i = 0; i < AdaptiveSyncScheduler.HISTORY_SIZE; i++) {
+            record(result("94043", 0, false, 800));
+        }
+        history = mScheduler.getHistory();
+        assertEquals(AdaptiveSyncScheduler.HISTORY_SIZE, history.size());
+        assertEquals(mNow, history.get(history.size() - 1).time);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.RecordedPayloads;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks that the streaming ForecastJsonParser produces exactly what the JSONObject based
+    parser it replaced used to produce, for a set of recorded OpenWeatherMap responses.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    /*
+        The result of parsing a payload, in the shape both parsers can fill in.
+     */
+    static class ParsedForecast implements ForecastJsonParser.Callback {
+        int messageCode = HttpURLConnection.HTTP_OK;
+        long cityId;
+        String cityName;
+        double lat;
+        double lon;
+        final List<ContentValues> days = new ArrayList<ContentValues>();
+
+        @Override
+        public void onCity(long cityId, String cityName, double lat, double lon) {
+            this.cityId = cityId;
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public void onDay(int dayIndex, ContentValues weatherValues) {
+            assertEquals("Days must be emitted in order", days.size(), dayIndex);
+            days.add(weatherValues);
+        }
+    }
+
+    /*
+        This is the parsing half of the old SunshineSyncAdapter.getWeatherDataFromJson, kept
+        here as the reference the streaming parser is compared against.
+     */
+    static ParsedForecast parseWithJsonObject(String forecastJsonStr) throws JSONException {
+        ParsedForecast result = new ParsedForecast();
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        if (forecastJson.has("cod")) {
+            result.messageCode = forecastJson.getInt("cod");
+            if (result.messageCode != HttpURLConnection.HTTP_OK) {
+                return result;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray("list");
+
+        JSONObject cityJson = forecastJson.getJSONObject("city");
+        JSONObject cityCoord = cityJson.getJSONObject("coord");
+        result.onCity(cityJson.optLong("id"), cityJson.getString("name"),
+                cityCoord.getDouble("lat"), cityCoord.getDouble("lon"));
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            JSONObject weatherObject = dayForecast.getJSONArray("weather").getJSONObject(0);
+            JSONObject temperatureObject = dayForecast.getJSONObject("temp");
+
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, dayForecast.getInt("humidity"));
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, dayForecast.getDouble("pressure"));
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, dayForecast.getDouble("speed"));
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, dayForecast.getDouble("deg"));
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, temperatureObject.getDouble("max"));
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, temperatureObject.getDouble("min"));
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, weatherObject.getString("main"));
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherObject.getInt("id"));
+            result.onDay(i, weatherValues);
+        }
+        return result;
+    }
+
+    static ParsedForecast parseWithStream(String forecastJsonStr)
+            throws IOException, JSONException {
+        ParsedForecast result = new ParsedForecast();
+        result.messageCode = ForecastJsonParser.parse(new StringReader(forecastJsonStr), result);
+        return result;
+    }
+
+    void assertParity(String name, String payload) throws Exception {
+        ParsedForecast expected = parseWithJsonObject(payload);
+        ParsedForecast actual = parseWithStream(payload);
+
+        assertEquals(name + ": message code", expected.messageCode, actual.messageCode);
+        assertEquals(name + ": city id", expected.cityId, actual.cityId);
+        assertEquals(name + ": city name", expected.cityName, actual.cityName);
+        assertEquals(name + ": latitude", expected.lat, actual.lat);
+        assertEquals(name + ": longitude", expected.lon, actual.lon);
+        assertEquals(name + ": number of days", expected.days.size(), actual.days.size());
+        for (int i = 0; i < expected.days.size(); i++) {
+            // ContentValues equality includes the boxed type of every value, so this also
+            // catches an int column turning into a double or vice versa.
+            assertEquals(name + ": day " + i, expected.days.get(i), actual.days.get(i));
+        }
+    }
+
+    public void testRecordedForecastParity() throws Exception {
+        assertParity("MOUNTAIN_VIEW_DAILY", RecordedPayloads.MOUNTAIN_VIEW_DAILY);
+        assertEquals(4, parseWithStream(RecordedPayloads.MOUNTAIN_VIEW_DAILY).days.size());
+    }
+
+    public void testReorderedForecastParity() throws Exception {
+        assertParity("MOUNTAIN_VIEW_DAILY_REORDERED", RecordedPayloads.MOUNTAIN_VIEW_DAILY_REORDERED);
+    }
+
+    public void testErrorCodeParity() throws Exception {
+        assertParity("CITY_NOT_FOUND", RecordedPayloads.CITY_NOT_FOUND);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                parseWithStream(RecordedPayloads.CITY_NOT_FOUND).messageCode);
+    }
+
+    public void testMissingListIsInvalid() throws Exception {
+        try {
+            parseWithJsonObject(RecordedPayloads.MISSING_LIST);
+            fail("Reference parser accepted a forecast without a list");
+        } catch (JSONException expected) {
+        }
+        try {
+            parseWithStream(RecordedPayloads.MISSING_LIST);
+            fail("Streaming parser accepted a forecast without a list");
+        } catch (JSONException expected) {
+        }
+    }
+
+    public void testHourlyForecast() throws Exception {
+        final List<ContentValues> periods = new ArrayList<ContentValues>();
+        final long[] cityId = new long[1];
+        int messageCode = HourlyForecastJsonParser.parse(
+                new StringReader(RecordedPayloads.MOUNTAIN_VIEW_HOURLY),
+                new HourlyForecastJsonParser.Callback() {
+                    @Override
+                    public void onCity(long id, String cityName, double lat, double lon) {
+                        cityId[0] = id;
+                    }
+
+                    @Override
+                    public void onPeriod(ContentValues hourlyValues) {
+                        periods.add(hourlyValues);
+                    }
+                });
+
+        assertEquals(HttpURLConnection.HTTP_OK, messageCode);
+        assertEquals(5375480L, cityId[0]);
+        assertEquals(3, periods.size());
+        ContentValues first = periods.get(0);
+        assertEquals(1445979600L, (long) first.getAsLong(HourlyEntry.COLUMN_TIME));
+        assertEquals(500, (int) first.getAsInteger(HourlyEntry.COLUMN_WEATHER_ID));
+        assertEquals(1725L, (long) first.getAsLong(HourlyEntry.COLUMN_TEMP));
+        assertEquals(10004L, (long) first.getAsLong(HourlyEntry.COLUMN_PRESSURE));
+        assertEquals(76, (int) first.getAsInteger(HourlyEntry.COLUMN_HUMIDITY));
+        assertEquals(211L, (long) first.getAsLong(HourlyEntry.COLUMN_WIND_SPEED));
+        assertEquals(258L, (long) first.getAsLong(HourlyEntry.COLUMN_DEGREES));
+        // Below zero, and calm
+        ContentValues last = periods.get(2);
+        assertEquals(-50L, (long) last.getAsLong(HourlyEntry.COLUMN_TEMP));
+        assertEquals(0L, (long) last.getAsLong(HourlyEntry.COLUMN_WIND_SPEED));
+    }
+
+    public void testTruncatedPayloadFails() throws Exception {
+        try {
+            parseWithJsonObject(RecordedPayloads.TRUNCATED);
+            fail("Reference parser accepted a truncated forecast");
+        } catch (JSONException expected) {
+        }
+        // The streaming parser sees the cut-off as the end of the stream, which is what a
+        // dropped connection looks like, so an IOException is as acceptable as a JSONException.
+        try {
+            parseWithStream(RecordedPayloads.TRUNCATED);
+            fail("Streaming parser accepted a truncated forecast");
+        } catch (JSONException | IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.LocationRegistry;
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.net.HttpFetcher;
+import com.example.android.sunshine.app.utils.CountingObserver;
+import com.example.android.sunshine.app.utils.RecordedPayloads;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Tests the grouping of locations by city, the skipping of unchanged rows, the 3-hour
+    forecast riding along with the daily one and a sync's writes reaching observers as one
+    change, and benchmarks a
+    sync of 1, 10 and 50 locations against a local stand-in for OWM: requests per sync and
+    wall-clock time, before and after the locations' cities are known.
+ */
+public class TestForecastSyncEngine extends AndroidTestCase {
+    private static final String LOG_TAG = TestForecastSyncEngine.class.getSimpleName();
+
+    // Location settings per city in the benchmark, as with neighbouring postal codes
+    private static final int LOCATIONS_PER_CITY = 5;
+    private static final long FIRST_CITY_ID = 1000;
+    // Simulated round trip of each request
+    private static final long SERVER_LATENCY_MILLIS = 50;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    private StubHttpServer mServer;
+    // Applied to every response while set, as {text to replace, replacement}
+    private volatile String[] mPayloadEdit;
+    // Fails every request for the 3-hour forecast while set
+    private volatile boolean mHourlyDown;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response serve(StubHttpServer.Request request) {
+                SystemClock.sleep(SERVER_LATENCY_MILLIS);
+                Uri uri = Uri.parse("http://localhost" + request.path);
+                String cityId = uri.getQueryParameter("id");
+                if (cityId == null) {
+                    cityId = Long.toString(cityIdForLocation(uri.getQueryParameter("q")));
+                }
+                String payload;
+                if (uri.getPath().endsWith("/daily")) {
+                    payload = forecastForCity(cityId);
+                } else if (mHourlyDown) {
+                    return new StubHttpServer.Response(500);
+                } else {
+                    payload = hourlyForCity(cityId);
+                }
+                String[] edit = mPayloadEdit;
+                if (edit != null) {
+                    payload = payload.replace(edit[0], edit[1]);
+                }
+                return StubHttpServer.Response.ok(payload);
+            }
+        });
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    private static long cityIdForLocation(String locationSetting) {
+        int index = Integer.parseInt(locationSetting.substring("loc".length()));
+        return FIRST_CITY_ID + index / LOCATIONS_PER_CITY;
+    }
+
+    private static String forecastForCity(String cityId) {
+        return RecordedPayloads.MOUNTAIN_VIEW_DAILY.replace(
+                "\"id\":5375480,\"name\":\"Mountain View\"",
+                "\"id\":" + cityId + ",\"name\":\"City " + cityId + "\"");
+    }
+
+    /*
+        The recorded 3-hour forecast, moved so that its first period is the current one: periods
+        that are long gone would be pruned as soon as they are stored.
+     */
+    private static String hourlyForCity(String cityId) {
+        long period = 3 * 60 * 60;
+        long start = System.currentTimeMillis() / 1000 / period * period;
+        return RecordedPayloads.MOUNTAIN_VIEW_HOURLY
+                .replace("\"id\":5375480,\"name\":\"Mountain View\"",
+                        "\"id\":" + cityId + ",\"name\":\"City " + cityId + "\"")
+                .replace("\"dt\":1445979600", "\"dt\":" + start)
+                .replace("\"dt\":1445990400", "\"dt\":" + (start + period))
+                .replace("\"dt\":1446001200", "\"dt\":" + (start + 2 * period));
+    }
+
+    private static List<String> createLocations(int count) {
+        List<String> locations = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add("loc" + i);
+        }
+        return locations;
+    }
+
+    public void testGroupByCity() {
+        Map<String, Long> cityIds = new HashMap<String, Long>();
+        cityIds.put("94043", 5375480L);
+        cityIds.put("94041", 5375480L);
+        cityIds.put("10001", 5128581L);
+        cityIds.put("99705", 0L);
+
+        List<ForecastSyncEngine.FetchGroup> groups = ForecastSyncEngine.groupByCity(
+                Arrays.asList("94043", "10001", "94041", "99705", "unknown"), cityIds);
+
+        assertEquals(4, groups.size());
+        assertEquals(5375480L, groups.get(0).cityId);
+        assertEquals(Arrays.asList("94043", "94041"), groups.get(0).locationSettings);
+        assertEquals(5128581L, groups.get(1).cityId);
+        assertEquals(Arrays.asList("10001"), groups.get(1).locationSettings);
+        // Not resolved yet, so each is queried on its own
+        assertEquals(0L, groups.get(2).cityId);
+        assertEquals(Arrays.asList("99705"), groups.get(2).locationSettings);
+        assertEquals(Arrays.asList("unknown"), groups.get(3).locationSettings);
+    }
+
+    private ForecastSyncEngine createEngine() {
+        // Unconditional requests, so every sync moves the full forecast
+        return new ForecastSyncEngine(mContext,
+                new OwmWeatherSource(new HttpFetcher(null),
+                        mServer.getUrl("/data/2.5/forecast/daily?").toString(), "test"),
+                ForecastSyncEngine.DEFAULT_MAX_PARALLEL_FETCHES);
+    }
+
+    private List<Long> queryWeatherIds(String location) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(location),
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        List<Long> ids = new ArrayList<Long>();
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+        return ids;
+    }
+
+    public void testUnchangedRowsAreSkipped() throws Exception {
+        ForecastSyncEngine engine = createEngine();
+        List<String> locations = Arrays.asList("loc0");
+
+        List<ForecastSyncEngine.LocationResult> results = engine.fetchAll(locations);
+        assertEquals(4, engine.commit(results));
+        assertEquals(4, results.get(0).changedRows);
+        List<Long> ids = queryWeatherIds("loc0");
+        assertEquals(4, ids.size());
+
+        // The same forecast again writes nothing
+        results = engine.fetchAll(locations);
+        assertEquals(0, engine.commit(results));
+        assertEquals(0, results.get(0).changedRows);
+        assertEquals(ids, queryWeatherIds("loc0"));
+
+        // Only the day whose maximum changed is written, in place, so every day keeps its id
+        mPayloadEdit = new String[]{"\"max\":19.68", "\"max\":21.5"};
+        results = engine.fetchAll(locations);
+        assertEquals(1, engine.commit(results));
+        assertEquals(1, results.get(0).changedRows);
+        assertEquals(ids, queryWeatherIds("loc0"));
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation("loc0"),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_MAX_TEMP},
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        assertEquals(21.5, cursor.getDouble(0), 0.001);
+        cursor.close();
+    }
+
+    public void testUnchangedSyncStillPrunes() throws Exception {
+        ForecastSyncEngine engine = createEngine();
+        List<String> locations = Arrays.asList("loc0");
+        engine.commit(engine.fetchAll(locations));
+
+        // A day that has passed since, stored as a copy of today
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        ContentValues pastDay = new ContentValues();
+        DatabaseUtils.cursorRowToContentValues(cursor, pastDay);
+        cursor.close();
+        pastDay.remove(WeatherContract.WeatherEntry._ID);
+        pastDay.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(System.currentTimeMillis()) - 7 * DAY_IN_MILLIS);
+        mContext.getContentResolver().insert(WeatherContract.WeatherEntry.CONTENT_URI, pastDay);
+        assertEquals(5, queryWeatherIds("loc0").size());
+
+        // Nothing in the forecast changed, yet the past day goes
+        assertEquals(0, engine.commit(engine.fetchAll(locations)));
+        assertEquals("Error: a sync that changed nothing didn't prune the past",
+                4, queryWeatherIds("loc0").size());
+    }
+
+    public void testTraceCoversEveryStage() throws Exception {
+        ForecastSyncEngine engine = createEngine();
+        SyncTrace trace = new SyncTrace();
+        List<ForecastSyncEngine.LocationResult> results =
+                engine.fetchAll(Arrays.asList("loc0", "loc5"), trace);
+        engine.commit(results, trace);
+        trace.finish("test");
+
+        // One request per location, as neither city is known yet
+        assertEquals(2, trace.getStages(SyncTrace.STAGE_CONNECT).size());
+        assertEquals(2, trace.getStages(SyncTrace.STAGE_FIRST_BYTE).size());
+        List<SyncTrace.Stage> reads = trace.getStages(SyncTrace.STAGE_BODY_READ);
+        assertEquals(2, reads.size());
+        assertEquals(results.get(0).wireBytes + results.get(1).wireBytes,
+                reads.get(0).bytes + reads.get(1).bytes);
+        for (SyncTrace.Stage parse : trace.getStages(SyncTrace.STAGE_PARSE)) {
+            assertEquals(4, parse.rows);
+        }
+        assertTrue(trace.getStages(SyncTrace.STAGE_FIRST_BYTE).get(0).millis
+                >= SERVER_LATENCY_MILLIS);
+
+        assertEquals(8, trace.getStages(SyncTrace.STAGE_STORE_LOOKUP).get(0).rows);
+        List<SyncTrace.Stage> batch = trace.getStages(SyncTrace.STAGE_STORE_BATCH);
+        assertEquals(1, batch.size());
+        // Two location inserts, eight weather rows and the pruning of days and of periods
+        assertEquals(12, batch.get(0).rows);
+        assertTrue(trace.getTotalMillis() >= 0);
+    }
+
+    private int countHourly(String location) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocation(location),
+                null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testHourlyIsStoredWithTheDaily() throws Exception {
+        ForecastSyncEngine engine = createEngine();
+        List<String> locations = Arrays.asList("loc0");
+
+        // Off by default
+        int requestsBefore = mServer.getRequestCount();
+        engine.commit(engine.fetchAll(locations));
+        assertEquals(1, mServer.getRequestCount() - requestsBefore);
+        assertEquals(0, countHourly("loc0"));
+
+        engine.setHourlyEnabled(true);
+        requestsBefore = mServer.getRequestCount();
+        List<ForecastSyncEngine.LocationResult> results = engine.fetchAll(locations);
+        assertEquals(2, mServer.getRequestCount() - requestsBefore);
+        assertEquals(0, engine.commit(results));
+        assertEquals(3, results.get(0).hourlyRows);
+        assertEquals(3, countHourly("loc0"));
+
+        // A failed 3-hour forecast leaves the location's status, and its stored periods, alone
+        mHourlyDown = true;
+        results = engine.fetchAll(locations);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, results.get(0).status);
+        engine.commit(results);
+        assertEquals(0, results.get(0).hourlyRows);
+        assertEquals(3, countHourly("loc0"));
+    }
+
+    private void insertExpiredDay(String location) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                LocationRegistry.getInstance().get(mContext, location).id);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                System.currentTimeMillis() - 10 * 24 * 60 * 60 * 1000L);
+        values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Expired");
+        values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10.0);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20.0);
+        values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 50.0);
+        values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1013.0);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 1.0);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 180.0);
+        mContext.getContentResolver().insert(WeatherContract.WeatherEntry.CONTENT_URI, values);
+    }
+
+    public void testObserversHearEachChangedDayOnce() throws Exception {
+        ForecastSyncEngine engine = createEngine();
+        engine.setHourlyEnabled(true);
+        List<String> locations = Arrays.asList("loc0", "loc5");
+        engine.commit(engine.fetchAll(locations));
+        insertExpiredDay("loc0");
+        assertEquals(5, queryWeatherIds("loc0").size());
+
+        // The forecast list's loader watches the location's uri.  An observer of the whole
+        // table hears once of each day the sync changed
+        CountingObserver listObserver = CountingObserver.register(mContext.getContentResolver(),
+                WeatherContract.WeatherEntry.buildWeatherLocation("loc0"));
+        CountingObserver weatherObserver = CountingObserver.register(
+                mContext.getContentResolver(), WeatherContract.WeatherEntry.CONTENT_URI);
+        CountingObserver hourlyObserver = CountingObserver.register(
+                mContext.getContentResolver(), WeatherContract.HourlyEntry.CONTENT_URI);
+        try {
+            // New days for both locations, new periods and an expired day, all in one sync
+            mPayloadEdit = new String[]{"\"max\":19.68", "\"max\":21.5"};
+            assertEquals(2, engine.commit(engine.fetchAll(locations)));
+            // loc0's changed and expired days, and loc5's changed day
+            assertEquals(3, weatherObserver.awaitChanges());
+            assertEquals(2, listObserver.getChangeCount());
+            assertEquals(2, hourlyObserver.getChangeCount());
+            assertEquals(4, queryWeatherIds("loc0").size());
+
+            // A sync that changes nothing tells no one
+            engine.setHourlyEnabled(false);
+            assertEquals(0, engine.commit(engine.fetchAll(locations)));
+            assertEquals(3, weatherObserver.settle());
+            assertEquals(2, listObserver.getChangeCount());
+        } finally {
+            listObserver.unregister();
+            weatherObserver.unregister();
+            hourlyObserver.unregister();
+        }
+    }
+
+    private long sync(ForecastSyncEngine engine, List<String> locations) throws Exception {
+        long start = SystemClock.elapsedRealtime();
+        List<ForecastSyncEngine.LocationResult> results = engine.fetchAll(locations);
+        engine.commit(results);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(locations.size(), results.size());
+        for (int i = 0; i < locations.size(); i++) {
+            ForecastSyncEngine.LocationResult result = results.get(i);
+            assertEquals(locations.get(i), result.locationSetting);
+            assertEquals(result.toString(), SunshineSyncAdapter.LOCATION_STATUS_OK, result.status);
+            assertEquals(cityIdForLocation(result.locationSetting), result.forecast.cityId);
+        }
+        return elapsed;
+    }
+
+    private void benchmark(int locationCount) throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        List<String> locations = createLocations(locationCount);
+        int cityCount = (locationCount + LOCATIONS_PER_CITY - 1) / LOCATIONS_PER_CITY;
+
+        ForecastSyncEngine engine = createEngine();
+
+        int requestsBefore = mServer.getRequestCount();
+        long coldMillis = sync(engine, locations);
+        int coldRequests = mServer.getRequestCount() - requestsBefore;
+
+        requestsBefore = mServer.getRequestCount();
+        long groupedMillis = sync(engine, locations);
+        int groupedRequests = mServer.getRequestCount() - requestsBefore;
+
+        Log.i(LOG_TAG, locationCount + " locations in " + cityCount + " cities: "
+                + coldRequests + " requests in " + coldMillis + "ms unresolved, "
+                + groupedRequests + " requests in " + groupedMillis + "ms grouped by city");
+
+        assertEquals(locationCount, coldRequests);
+        assertEquals(cityCount, groupedRequests);
+
+        // Every location has its own forecast rows, whichever request they came from
+        for (String location : locations) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherContract.WeatherEntry.buildWeatherLocation(location),
+                    null, null, null, null);
+            assertEquals(location, 4, cursor.getCount());
+            cursor.close();
+        }
+    }
+
+    public void testBenchmarkOneLocation() throws Exception {
+        benchmark(1);
+    }
+
+    public void testBenchmarkTenLocations() throws Exception {
+        benchmark(10);
+    }
+
+    public void testBenchmarkFiftyLocations() throws Exception {
+        benchmark(50);
+    }
+}
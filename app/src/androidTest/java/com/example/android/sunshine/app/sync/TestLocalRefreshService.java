@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.app.ActivityManager;
+import android.app.NotificationManager;
+import android.content.BroadcastReceiver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.app.net.ConnectionStats;
+import com.example.android.sunshine.app.net.SharedHttpClient;
+import com.example.android.sunshine.app.wearable.SunshineWearableService;
+import com.example.android.sunshine.app.widget.TodayWidgetIntentService;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    A change of units must redraw everything from the stored forecast, notification included,
+    without a single HTTP request or sync request.
+ */
+public class TestLocalRefreshService extends AndroidTestCase {
+    // Nothing receives it: it only tells when the broadcasts sent before it have been delivered
+    private static final String ACTION_FENCE =
+            "com.example.android.sunshine.app.sync.test.action.FENCE";
+    private static final long FAN_OUT_TIMEOUT_MILLIS = 10 * 1000;
+    // The services the refresh starts, directly or through the broadcasts it sends
+    private static final List<String> FAN_OUT_SERVICES = Arrays.asList(
+            TodayWidgetIntentService.class.getName(),
+            SunshineWearableService.class.getName(),
+            WeatherMuzeiSource.class.getName());
+
+    private SharedPreferences mPrefs;
+    private String mUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnits = mPrefs.getString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_metric));
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit()
+                .putString(mContext.getString(R.string.pref_units_key), mUnits)
+                .remove(mContext.getString(R.string.pref_notification_showing))
+                .commit();
+        ((NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE)).cancelAll();
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    private void insertTodaysForecast() {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                Utility.getPreferredLocation(mContext));
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 37.386051);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -122.083847);
+        Uri locationUri = mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, locationValues);
+
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, ContentUris.parseId(locationUri));
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(System.currentTimeMillis()));
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 257);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 76);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1000.41);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 19.68);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 9.17);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Rain");
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 2.11);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 500);
+        mContext.getContentResolver().insert(WeatherContract.WeatherEntry.CONTENT_URI, weatherValues);
+    }
+
+    private static long countRequests(ConnectionStats stats) {
+        return stats.getNewConnections() + stats.getReusedConnections();
+    }
+
+    /**
+     * Waits for the widgets, the wearable and Muzei to have done their part of the refresh, so
+     * that any request they were to make has been made.
+     */
+    private void awaitFanOut() throws InterruptedException {
+        // Manifest receivers get broadcasts one at a time, in order, so by the time an ordered
+        // broadcast sent now completes, the receivers have started their services
+        final CountDownLatch delivered = new CountDownLatch(1);
+        mContext.sendOrderedBroadcast(
+                new Intent(ACTION_FENCE).setPackage(mContext.getPackageName()), null,
+                new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        delivered.countDown();
+                    }
+                }, null, 0, null, null);
+        assertTrue("The refresh's broadcasts were not delivered",
+                delivered.await(FAN_OUT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        // Each is an IntentService, which stops once it has handled what it was started with
+        long deadline = SystemClock.elapsedRealtime() + FAN_OUT_TIMEOUT_MILLIS;
+        while (isFanOutRunning()) {
+            assertTrue("The refresh's services did not finish",
+                    SystemClock.elapsedRealtime() < deadline);
+            Thread.sleep(100);
+        }
+    }
+
+    private boolean isFanOutRunning() {
+        ActivityManager activityManager =
+                (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        for (ActivityManager.RunningServiceInfo service
+                : activityManager.getRunningServices(Integer.MAX_VALUE)) {
+            if (service.service.getPackageName().equals(mContext.getPackageName())
+                    && FAN_OUT_SERVICES.contains(service.service.getClassName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void testUnitsChangeMakesNoRequest() throws Exception {
+        insertTodaysForecast();
+        // As if today's notification had been shown and not dismissed
+        mPrefs.edit()
+                .putLong(mContext.getString(R.string.pref_last_notification), System.currentTimeMillis())
+                .putBoolean(mContext.getString(R.string.pref_notification_showing), true)
+                .putString(mContext.getString(R.string.pref_units_key),
+                        mContext.getString(R.string.pref_units_imperial))
+                .commit();
+
+        final CountDownLatch listsNotified = new CountDownLatch(1);
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                listsNotified.countDown();
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, observer);
+
+        ConnectionStats stats = SharedHttpClient.getStats();
+        long requestsBefore = countRequests(stats);
+        int syncRequestsBefore =
+                SunshineSyncAdapter.getSyncRequestCoalescer(mContext).getRequestCount();
+        try {
+            LocalRefreshService.refresh(mContext);
+            assertTrue("The open lists were not told to reload",
+                    listsNotified.await(5, TimeUnit.SECONDS));
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+        }
+        awaitFanOut();
+
+        assertEquals("The refresh made an HTTP request", requestsBefore, countRequests(stats));
+        assertEquals("The refresh asked for a sync", syncRequestsBefore,
+                SunshineSyncAdapter.getSyncRequestCoalescer(mContext).getRequestCount());
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.net.HttpFetcher;
+import com.example.android.sunshine.app.utils.RecordedPayloads;
+import com.example.android.sunshine.app.utils.ReplayHandler;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Runs OwmWeatherSource, and the sync engine on top of it, against recorded payloads replayed by
+    a local server, including injected latency, bandwidth limits and failures.  None of this needs
+    network access.
+ */
+public class TestOwmWeatherSource extends AndroidTestCase {
+    private static final String LOG_TAG = TestOwmWeatherSource.class.getSimpleName();
+
+    private ReplayHandler mReplay;
+    private StubHttpServer mServer;
+    private OwmWeatherSource mSource;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mReplay = new ReplayHandler(42).addPayload("94043", RecordedPayloads.MOUNTAIN_VIEW_DAILY);
+        mServer = new StubHttpServer(mReplay);
+        mServer.start();
+        HttpFetcher fetcher = new HttpFetcher(null);
+        fetcher.setTimeouts(2000, 2000, 10000);
+        mSource = new OwmWeatherSource(fetcher,
+                mServer.getUrl("/data/2.5/forecast/daily?").toString(), "test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testReplayedForecast() throws Exception {
+        Forecast forecast = mSource.fetchDailyForecast(0, "94043", 14, true);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, forecast.status);
+        assertEquals(5375480L, forecast.cityId);
+        assertEquals("Mountain View", forecast.cityName);
+        assertEquals(4, forecast.days.size());
+        assertTrue(forecast.days.get(0).containsKey(WeatherContract.WeatherEntry.COLUMN_DATE));
+        assertTrue(forecast.wireBytes > 0);
+        assertEquals("/data/2.5/forecast/daily?q=94043&mode=json&units=metric&cnt=14&APPID=test",
+                mServer.getLastRequest().path);
+
+        mSource.fetchDailyForecast(5375480L, "94043", 14, true);
+        assertTrue(mServer.getLastRequest().path.contains("?id=5375480&"));
+    }
+
+    public void testUnknownLocation() throws Exception {
+        Forecast forecast = mSource.fetchDailyForecast(0, "notaplace", 14, true);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, forecast.status);
+        assertFalse(forecast.hasDays());
+    }
+
+    public void testInjectedErrorStatus() throws Exception {
+        mReplay.setErrorRate(1, 503);
+        try {
+            mSource.fetchDailyForecast(0, "94043", 14, true);
+            fail("A 503 should surface as an IOException");
+        } catch (IOException expected) {
+        }
+        assertEquals(1, mReplay.getErrorCount());
+    }
+
+    public void testDroppedConnection() throws Exception {
+        mReplay.setDropRate(1);
+        try {
+            mSource.fetchDailyForecast(0, "94043", 14, true);
+            fail("A dropped connection should surface as an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testLatencyAndThroughput() throws Exception {
+        final long latencyMillis = 200;
+        final long bytesPerSecond = 4000;
+        mReplay.setLatency(latencyMillis);
+        mServer.setThroughput(bytesPerSecond);
+
+        long start = SystemClock.elapsedRealtime();
+        Forecast forecast = mSource.fetchDailyForecast(0, "94043", 14, true);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        long transferMillis = forecast.wireBytes * 1000 / bytesPerSecond;
+        Log.i(LOG_TAG, forecast.wireBytes + " bytes in " + elapsed + "ms");
+        assertTrue("Took " + elapsed + "ms", elapsed >= latencyMillis + transferMillis - 100);
+    }
+
+    /*
+        Syncs a batch of locations through the engine with a quarter of the requests failing, and
+        reports the throughput and latency distribution.  Every location must come back with a
+        status, and exactly the failed requests must be reported as failures.
+     */
+    public void testSyncUnderInjectedFailures() throws Exception {
+        final int locationCount = 40;
+        List<String> locations = new ArrayList<String>(locationCount);
+        for (int i = 0; i < locationCount; i++) {
+            String location = "9" + (4000 + i);
+            locations.add(location);
+            mReplay.addPayload(location, RecordedPayloads.MOUNTAIN_VIEW_DAILY.replace(
+                    "\"id\":5375480", "\"id\":" + (5375480 + i)));
+        }
+        mReplay.setLatency(20).setErrorRate(0.25, 500);
+
+        ForecastSyncEngine engine = new ForecastSyncEngine(mContext, mSource,
+                ForecastSyncEngine.DEFAULT_MAX_PARALLEL_FETCHES);
+        long start = SystemClock.elapsedRealtime();
+        List<ForecastSyncEngine.LocationResult> results = engine.fetchAll(locations);
+        engine.commit(results);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        int ok = 0;
+        int down = 0;
+        List<Long> latencies = new ArrayList<Long>();
+        for (ForecastSyncEngine.LocationResult result : results) {
+            latencies.add(result.latencyMillis);
+            if (result.status == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                ok++;
+            } else if (result.status == SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN) {
+                down++;
+            } else {
+                fail("Unexpected status " + result);
+            }
+        }
+        Collections.sort(latencies);
+        Log.i(LOG_TAG, locationCount + " locations in " + elapsed + "ms ("
+                + (locationCount * 1000 / Math.max(1, elapsed)) + "/s), latency p50 "
+                + latencies.get(locationCount / 2) + "ms, p90 "
+                + latencies.get(locationCount * 9 / 10) + "ms, " + down + " failed");
+
+        assertEquals(mReplay.getServedCount(), ok);
+        assertEquals(mReplay.getErrorCount(), down);
+        assertTrue("The seeded failures should hit some requests", down > 0);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.net.HttpFetcher;
+import com.example.android.sunshine.app.utils.RecordedPayloads;
+import com.example.android.sunshine.app.utils.ReplayHandler;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Tests the payload archive: records survive the round trip, the archive stays within its cap
+    as it rotates, a torn record doesn't lose the ones before it, and archived payloads replay
+    through the sync engine with the network gone.
+ */
+public class TestPayloadArchive extends AndroidTestCase {
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(mContext.getCacheDir(), "test_payload_archive");
+        deleteDirectory();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    public void testRoundTrip() {
+        PayloadArchive archive = new PayloadArchive(mDirectory, 64 * 1024, 2);
+        byte[] payload = RecordedPayloads.MOUNTAIN_VIEW_DAILY.getBytes();
+        archive.append(1000L, 5375480L, "94043", payload);
+        archive.append(2000L, 0, "10001", RecordedPayloads.CITY_NOT_FOUND.getBytes());
+
+        List<PayloadArchive.Entry> entries = archive.readAll();
+        assertEquals(2, entries.size());
+        assertEquals(1000L, entries.get(0).fetchedAt);
+        assertEquals(5375480L, entries.get(0).cityId);
+        assertEquals("94043", entries.get(0).locationSetting);
+        assertTrue(Arrays.equals(payload, entries.get(0).payload));
+        assertEquals("10001", archive.findLatest(0, "10001").locationSetting);
+        assertNull(archive.findLatest(0, "99705"));
+
+        // Deflated, the JSON takes a fraction of its size
+        assertTrue(archive.getSize() < payload.length);
+    }
+
+    public void testRecorderDeflatesAsItReads() throws Exception {
+        PayloadArchive archive = new PayloadArchive(mDirectory, 64 * 1024, 2);
+        byte[] payload = RecordedPayloads.MOUNTAIN_VIEW_DAILY.getBytes();
+        PayloadArchive.Recorder recorder =
+                new PayloadArchive.Recorder(new ByteArrayInputStream(payload));
+        // Single bytes and buffers alike
+        assertEquals(payload[0], (byte) recorder.read());
+        byte[] buffer = new byte[100];
+        while (recorder.read(buffer, 0, buffer.length) != -1) {
+            // Read through, as the parser would
+        }
+        byte[] compressed = recorder.finish();
+        recorder.close();
+
+        assertEquals(payload.length, recorder.getRawLength());
+        assertTrue(compressed.length < payload.length);
+        archive.appendDeflated(1000L, 0, "94043", recorder.getRawLength(), compressed);
+        assertTrue(Arrays.equals(payload, archive.findLatest(0, "94043").payload));
+    }
+
+    public void testRotationKeepsTheArchiveCapped() {
+        final int segmentBytes = 2048;
+        final int maxSegments = 3;
+        PayloadArchive archive = new PayloadArchive(mDirectory, segmentBytes, maxSegments);
+        byte[] payload = RecordedPayloads.MOUNTAIN_VIEW_DAILY.getBytes();
+        for (int i = 0; i < 100; i++) {
+            archive.append(i, 0, "loc" + i, payload);
+        }
+
+        assertTrue(archive.getSize() <= segmentBytes * maxSegments);
+        List<PayloadArchive.Entry> entries = archive.readAll();
+        assertFalse(entries.isEmpty());
+        assertEquals("loc99", entries.get(entries.size() - 1).locationSetting);
+        assertTrue(entries.get(0).fetchedAt > 0);
+
+        // A new instance carries on from the newest segment
+        new PayloadArchive(mDirectory, segmentBytes, maxSegments).append(100, 0, "loc100", payload);
+        assertEquals("loc100", archive.findLatest(0, "loc100").locationSetting);
+    }
+
+    public void testTornRecordIsSkipped() throws Exception {
+        PayloadArchive archive = new PayloadArchive(mDirectory, 64 * 1024, 2);
+        archive.append(1000L, 0, "94043", RecordedPayloads.MOUNTAIN_VIEW_DAILY.getBytes());
+        archive.append(2000L, 0, "10001", RecordedPayloads.MOUNTAIN_VIEW_DAILY.getBytes());
+
+        // As if the process died halfway through the second write
+        File segment = mDirectory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 10);
+        file.close();
+
+        List<PayloadArchive.Entry> entries = archive.readAll();
+        assertEquals(1, entries.size());
+        assertEquals("94043", entries.get(0).locationSetting);
+    }
+
+    public void testCorruptLengthsAreRejected() throws Exception {
+        PayloadArchive archive = new PayloadArchive(mDirectory, 64 * 1024, 2);
+        archive.append(1000L, 0, "94043", RecordedPayloads.MOUNTAIN_VIEW_DAILY.getBytes());
+        long secondRecord = mDirectory.listFiles()[0].length();
+        archive.append(2000L, 0, "10001", RecordedPayloads.MOUNTAIN_VIEW_DAILY.getBytes());
+        // The second record's raw and compressed lengths, after its magic, fetch time, city id
+        // and setting
+        long rawLengthOffset = secondRecord + 4 + 8 + 8 + 2 + "10001".length();
+
+        for (int[] lengths : new int[][]{{-1, 100}, {100, -1}, {100, Integer.MAX_VALUE},
+                {Integer.MAX_VALUE, 100}}) {
+            RandomAccessFile file = new RandomAccessFile(mDirectory.listFiles()[0], "rw");
+            file.seek(rawLengthOffset);
+            file.writeInt(lengths[0]);
+            file.writeInt(lengths[1]);
+            file.close();
+
+            List<PayloadArchive.Entry> entries = archive.readAll();
+            assertEquals("Lengths " + Arrays.toString(lengths), 1, entries.size());
+            assertEquals("94043", entries.get(0).locationSetting);
+        }
+    }
+
+    public void testReplayThroughTheEngine() throws Exception {
+        PayloadArchive archive = new PayloadArchive(mDirectory, 64 * 1024, 2);
+        ReplayHandler replay = new ReplayHandler(1)
+                .addPayload("94043", RecordedPayloads.MOUNTAIN_VIEW_DAILY);
+        StubHttpServer server = new StubHttpServer(replay);
+        server.start();
+        OwmWeatherSource source = new OwmWeatherSource(new HttpFetcher(null),
+                server.getUrl("/data/2.5/forecast/daily?").toString(), "test");
+        source.setArchive(archive);
+        source.fetchDailyForecast(0, "94043", 14, false);
+        server.shutdown();
+
+        // Nothing is stored yet, and there is no server to ask
+        ForecastSyncEngine engine = new ForecastSyncEngine(mContext,
+                new ArchivedWeatherSource(archive), 1);
+        List<ForecastSyncEngine.LocationResult> results = engine.fetchAll(Arrays.asList("94043"));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, results.get(0).status);
+        assertEquals(4, engine.commit(results));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation("94043"), null, null, null, null);
+        assertEquals(4, cursor.getCount());
+        cursor.close();
+
+        // A location that was never archived fails like an unreachable server
+        results = engine.fetchAll(Arrays.asList("10001"));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, results.get(0).status);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.net.CircuitBreaker;
+import com.example.android.sunshine.app.net.HttpFetcher;
+import com.example.android.sunshine.app.net.HttpStatusException;
+import com.example.android.sunshine.app.net.RetryPolicy;
+import com.example.android.sunshine.app.utils.RecordedPayloads;
+import com.example.android.sunshine.app.utils.ReplayHandler;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.util.Random;
+
+/*
+    Runs the retry policy and circuit breakers against a local server injecting failures.
+ */
+public class TestResilientWeatherSource extends AndroidTestCase {
+
+    private ReplayHandler mReplay;
+    private StubHttpServer mServer;
+    private CircuitBreaker mBreaker;
+    private CircuitBreaker mHourlyBreaker;
+    private ResilientWeatherSource mSource;
+    // Fails every request for the 3-hour forecast while set
+    private volatile boolean mHourlyDown;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mReplay = new ReplayHandler().addPayload("94043", RecordedPayloads.MOUNTAIN_VIEW_DAILY);
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response serve(StubHttpServer.Request request) {
+                if (mHourlyDown && Uri.parse("http://localhost" + request.path).getPath()
+                        .endsWith("/forecast")) {
+                    return new StubHttpServer.Response(503);
+                }
+                return mReplay.serve(request);
+            }
+        });
+        mServer.start();
+        OwmWeatherSource owm = new OwmWeatherSource(new HttpFetcher(null),
+                mServer.getUrl("/data/2.5/forecast/daily?").toString(), "test");
+        mBreaker = new CircuitBreaker("test", 3, 60000);
+        mHourlyBreaker = new CircuitBreaker("test hourly", 3, 60000);
+        mSource = new ResilientWeatherSource(owm, new RetryPolicy(3, 50, 2000, new Random(7)),
+                mBreaker, mHourlyBreaker);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testRecoversFromTransientErrors() throws Exception {
+        mReplay.failNext(2);
+        Forecast forecast = mSource.fetchDailyForecast(0, "94043", 14, true);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, forecast.status);
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+    }
+
+    public void testWaitsForRetryAfter() throws Exception {
+        mReplay.setRetryAfter("1").failNext(1);
+        long start = SystemClock.elapsedRealtime();
+        mSource.fetchDailyForecast(0, "94043", 14, true);
+        assertTrue(SystemClock.elapsedRealtime() - start >= 1000);
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    public void testClientErrorsAreNotRetried() throws Exception {
+        mReplay.setErrorRate(1, 401);
+        try {
+            mSource.fetchDailyForecast(0, "94043", 14, true);
+            fail();
+        } catch (HttpStatusException expected) {
+            assertEquals(401, expected.getStatusCode());
+        }
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+    }
+
+    public void testBreakerOpensOnOutage() throws Exception {
+        mReplay.setErrorRate(1, 503);
+        try {
+            mSource.fetchDailyForecast(0, "94043", 14, true);
+            fail();
+        } catch (HttpStatusException expected) {
+        }
+        // Three failed attempts in a row opened the breaker
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+
+        // Further fetches fail without reaching the server
+        try {
+            mSource.fetchDailyForecast(0, "94043", 14, true);
+            fail();
+        } catch (CircuitBreaker.OpenException expected) {
+        }
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    public void testHourlyOutageLeavesTheDailyFeedAlone() throws Exception {
+        mHourlyDown = true;
+        try {
+            mSource.fetchHourlyForecast(0, "94043", true);
+            fail();
+        } catch (HttpStatusException expected) {
+        }
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.OPEN, mHourlyBreaker.getState());
+        assertEquals("Error: the hourly outage opened the daily breaker",
+                CircuitBreaker.State.CLOSED, mBreaker.getState());
+
+        // The daily forecast is still fetched, while the hourly one waits out its breaker
+        Forecast forecast = mSource.fetchDailyForecast(0, "94043", 14, true);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, forecast.status);
+        assertEquals(4, mServer.getRequestCount());
+        try {
+            mSource.fetchHourlyForecast(0, "94043", true);
+            fail();
+        } catch (CircuitBreaker.OpenException expected) {
+        }
+        assertEquals(4, mServer.getRequestCount());
+    }
+}
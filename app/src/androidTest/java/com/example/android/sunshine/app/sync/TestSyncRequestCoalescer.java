@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+/*
+    Plays the request patterns of the settings screen against the coalescer on a fake clock.
+    Windows are closed by hand, except in the one test that lets the timer do it.
+ */
+public class TestSyncRequestCoalescer extends AndroidTestCase {
+
+    // Long enough never to close by itself during a test
+    private static final long WINDOW_MILLIS = 60 * 1000;
+
+    private long mNow = 1000;
+    private volatile int mSyncsRequested;
+
+    private SyncRequestCoalescer createCoalescer(long windowMillis) {
+        return new SyncRequestCoalescer(new Handler(Looper.getMainLooper()), windowMillis,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mSyncsRequested++;
+                    }
+                }) {
+            @Override
+            long now() {
+                return mNow;
+            }
+        };
+    }
+
+    public void testBurstBecomesOneSync() {
+        SyncRequestCoalescer coalescer = createCoalescer(WINDOW_MILLIS);
+        // Location changed, units changed, account created
+        coalescer.request();
+        coalescer.request();
+        coalescer.request();
+        assertEquals(0, mSyncsRequested);
+
+        coalescer.closeWindow();
+        assertEquals(1, mSyncsRequested);
+        assertEquals(3, coalescer.getRequestCount());
+        assertEquals(1, coalescer.getSyncCount());
+        assertEquals(2, coalescer.getAbsorbedCount());
+    }
+
+    public void testRequestsBeforeTheSyncStartsAreAbsorbed() {
+        SyncRequestCoalescer coalescer = createCoalescer(WINDOW_MILLIS);
+        coalescer.request();
+        coalescer.closeWindow();
+
+        // The sync hasn't read the settings yet, so it covers this one
+        coalescer.request();
+        coalescer.closeWindow();
+        assertEquals(1, mSyncsRequested);
+        assertEquals(1, coalescer.getAbsorbedCount());
+
+        // Unless the system seems to have dropped it
+        mNow += SyncRequestCoalescer.OUTSTANDING_EXPIRY_MILLIS;
+        coalescer.request();
+        coalescer.closeWindow();
+        assertEquals(2, mSyncsRequested);
+    }
+
+    public void testRequestsDuringASyncGetOneFollowUp() {
+        SyncRequestCoalescer coalescer = createCoalescer(WINDOW_MILLIS);
+        coalescer.request();
+        coalescer.closeWindow();
+        coalescer.onSyncStarted(true);
+
+        coalescer.request();
+        coalescer.request();
+        coalescer.request();
+        coalescer.closeWindow();
+        assertEquals(1, mSyncsRequested);
+
+        coalescer.onSyncFinished();
+        coalescer.closeWindow();
+        assertEquals(2, mSyncsRequested);
+        assertEquals(4, coalescer.getRequestCount());
+        assertEquals(2, coalescer.getAbsorbedCount());
+
+        // Nothing came in during the follow-up, so nothing follows it
+        coalescer.onSyncStarted(true);
+        coalescer.onSyncFinished();
+        coalescer.closeWindow();
+        assertEquals(2, mSyncsRequested);
+    }
+
+    public void testPeriodicSyncDoesNotAnswerARequest() {
+        SyncRequestCoalescer coalescer = createCoalescer(WINDOW_MILLIS);
+        coalescer.request();
+        coalescer.closeWindow();
+
+        // A periodic sync only fetches the locations that are due, the requested one is still to come
+        coalescer.onSyncStarted(false);
+        coalescer.onSyncFinished();
+        coalescer.request();
+        coalescer.closeWindow();
+        assertEquals(1, mSyncsRequested);
+
+        coalescer.onSyncStarted(true);
+        coalescer.onSyncFinished();
+        coalescer.request();
+        coalescer.closeWindow();
+        assertEquals(2, mSyncsRequested);
+    }
+
+    public void testWindowClosesByItself() {
+        SyncRequestCoalescer coalescer = createCoalescer(100);
+        coalescer.request();
+        coalescer.request();
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return mSyncsRequested == 1;
+            }
+        }.run();
+        assertEquals(1, coalescer.getAbsorbedCount());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+/*
+    Tests that the trace log keeps only the most recent syncs, newest first, and that its dump
+    lists their stages.
+ */
+public class TestSyncTraceLog extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncTraceLog.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncTraceLog.clear();
+        super.tearDown();
+    }
+
+    private static SyncTrace trace(String outcome) {
+        SyncTrace trace = new SyncTrace();
+        trace.addStage(SyncTrace.STAGE_PARSE, "94043", 12, 4096, 14);
+        trace.finish(outcome);
+        return trace;
+    }
+
+    public void testRingBufferKeepsTheLatest() {
+        assertTrue(SyncTraceLog.getTraces().isEmpty());
+
+        int count = SyncTraceLog.CAPACITY + 5;
+        for (int i = 0; i < count; i++) {
+            SyncTraceLog.record(trace("sync " + i));
+        }
+
+        List<SyncTrace> traces = SyncTraceLog.getTraces();
+        assertEquals(SyncTraceLog.CAPACITY, traces.size());
+        assertEquals("sync " + (count - 1), traces.get(0).getOutcome());
+        assertEquals("sync " + (count - SyncTraceLog.CAPACITY),
+                traces.get(traces.size() - 1).getOutcome());
+    }
+
+    public void testDump() {
+        SyncTraceLog.record(trace("1 locations, 14 rows changed"));
+        StringWriter out = new StringWriter();
+        SyncTraceLog.dump(new PrintWriter(out));
+
+        String dump = out.toString();
+        assertTrue(dump, dump.contains("1 locations, 14 rows changed"));
+        assertTrue(dump, dump.contains("parse [94043]: 12ms, 4096 bytes, 14 rows"));
+    }
+}
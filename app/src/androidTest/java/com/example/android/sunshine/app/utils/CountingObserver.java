@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+/*
+    A content observer that counts the notifications it gets, on a thread of its own.  Register
+    it, make the change, then awaitChanges(): it waits for the first notification, then a little
+    longer for any that would follow it.
+ */
+public class CountingObserver extends ContentObserver {
+    // How long stragglers are given once the first notification is in
+    private static final long SETTLE_MILLIS = 500;
+
+    private final HandlerThread mHT;
+    private final ContentResolver mResolver;
+    private volatile int mChangeCount;
+
+    /**
+     * Registers a new observer for the uri and its descendants.
+     */
+    public static CountingObserver register(ContentResolver resolver, Uri uri) {
+        HandlerThread ht = new HandlerThread("CountingObserverThread");
+        ht.start();
+        CountingObserver observer = new CountingObserver(ht, resolver);
+        resolver.registerContentObserver(uri, true, observer);
+        return observer;
+    }
+
+    private CountingObserver(HandlerThread ht, ContentResolver resolver) {
+        super(new Handler(ht.getLooper()));
+        mHT = ht;
+        mResolver = resolver;
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+        mChangeCount++;
+    }
+
+    public int getChangeCount() {
+        return mChangeCount;
+    }
+
+    /**
+     * @return the notifications so far, once the first has arrived and the rest had time to
+     */
+    public int awaitChanges() {
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return mChangeCount > 0;
+            }
+        }.run();
+        SystemClock.sleep(SETTLE_MILLIS);
+        return mChangeCount;
+    }
+
+    /**
+     * @return the notifications so far, after giving any that are on their way time to arrive
+     */
+    public int settle() {
+        SystemClock.sleep(SETTLE_MILLIS);
+        return mChangeCount;
+    }
+
+    public void unregister() {
+        mResolver.unregisterContentObserver(this);
+        mHT.quit();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+/*
+    Responses recorded from the OpenWeatherMap forecast/daily and forecast endpoints (trimmed to a few days),
+    plus a couple of hand-edited variants, so that tests can exercise the sync path without
+    talking to the live service.
+ */
+public class RecordedPayloads {
+
+    // forecast/daily?q=94043&mode=json&units=metric&cnt=4
+    public static final String MOUNTAIN_VIEW_DAILY =
+            "{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",\"coord\":{\"lon\":-122.083847,\"lat\":37.386051}," +
+            "\"country\":\"US\",\"population\":0},\"cod\":\"200\",\"message\":0.0071,\"cnt\":4,\"list\":[" +
+            "{\"dt\":1445976000,\"temp\":{\"day\":18.73,\"min\":9.17,\"max\":19.68,\"night\":9.17,\"eve\":15.41,\"morn\":12.4}," +
+            "\"pressure\":1000.41,\"humidity\":76,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}]," +
+            "\"speed\":2.11,\"deg\":257,\"clouds\":80,\"rain\":1.26}," +
+            "{\"dt\":1446062400,\"temp\":{\"day\":20.14,\"min\":8.35,\"max\":21.02,\"night\":10.36,\"eve\":17.2,\"morn\":8.35}," +
+            "\"pressure\":1002.38,\"humidity\":64,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}]," +
+            "\"speed\":1.56,\"deg\":301,\"clouds\":0}," +
+            "{\"dt\":1446148800,\"temp\":{\"day\":19.6,\"min\":10.01,\"max\":19.6,\"night\":12.13,\"eve\":16.9,\"morn\":10.01}," +
+            "\"pressure\":999.82,\"humidity\":0,\"weather\":[{\"id\":801,\"main\":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"}]," +
+            "\"speed\":3.02,\"deg\":190,\"clouds\":12}," +
+            "{\"dt\":1446235200,\"temp\":{\"day\":16.4,\"min\":11.82,\"max\":16.4,\"night\":11.82,\"eve\":14.38,\"morn\":12.05}," +
+            "\"pressure\":994.97,\"humidity\":91,\"weather\":[{\"id\":502,\"main\":\"Rain\",\"description\":\"heavy intensity rain\",\"icon\":\"10d\"}]," +
+            "\"speed\":6.21,\"deg\":172,\"clouds\":92,\"rain\":14.72}]}";
+
+    // Same content as above, but with the list ahead of the city and extra weather elements.
+    public static final String MOUNTAIN_VIEW_DAILY_REORDERED =
+            "{\"cnt\":2,\"list\":[" +
+            "{\"dt\":1445976000,\"temp\":{\"day\":18.73,\"min\":9.17,\"max\":19.68}," +
+            "\"pressure\":1000.41,\"humidity\":76.6,\"weather\":[{\"id\":500,\"main\":\"Rain\"},{\"id\":701,\"main\":\"Mist\"}]," +
+            "\"speed\":2.11,\"deg\":257.5}," +
+            "{\"dt\":1446062400,\"temp\":{\"day\":20.14,\"min\":-8.35,\"max\":21.02}," +
+            "\"pressure\":1002.38,\"humidity\":64,\"weather\":[{\"id\":\"800\",\"main\":\"Clear\"}]," +
+            "\"speed\":1.56,\"deg\":301}]," +
+            "\"cod\":200,\"city\":{\"coord\":{\"lat\":37.386051,\"lon\":-122.083847},\"name\":\"Mountain View\"}}";
+
+    // forecast?q=94043&mode=json&units=metric (the 3-hour forecast, trimmed to three periods; the
+    // last one came without any wind)
+    public static final String MOUNTAIN_VIEW_HOURLY =
+            "{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",\"coord\":{\"lon\":-122.083847,\"lat\":37.386051}," +
+            "\"country\":\"US\",\"population\":0},\"cod\":\"200\",\"message\":0.0036,\"cnt\":3,\"list\":[" +
+            "{\"dt\":1445979600,\"main\":{\"temp\":17.25,\"temp_min\":16.1,\"temp_max\":17.25,\"pressure\":1000.41," +
+            "\"sea_level\":1027.1,\"grnd_level\":1000.41,\"humidity\":76,\"temp_kf\":1.15}," +
+            "\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}]," +
+            "\"clouds\":{\"all\":80},\"wind\":{\"speed\":2.11,\"deg\":257.5},\"rain\":{\"3h\":0.42}," +
+            "\"sys\":{\"pod\":\"d\"},\"dt_txt\":\"2015-10-27 21:00:00\"}," +
+            "{\"dt\":1445990400,\"main\":{\"temp\":14.02,\"temp_min\":13.2,\"temp_max\":14.02,\"pressure\":1001.2," +
+            "\"humidity\":81}," +
+            "\"weather\":[{\"id\":803,\"main\":\"Clouds\",\"description\":\"broken clouds\",\"icon\":\"04n\"}]," +
+            "\"clouds\":{\"all\":64},\"wind\":{\"speed\":1.46,\"deg\":281}," +
+            "\"sys\":{\"pod\":\"n\"},\"dt_txt\":\"2015-10-28 00:00:00\"}," +
+            "{\"dt\":1446001200,\"main\":{\"temp\":-0.5,\"pressure\":1001.93,\"humidity\":88}," +
+            "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01n\"}]," +
+            "\"sys\":{\"pod\":\"n\"},\"dt_txt\":\"2015-10-28 03:00:00\"}]}";
+
+    // forecast/daily?q=notaplace
+    public static final String CITY_NOT_FOUND =
+            "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+    // A successful response missing the "list" array.
+    public static final String MISSING_LIST =
+            "{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",\"coord\":{\"lon\":-122.08,\"lat\":37.38}}," +
+            "\"cod\":\"200\",\"cnt\":0}";
+
+    // A response that was cut off mid-transfer.
+    public static final String TRUNCATED =
+            "{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",\"coord\":{\"lon\":-122.08,\"lat\":37.38}}," +
+            "\"cod\":\"200\",\"cnt\":1,\"list\":[{\"dt\":1445976000,\"temp\":{\"day\":18.73,\"min\":9.17,\"max";
+}
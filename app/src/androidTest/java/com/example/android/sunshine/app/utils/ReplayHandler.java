@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    A StubHttpServer handler that replays recorded forecast payloads, looked up by the "q" or "id"
+    query parameter of the request, with a configurable delay before each answer and a share of
+    requests failed with an error status or a dropped connection.  Locations without a payload are
+    answered the way OWM answers an unknown city.  Errors can carry a Retry-After header.  Pair it with StubHttpServer.setThroughput to
+    also limit the bandwidth.
+
+    The failures are drawn from a seeded Random, so a run injects the same failures every time.
+ */
+public class ReplayHandler implements StubHttpServer.Handler {
+    private final Map<String, String> mPayloads = new HashMap<String, String>();
+    private final Random mRandom;
+    private volatile long mLatencyMillis;
+    private volatile double mErrorRate;
+    private volatile int mErrorCode = 503;
+    private volatile double mDropRate;
+    private volatile String mRetryAfter;
+    private final AtomicInteger mFailNext = new AtomicInteger();
+
+    private final AtomicInteger mServedCount = new AtomicInteger();
+    private final AtomicInteger mErrorCount = new AtomicInteger();
+    private final AtomicInteger mDropCount = new AtomicInteger();
+
+    public ReplayHandler(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    public ReplayHandler() {
+        this(0);
+    }
+
+    /*
+        Serves the payload to requests whose "q" or "id" parameter is the given location.
+     */
+    public ReplayHandler addPayload(String location, String payload) {
+        synchronized (mPayloads) {
+            mPayloads.put(location, payload);
+        }
+        return this;
+    }
+
+    public ReplayHandler setLatency(long millis) {
+        mLatencyMillis = millis;
+        return this;
+    }
+
+    /*
+        Answers the given share of requests, between 0 and 1, with the given HTTP status.
+     */
+    public ReplayHandler setErrorRate(double rate, int code) {
+        mErrorRate = rate;
+        mErrorCode = code;
+        return this;
+    }
+
+    /*
+        Closes the connection without an answer for the given share of requests.
+     */
+    public ReplayHandler setDropRate(double rate) {
+        mDropRate = rate;
+        return this;
+    }
+
+    /*
+        Answers the next count requests with the error status, whatever the error rate.
+     */
+    public ReplayHandler failNext(int count) {
+        mFailNext.set(count);
+        return this;
+    }
+
+    /*
+        Sends this Retry-After header with every error status, or none if null.
+     */
+    public ReplayHandler setRetryAfter(String retryAfter) {
+        mRetryAfter = retryAfter;
+        return this;
+    }
+
+    public int getServedCount() {
+        return mServedCount.get();
+    }
+
+    public int getErrorCount() {
+        return mErrorCount.get();
+    }
+
+    public int getDropCount() {
+        return mDropCount.get();
+    }
+
+    private boolean takeForcedFailure() {
+        int remaining;
+        do {
+            remaining = mFailNext.get();
+            if (remaining <= 0) {
+                return false;
+            }
+        } while (!mFailNext.compareAndSet(remaining, remaining - 1));
+        return true;
+    }
+
+    @Override
+    public StubHttpServer.Response serve(StubHttpServer.Request request) {
+        if (mLatencyMillis > 0) {
+            SystemClock.sleep(mLatencyMillis);
+        }
+
+        double roll;
+        synchronized (mRandom) {
+            roll = mRandom.nextDouble();
+        }
+        if (roll < mDropRate) {
+            mDropCount.incrementAndGet();
+            return null;
+        }
+        if (takeForcedFailure() || roll < mDropRate + mErrorRate) {
+            mErrorCount.incrementAndGet();
+            StubHttpServer.Response error = new StubHttpServer.Response(mErrorCode)
+                    .body("{\"cod\":" + mErrorCode + ",\"message\":\"injected\"}");
+            if (mRetryAfter != null) {
+                error.header("Retry-After", mRetryAfter);
+            }
+            return error;
+        }
+
+        Uri uri = Uri.parse("http://localhost" + request.path);
+        String location = uri.getQueryParameter("q");
+        if (location == null) {
+            location = uri.getQueryParameter("id");
+        }
+        String payload;
+        synchronized (mPayloads) {
+            payload = mPayloads.get(location);
+        }
+        mServedCount.incrementAndGet();
+        return StubHttpServer.Response.ok(payload != null ? payload : RecordedPayloads.CITY_NOT_FOUND);
+    }
+}
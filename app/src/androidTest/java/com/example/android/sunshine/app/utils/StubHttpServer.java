@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+    A minimal HTTP/1.1 server running inside the test process, standing in for OpenWeatherMap so
+    that the sync path can be tested without network access.  Each request is handed to a
+    Handler, which decides what to answer.
+ */
+public class StubHttpServer {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static class Request {
+        public final String method;
+        public final String path;
+        // header names are lower-cased
+        public final Map<String, String> headers;
+
+        Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    public static class Response {
+        public final int code;
+        public final Map<String, String> headers = new LinkedHashMap<String, String>();
+        public byte[] body = new byte[0];
+
+        public Response(int code) {
+            this.code = code;
+        }
+
+        public Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Response body(String body) {
+            this.body = body.getBytes(UTF_8);
+            return this;
+        }
+
+        public Response body(byte[] body) {
+            this.body = body;
+            return this;
+        }
+
+        public static Response ok(String body) {
+            return new Response(200).header("Content-Type", "application/json").body(body);
+        }
+    }
+
+    public interface Handler {
+        Response serve(Request request) throws IOException;
+    }
+
+    private final Handler mHandler;
+    private volatile long mBytesPerSecond;
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+    private ServerSocket mServerSocket;
+    private Thread mAcceptThread;
+
+    public StubHttpServer(Handler handler) {
+        mHandler = handler;
+    }
+
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread("StubHttpServer") {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        final Socket socket = mServerSocket.accept();
+                        new Thread("StubHttpServer connection") {
+                            @Override
+                            public void run() {
+                                serveConnection(socket);
+                            }
+                        }.start();
+                    } catch (IOException e) {
+                        // The server socket was closed by shutdown()
+                        return;
+                    }
+                }
+            }
+        };
+        mAcceptThread.start();
+    }
+
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // Nothing to do, we're going away
+        }
+    }
+
+    /**
+     * Limits how fast response bodies are written, to stand in for a slow network.
+     * @param bytesPerSecond the limit, or 0 for none
+     */
+    public void setThroughput(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    public URL getUrl(String path) {
+        try {
+            return new URL("http", "127.0.0.1", mServerSocket.getLocalPort(), path);
+        } catch (MalformedURLException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public int getRequestCount() {
+        return mRequests.size();
+    }
+
+    public List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<Request>(mRequests);
+        }
+    }
+
+    public Request getLastRequest() {
+        synchronized (mRequests) {
+            return mRequests.isEmpty() ? null : mRequests.get(mRequests.size() - 1);
+        }
+    }
+
+    private void serveConnection(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            Request request;
+            while ((request = readRequest(in)) != null) {
+                mRequests.add(request);
+                Response response = mHandler.serve(request);
+                if (response == null) {
+                    // The handler wants the connection dropped without an answer.
+                    break;
+                }
+                writeResponse(out, request, response);
+                if ("close".equalsIgnoreCase(request.getHeader("Connection"))) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // The client went away
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+
+    private static Request readRequest(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.length() == 0) {
+            return null;
+        }
+        String[] parts = requestLine.split(" ");
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        // We only serve GETs, there is no request body to skip.
+        return new Request(parts[0], parts.length > 1 ? parts[1] : "/", headers);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return new String(line.toByteArray(), UTF_8);
+    }
+
+    protected void writeResponse(OutputStream out, Request request, Response response)
+            throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.code).append(' ')
+                .append(reasonPhrase(response.code)).append("\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        boolean hasBody = response.code != 304 && response.code != 204;
+        if (hasBody) {
+            head.append("Content-Length: ").append(response.body.length).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(UTF_8));
+        if (hasBody) {
+            writeBody(out, response.body);
+        }
+        out.flush();
+    }
+
+    protected void writeBody(OutputStream out, byte[] body) throws IOException {
+        long bytesPerSecond = mBytesPerSecond;
+        if (bytesPerSecond <= 0) {
+            out.write(body);
+            return;
+        }
+        // Write a tenth of a second's worth at a time
+        int chunk = (int) Math.max(1, bytesPerSecond / 10);
+        for (int offset = 0; offset < body.length; offset += chunk) {
+            int count = Math.min(chunk, body.length - offset);
+            out.write(body, offset, count);
+            out.flush();
+            try {
+                Thread.sleep(count * 1000 / bytesPerSecond);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static String reasonPhrase(int code) {
+        switch (code) {
+            case 200: return "OK";
+            case 304: return "Not Modified";
+            case 404: return "Not Found";
+            case 429: return "Too Many Requests";
+            case 500: return "Internal Server Error";
+            case 503: return "Service Unavailable";
+            default: return "Status";
+        }
+    }
+}
@@ -88,6 +88,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mContext = context;
         mClickHandler = dh;
         mEmptyView = emptyView;
+        // A day keeps its row, and so its id, across syncs, and so its view across reloads
+        setHasStableIds(true);
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
     }
@@ -206,6 +208,14 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         return (position == 0 && mUseTodayLayout) ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
     }
 
+    @Override
+    public long getItemId(int position) {
+        if (mCursor != null && mCursor.moveToPosition(position)) {
+            return mCursor.getLong(ForecastFragment.COL_WEATHER_ID);
+        }
+        return RecyclerView.NO_ID;
+    }
+
     @Override
     public int getItemCount() {
         if ( null == mCursor ) return 0;
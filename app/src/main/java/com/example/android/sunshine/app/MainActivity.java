@@ -37,6 +37,7 @@ import android.view.View;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.gcm.RegistrationIntentService;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncTraceActivity;
 import com.example.android.sunshine.app.wearable.SunshineWearableService;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
@@ -143,6 +144,7 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.main, menu);
+        menu.findItem(R.id.action_sync_trace).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -158,6 +160,10 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
             startActivity(new Intent(this, SettingsActivity.class));
             return true;
         }
+        if (id == R.id.action_sync_trace) {
+            startActivity(new Intent(this, SyncTraceActivity.class));
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
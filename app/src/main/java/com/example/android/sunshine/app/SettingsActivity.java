@@ -24,10 +24,14 @@ import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
 
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.LocalRefreshService;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
+import java.util.List;
+
 /**
  * A {@link PreferenceActivity} that presents a set of application settings.
  * <p>
@@ -50,6 +54,28 @@ public class SettingsActivity extends PreferenceActivity
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
+
+        // These only edit the list of saved locations, which is kept under its own key
+        findPreference(getString(R.string.pref_add_location_key))
+                .setOnPreferenceChangeListener(this);
+        findPreference(getString(R.string.pref_remove_location_key))
+                .setOnPreferenceChangeListener(this);
+        bindSavedLocations();
+    }
+
+    /**
+     * Offers the saved locations, besides the preferred one, for removal.
+     */
+    private void bindSavedLocations() {
+        ListPreference removePreference =
+                (ListPreference) findPreference(getString(R.string.pref_remove_location_key));
+        List<String> locations = Utility.getSavedLocations(this);
+        String[] others = locations.subList(1, locations.size()).toArray(new String[0]);
+        removePreference.setEntries(others);
+        removePreference.setEntryValues(others);
+        removePreference.setEnabled(others.length > 0);
+        removePreference.setSummary(others.length > 0
+                ? TextUtils.join(", ", others) : getString(R.string.pref_remove_location_none));
     }
 
     // Registers a shared preference change listener that gets notified when preferences change
@@ -123,7 +149,27 @@ public class SettingsActivity extends PreferenceActivity
     // This gets called before the preference is changed
     @Override
     public boolean onPreferenceChange(Preference preference, Object value) {
+        if (preference.getKey().equals(getString(R.string.pref_add_location_key))) {
+            String location = value.toString().trim();
+            if (location.length() > 0 && Utility.addSavedLocation(this, location)) {
+                SunshineSyncAdapter.syncImmediately(this);
+            }
+            // Only the list of saved locations is kept, not what was typed
+            return false;
+        } else if (preference.getKey().equals(getString(R.string.pref_remove_location_key))) {
+            Utility.removeSavedLocation(this, value.toString());
+            return false;
+        }
         setPreferenceSummary(preference, value);
+        if (preference.getKey().equals(getString(R.string.pref_location_key))) {
+            // The new value isn't saved yet, so this is still the location being replaced
+            String previous = Utility.getPreferredLocation(this);
+            List<String> locations = Utility.getSavedLocations(this);
+            if (!previous.equals(value)
+                    && !locations.subList(1, locations.size()).contains(previous)) {
+                LocalRefreshService.startActionLocationDropped(this, previous);
+            }
+        }
         return true;
     }
 
@@ -137,13 +183,15 @@ public class SettingsActivity extends PreferenceActivity
             Utility.resetLocationStatus(this);
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
-            // units have changed. update lists of weather entries accordingly
-            SunshineSyncAdapter.syncImmediately(this);
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // units have changed.  Temperatures are stored in metric and converted for display,
+            // so redraw everything from the stored forecast rather than syncing again
+            LocalRefreshService.startActionDisplayChanged(this);
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
             bindPreferenceSummaryToValue(locationPreference);
+        } else if ( key.equals(getString(R.string.pref_saved_locations_key)) ) {
+            bindSavedLocations();
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
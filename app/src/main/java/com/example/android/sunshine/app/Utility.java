@@ -21,21 +21,95 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.preference.PreferenceManager;
 import android.text.format.Time;
+import android.util.Log;
 
+import com.example.android.sunshine.app.sync.LocalRefreshService;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 public class Utility {
+    private static final String LOG_TAG = Utility.class.getSimpleName();
+
     public static String getPreferredLocation(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_location_key),
                 context.getString(R.string.pref_location_default));
     }
 
+    /**
+     * Returns every location the sync keeps a forecast for: the preferred location first, then
+     * the other saved locations in the order they were added.
+     */
+    public static List<String> getSavedLocations(Context context) {
+        List<String> locations = new ArrayList<String>();
+        locations.add(getPreferredLocation(context));
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String saved = prefs.getString(context.getString(R.string.pref_saved_locations_key), null);
+        if (saved != null) {
+            try {
+                JSONArray savedArray = new JSONArray(saved);
+                for (int i = 0; i < savedArray.length(); i++) {
+                    String location = savedArray.getString(i);
+                    if (!locations.contains(location)) {
+                        locations.add(location);
+                    }
+                }
+            } catch (JSONException e) {
+                Log.e(LOG_TAG, "Discarding unreadable saved locations " + saved, e);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Adds a location to be synced alongside the preferred location.
+     * @return false if the location was already saved
+     */
+    public static boolean addSavedLocation(Context context, String locationSetting) {
+        List<String> locations = getSavedLocations(context);
+        if (locations.contains(locationSetting)) {
+            return false;
+        }
+        locations.add(locationSetting);
+        putSavedLocations(context, locations.subList(1, locations.size()));
+        return true;
+    }
+
+    /**
+     * Stops syncing a saved location.  The preferred location can't be removed this way.
+     * @return false if the location wasn't saved
+     */
+    public static boolean removeSavedLocation(Context context, String locationSetting) {
+        List<String> locations = getSavedLocations(context);
+        List<String> others = locations.subList(1, locations.size());
+        if (!others.remove(locationSetting)) {
+            return false;
+        }
+        putSavedLocations(context, others);
+        if (!locationSetting.equals(locations.get(0))) {
+            LocalRefreshService.startActionLocationDropped(context, locationSetting);
+        }
+        return true;
+    }
+
+    private static void putSavedLocations(Context context, List<String> locations) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit()
+                .putString(context.getString(R.string.pref_saved_locations_key),
+                        new JSONArray(locations).toString())
+                .apply();
+    }
+
     public static boolean isMetric(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_units_key),
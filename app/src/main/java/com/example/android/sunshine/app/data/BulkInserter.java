@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Inserts rows into one table through a single compiled INSERT, bound by position, instead of
+ * building and compiling a statement per row the way {@link SQLiteDatabase#insert} does.
+ *
+ * Made for one bulk insert: the statement belongs to the database it was compiled on, so the
+ * inserter should be closed, in a finally, before that insert returns.  Not thread-safe.
+ */
+class BulkInserter {
+    private static final String LOG_TAG = BulkInserter.class.getSimpleName();
+
+    private final SQLiteDatabase mDb;
+    private final String mTable;
+    private final String[] mColumns;
+    private final SQLiteStatement mStatement;
+
+    /**
+     * @param columns every column a row may give a value for; a missing one is bound to null
+     */
+    BulkInserter(SQLiteDatabase db, String table, String[] columns) {
+        mDb = db;
+        mTable = table;
+        mColumns = columns;
+
+        StringBuilder sql = new StringBuilder(128);
+        sql.append("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? "," : "").append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(')');
+        mStatement = db.compileStatement(sql.toString());
+    }
+
+    /**
+     * Inserts one row.
+     *
+     * @return the new row's id, or -1 if it failed, as {@link SQLiteDatabase#insert} would
+     */
+    long insert(ContentValues values) {
+        if (!bind(values)) {
+            // It has columns this inserter doesn't know of; let the slow path report them
+            return mDb.insert(mTable, null, values);
+        }
+        return execute();
+    }
+
+    /**
+     * Binds one row's values, to be adjusted with {@link #bindLong} and then inserted with
+     * {@link #execute()}.
+     *
+     * @return false, leaving the statement half bound, if the row has a value for a column
+     * that isn't one of this inserter's
+     */
+    boolean bind(ContentValues values) {
+        mStatement.clearBindings();
+        return bindValues(mStatement, mColumns, values);
+    }
+
+    /**
+     * Binds each column's value to the parameter of the same position, 1-based, leaving the
+     * parameters of missing columns as they were.
+     *
+     * @return false if the values have a column that isn't in the array
+     */
+    static boolean bindValues(SQLiteStatement statement, String[] columns, ContentValues values) {
+        int bound = 0;
+        for (int i = 0; i < columns.length; i++) {
+            Object value = values.get(columns[i]);
+            if (value == null) {
+                if (values.containsKey(columns[i])) {
+                    statement.bindNull(i + 1);
+                    bound++;
+                }
+                continue;
+            }
+            bound++;
+            if (value instanceof String) {
+                statement.bindString(i + 1, (String) value);
+            } else if (value instanceof Double || value instanceof Float) {
+                statement.bindDouble(i + 1, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(i + 1, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                statement.bindLong(i + 1, (Boolean) value ? 1 : 0);
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(i + 1, (byte[]) value);
+            } else {
+                statement.bindString(i + 1, value.toString());
+            }
+        }
+        return bound == values.size();
+    }
+
+    /**
+     * Overrides the value bound to a column by {@link #bind}.
+     *
+     * @param column the column's index in the array the inserter was made with
+     */
+    void bindLong(int column, long value) {
+        mStatement.bindLong(column + 1, value);
+    }
+
+    /**
+     * Inserts the row bound last.
+     *
+     * @return the new row's id, or -1 if it failed
+     */
+    long execute() {
+        try {
+            return mStatement.executeInsert();
+        } catch (SQLException e) {
+            // As SQLiteDatabase.insert does: one bad row doesn't fail the rest
+            Log.e(LOG_TAG, "Error inserting into " + mTable, e);
+            return -1;
+        }
+    }
+
+    void close() {
+        mStatement.close();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.net.Uri;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What a write changed, gathered as it runs, and turned into the uris to notify once it
+ * commits.
+ *
+ * Weather rows are tracked by location and day, and hourly rows by location, so observers of
+ * other locations and other days are left alone.  Each changed day is notified on its own uri;
+ * observers watch their descendants, so the location's list and the table's observers hear of
+ * it too, once per changed day, while the detail screens of the location's other days don't.
+ * A location the registry doesn't know falls back to the table's uri.
+ */
+final class ChangeSet {
+    // The changed weather days, normalized, by location id
+    private final Map<Long, Set<Long>> mWeatherDays = new HashMap<Long, Set<Long>>();
+    private final Set<Long> mHourlyLocations = new HashSet<Long>();
+    // Uris to notify as they are, e.g. a whole table's
+    private final Set<Uri> mUris = new HashSet<Uri>();
+    // For normalizing dates, reused by every row
+    private final Time mTime = new Time();
+
+    void addWeatherDay(long locationId, long date) {
+        addNormalizedDay(locationId, WeatherContract.normalizeDate(date, mTime));
+    }
+
+    private void addNormalizedDay(long locationId, long normalizedDate) {
+        Set<Long> days = mWeatherDays.get(locationId);
+        if (days == null) {
+            days = new HashSet<Long>();
+            mWeatherDays.put(locationId, days);
+        }
+        days.add(normalizedDate);
+    }
+
+    void addHourly(long locationId) {
+        mHourlyLocations.add(locationId);
+    }
+
+    void add(Uri uri) {
+        mUris.add(uri);
+    }
+
+    void addAll(ChangeSet changes) {
+        for (Map.Entry<Long, Set<Long>> entry : changes.mWeatherDays.entrySet()) {
+            for (long day : entry.getValue()) {
+                addNormalizedDay(entry.getKey(), day);
+            }
+        }
+        mHourlyLocations.addAll(changes.mHourlyLocations);
+        mUris.addAll(changes.mUris);
+    }
+
+    boolean isEmpty() {
+        return mWeatherDays.isEmpty() && mHourlyLocations.isEmpty() && mUris.isEmpty();
+    }
+
+    /**
+     * @return the uris to notify, none of them a descendant of another
+     */
+    Set<Uri> toUris(Context context, LocationRegistry registry) {
+        Set<Uri> uris = new HashSet<Uri>(mUris);
+        if (!uris.contains(WeatherEntry.CONTENT_URI) && !mWeatherDays.isEmpty()) {
+            List<Uri> weatherUris = new ArrayList<Uri>(mWeatherDays.size());
+            for (Map.Entry<Long, Set<Long>> entry : mWeatherDays.entrySet()) {
+                LocationRegistry.Location location = registry.getById(context, entry.getKey());
+                if (location == null) {
+                    weatherUris.clear();
+                    weatherUris.add(WeatherEntry.CONTENT_URI);
+                    break;
+                }
+                for (long day : entry.getValue()) {
+                    weatherUris.add(WeatherEntry.buildWeatherLocationWithDate(
+                            location.locationSetting, day));
+                }
+            }
+            uris.addAll(weatherUris);
+        }
+        if (!uris.contains(HourlyEntry.CONTENT_URI) && !mHourlyLocations.isEmpty()) {
+            List<Uri> hourlyUris = new ArrayList<Uri>(mHourlyLocations.size());
+            for (long locationId : mHourlyLocations) {
+                LocationRegistry.Location location = registry.getById(context, locationId);
+                if (location == null) {
+                    hourlyUris.clear();
+                    hourlyUris.add(HourlyEntry.CONTENT_URI);
+                    break;
+                }
+                hourlyUris.add(HourlyEntry.buildHourlyLocation(location.locationSetting));
+            }
+            uris.addAll(hourlyUris);
+        }
+        return uris;
+    }
+}
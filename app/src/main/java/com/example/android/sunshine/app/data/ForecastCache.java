@@ -0,0 +1,511 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The forecasts the {@link WeatherProvider} has read for a location, kept in memory so that the
+ * list, the widgets, the wearable, Muzei and the notification, which all read the same forecast
+ * right after a sync, cost one query between them rather than one each.
+ *
+ * A location's forecast is kept by the day it starts on, whole: every weather column along with
+ * the location's, from that day on in date order.  Each reader is then handed the
+ * {@link Slice} it asked for, its columns, days, order and limit, out of that one snapshot, with
+ * each value in its own type and its text as SQLite gave it.  The cache holds at most
+ * {@code maxRows} rows; the least recently read forecasts go first.  The provider empties it
+ * whenever a write commits, since a sync rewrites every location anyway.
+ *
+ * A forecast is read from the database without holding the cache's lock, so a read that
+ * overlapped a write could hold rows from before it; like the {@link LocationRegistry}, such a
+ * read is served but not kept.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+final class ForecastCache {
+    private static final String LOG_TAG = ForecastCache.class.getSimpleName();
+
+    static final int DEFAULT_MAX_ROWS = 256;
+
+    // The columns of a snapshot, each under its own name: the location's _id is left out, since
+    // it is the weather's location_id
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.COLUMN_CITY_ID
+    };
+
+    /** What the provider selects from the weather and location join to read a snapshot. */
+    static final String[] SNAPSHOT_PROJECTION;
+
+    static {
+        SNAPSHOT_PROJECTION = new String[WEATHER_COLUMNS.length + LOCATION_COLUMNS.length];
+        for (int i = 0; i < WEATHER_COLUMNS.length; i++) {
+            SNAPSHOT_PROJECTION[i] = WeatherEntry.TABLE_NAME + "." + WEATHER_COLUMNS[i];
+        }
+        for (int i = 0; i < LOCATION_COLUMNS.length; i++) {
+            SNAPSHOT_PROJECTION[WEATHER_COLUMNS.length + i] =
+                    LocationEntry.TABLE_NAME + "." + LOCATION_COLUMNS[i];
+        }
+    }
+
+    /**
+     * What a reader asked for out of a snapshot: its columns, the days from fromDate to toDate
+     * inclusive, in its order, and at most limit of them, or all if it is 0.
+     */
+    static final class Slice {
+        final String[] columns;
+        final long fromDate;
+        final long toDate;
+        final int limit;
+        // The snapshot columns the reader's columns and sort terms are read from
+        private final String[] mSources;
+        private final String[] mSortColumns;
+        private final boolean[] mDescending;
+
+        private Slice(String[] columns, String[] sources, String[] sortColumns,
+                      boolean[] descending, long fromDate, long toDate, int limit) {
+            this.columns = columns;
+            this.fromDate = fromDate;
+            this.toDate = toDate;
+            this.limit = limit;
+            mSources = sources;
+            mSortColumns = sortColumns;
+            mDescending = descending;
+        }
+
+        /**
+         * @return the slice, or null if it can't be cut from a snapshot, e.g. the projection is
+         * null or holds an expression, or the sort order isn't a list of columns, in which case
+         * the reader must query the database
+         */
+        static Slice of(String[] projection, String sortOrder, long fromDate, long toDate,
+                        int limit) {
+            if (projection == null) {
+                return null;
+            }
+            String[] columns = new String[projection.length];
+            String[] sources = new String[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                sources[i] = resolve(projection[i]);
+                if (sources[i] == null) {
+                    return null;
+                }
+                // As SQLite names a qualified column, by its name alone
+                columns[i] = sources[i];
+            }
+
+            String[] terms = TextUtils.isEmpty(sortOrder) ? new String[0] : sortOrder.split(",");
+            String[] sortColumns = new String[terms.length];
+            boolean[] descending = new boolean[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                String[] words = terms[i].trim().split("\\s+");
+                if (words.length > 2) {
+                    return null;
+                }
+                sortColumns[i] = resolve(words[0]);
+                if (sortColumns[i] == null) {
+                    return null;
+                }
+                if (words.length == 2) {
+                    if ("DESC".equalsIgnoreCase(words[1])) {
+                        descending[i] = true;
+                    } else if (!"ASC".equalsIgnoreCase(words[1])) {
+                        return null;
+                    }
+                }
+            }
+            return new Slice(columns, sources, sortColumns, descending, fromDate, toDate, limit);
+        }
+
+        /**
+         * @return the snapshot column a projection or sort column reads, or null if it isn't
+         * one, or is the location's _id
+         */
+        private static String resolve(String column) {
+            String name = column.trim();
+            String table = null;
+            int dot = name.indexOf('.');
+            if (dot != -1) {
+                table = name.substring(0, dot);
+                name = name.substring(dot + 1);
+            }
+            boolean weather = Arrays.asList(WEATHER_COLUMNS).contains(name);
+            boolean location = Arrays.asList(LOCATION_COLUMNS).contains(name);
+            if (table == null) {
+                return weather || location ? name : null;
+            } else if (table.equals(WeatherEntry.TABLE_NAME)) {
+                return weather ? name : null;
+            } else if (table.equals(LocationEntry.TABLE_NAME)) {
+                return location ? name : null;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A forecast as read: its columns, and for each row its values in their own types along
+     * with their text.  SQLite has its own way of printing a real, which a Double's toString
+     * doesn't match.
+     */
+    private static final class Snapshot {
+        final String[] columns;
+        final List<Object[]> rows;
+        final List<String[]> strings;
+
+        Snapshot(String[] columns, List<Object[]> rows, List<String[]> strings) {
+            this.columns = columns;
+            this.rows = rows;
+            this.strings = strings;
+        }
+
+        /**
+         * @return the slice's rows, or null if this snapshot lacks one of its columns
+         */
+        Cursor newCursor(Slice slice) {
+            List<String> names = Arrays.asList(columns);
+            final int[] sources = indexesOf(names, slice.mSources);
+            final int[] sortColumns = indexesOf(names, slice.mSortColumns);
+            if (sources == null || sortColumns == null) {
+                return null;
+            }
+            int date = names.indexOf(WeatherEntry.COLUMN_DATE);
+
+            List<Integer> picked = new ArrayList<Integer>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                Object value = date == -1 ? null : rows.get(i)[date];
+                long day = value instanceof Number ? ((Number) value).longValue() : 0;
+                if (date == -1 || (day >= slice.fromDate && day <= slice.toDate)) {
+                    picked.add(i);
+                }
+            }
+            if (sortColumns.length > 0) {
+                final boolean[] descending = slice.mDescending;
+                // Stable, so ties keep date order, as the index SQLite reads them by would
+                Collections.sort(picked, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer lhs, Integer rhs) {
+                        for (int i = 0; i < sortColumns.length; i++) {
+                            int order = compareValues(rows.get(lhs)[sortColumns[i]],
+                                    rows.get(rhs)[sortColumns[i]]);
+                            if (order != 0) {
+                                return descending[i] ? -order : order;
+                            }
+                        }
+                        return 0;
+                    }
+                });
+            }
+            if (slice.limit > 0 && picked.size() > slice.limit) {
+                picked = picked.subList(0, slice.limit);
+            }
+
+            List<Object[]> sliceRows = new ArrayList<Object[]>(picked.size());
+            List<String[]> sliceStrings = new ArrayList<String[]>(picked.size());
+            for (int row : picked) {
+                Object[] values = new Object[sources.length];
+                String[] text = new String[sources.length];
+                for (int i = 0; i < sources.length; i++) {
+                    values[i] = rows.get(row)[sources[i]];
+                    text[i] = strings.get(row)[sources[i]];
+                }
+                sliceRows.add(values);
+                sliceStrings.add(text);
+            }
+            return new SnapshotCursor(new Snapshot(slice.columns, sliceRows, sliceStrings));
+        }
+
+        private static int[] indexesOf(List<String> names, String[] columns) {
+            int[] indexes = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                indexes[i] = names.indexOf(columns[i]);
+                if (indexes[i] == -1) {
+                    return null;
+                }
+            }
+            return indexes;
+        }
+
+        /**
+         * Orders two values as SQLite does: nulls, then numbers, then text, then blobs.
+         */
+        private static int compareValues(Object lhs, Object rhs) {
+            int lhsClass = storageClass(lhs);
+            int rhsClass = storageClass(rhs);
+            if (lhsClass != rhsClass) {
+                return lhsClass < rhsClass ? -1 : 1;
+            } else if (lhs instanceof Number) {
+                return Double.compare(((Number) lhs).doubleValue(), ((Number) rhs).doubleValue());
+            } else if (lhs instanceof String) {
+                return ((String) lhs).compareTo((String) rhs);
+            }
+            return 0;
+        }
+
+        private static int storageClass(Object value) {
+            if (value == null) {
+                return 0;
+            } else if (value instanceof Number) {
+                return 1;
+            } else if (value instanceof String) {
+                return 2;
+            }
+            return 3;
+        }
+    }
+
+    /**
+     * Reads a slice of a snapshot.
+     */
+    private static final class SnapshotCursor extends AbstractCursor {
+        private final Snapshot mSnapshot;
+
+        SnapshotCursor(Snapshot snapshot) {
+            mSnapshot = snapshot;
+        }
+
+        private Object get(int column) {
+            checkPosition();
+            return mSnapshot.rows.get(getPosition())[column];
+        }
+
+        private Number getNumber(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return 0;
+            }
+            return value instanceof Number ? (Number) value : Double.valueOf(value.toString());
+        }
+
+        @Override
+        public int getCount() {
+            return mSnapshot.rows.size();
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mSnapshot.columns;
+        }
+
+        @Override
+        public String getString(int column) {
+            checkPosition();
+            return mSnapshot.strings.get(getPosition())[column];
+        }
+
+        @Override
+        public short getShort(int column) {
+            return getNumber(column).shortValue();
+        }
+
+        @Override
+        public int getInt(int column) {
+            return getNumber(column).intValue();
+        }
+
+        @Override
+        public long getLong(int column) {
+            return getNumber(column).longValue();
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return getNumber(column).floatValue();
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return getNumber(column).doubleValue();
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return (byte[]) get(column);
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return FIELD_TYPE_NULL;
+            } else if (value instanceof Long) {
+                return FIELD_TYPE_INTEGER;
+            } else if (value instanceof Double) {
+                return FIELD_TYPE_FLOAT;
+            } else if (value instanceof byte[]) {
+                return FIELD_TYPE_BLOB;
+            }
+            return FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+    }
+
+    private final LruCache<String, Snapshot> mSnapshots;
+    // Bumped on every write, so a read that overlapped one can tell
+    private int mGeneration;
+
+    ForecastCache(int maxRows) {
+        mSnapshots = new LruCache<String, Snapshot>(maxRows) {
+            @Override
+            protected int sizeOf(String key, Snapshot snapshot) {
+                // An empty forecast still takes a slot
+                return Math.max(1, snapshot.rows.size());
+            }
+        };
+    }
+
+    /**
+     * @return the key of a location's forecast from startDate on, 0 for all of it
+     */
+    static String keyFor(String locationId, long startDate) {
+        return locationId + '|' + startDate;
+    }
+
+    /**
+     * @return the slice of the forecast, or null if it isn't cached
+     */
+    Cursor get(String key, Slice slice) {
+        Snapshot snapshot = mSnapshots.get(key);
+        return snapshot == null ? null : snapshot.newCursor(slice);
+    }
+
+    /**
+     * @return the generation to hand {@link #put} along with what is read from now on
+     */
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Reads the cursor through and closes it, and keeps its rows unless a write committed since
+     * the generation was taken.
+     *
+     * @return the slice of the rows, to serve in the cursor's place
+     */
+    Cursor put(String key, int generation, Cursor cursor, Slice slice) {
+        Snapshot snapshot;
+        try {
+            snapshot = read(cursor);
+        } finally {
+            cursor.close();
+        }
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mSnapshots.put(key, snapshot);
+            }
+        }
+        return snapshot.newCursor(slice);
+    }
+
+    private static Snapshot read(Cursor cursor) {
+        String[] columns = cursor.getColumnNames();
+        List<Object[]> rows = new ArrayList<Object[]>(cursor.getCount());
+        List<String[]> strings = new ArrayList<String[]>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            Object[] row = new Object[columns.length];
+            String[] rowStrings = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        row[i] = cursor.getString(i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[i] = cursor.getBlob(i);
+                        break;
+                    default:
+                        row[i] = null;
+                }
+                if (!(row[i] instanceof byte[])) {
+                    rowStrings[i] = cursor.getString(i);
+                }
+            }
+            rows.add(row);
+            strings.add(rowStrings);
+        }
+        return new Snapshot(columns, rows, strings);
+    }
+
+    /**
+     * Forgets everything, once a write has committed.
+     */
+    void invalidate() {
+        synchronized (this) {
+            mGeneration++;
+            mSnapshots.evictAll();
+        }
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, "Invalidated: " + this);
+        }
+    }
+
+    /**
+     * @return how many reads were served from memory
+     */
+    int getHitCount() {
+        return mSnapshots.hitCount();
+    }
+
+    /**
+     * @return how many reads had to query the database
+     */
+    int getMissCount() {
+        return mSnapshots.missCount();
+    }
+
+    @Override
+    public String toString() {
+        return getHitCount() + " hits, " + getMissCount() + " misses";
+    }
+}
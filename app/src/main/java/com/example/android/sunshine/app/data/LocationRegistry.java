@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An in-process map from location setting to the location table's row, so that resolving a
+ * location doesn't cost a provider query every time.
+ *
+ * It is read from the table on first use, and the {@link WeatherProvider} keeps it coherent: a
+ * location it inserts is added, and any other change to the table (an update, a delete) empties
+ * it, to be read again on next use.  Changes are passed on once committed, so a reader on
+ * another thread never resolves a setting to a row it can't see yet.  Writes that bypass the
+ * provider go unseen, so a setting missing from the registry should be looked up the slow way
+ * rather than taken as absent.
+ *
+ * The table is read without holding the registry's lock, so a provider writing inside a
+ * transaction never waits on a reader waiting on that transaction.  A read that overlapped a
+ * change is thrown away.
+ */
+public final class LocationRegistry {
+
+    /**
+     * A row of the location table.
+     */
+    public static final class Location {
+        public final long id;
+        public final String locationSetting;
+        // OWM's id for the city, or 0 if it isn't known yet
+        public final long cityId;
+
+        Location(long id, String locationSetting, long cityId) {
+            this.id = id;
+            this.locationSetting = locationSetting;
+            this.cityId = cityId;
+        }
+    }
+
+    private static final String[] LOCATION_PROJECTION = new String[]{
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_ID
+    };
+
+    private static final LocationRegistry sInstance = new LocationRegistry();
+
+    // Null while cold
+    private Map<String, Location> mLocations;
+    // Bumped on every change, so a read of the table that overlapped one can tell
+    private int mGeneration;
+    private int mWarmCount;
+
+    LocationRegistry() {
+    }
+
+    public static LocationRegistry getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @return the stored location for the setting, or null if the registry doesn't know it
+     */
+    public Location get(Context context, String locationSetting) {
+        synchronized (this) {
+            if (mLocations != null) {
+                return mLocations.get(locationSetting);
+            }
+        }
+        return getAll(context).get(locationSetting);
+    }
+
+    /**
+     * @return the stored location with the row id, or null if the registry doesn't know it
+     */
+    public Location getById(Context context, long id) {
+        synchronized (this) {
+            if (mLocations != null) {
+                return findById(mLocations, id);
+            }
+        }
+        return findById(getAll(context), id);
+    }
+
+    private static Location findById(Map<String, Location> locations, long id) {
+        for (Location location : locations.values()) {
+            if (location.id == id) {
+                return location;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return every stored location, by location setting.  The map is a snapshot.
+     */
+    public Map<String, Location> getAll(Context context) {
+        int generation;
+        synchronized (this) {
+            if (mLocations != null) {
+                return Collections.unmodifiableMap(new HashMap<String, Location>(mLocations));
+            }
+            generation = mGeneration;
+        }
+
+        Map<String, Location> locations = readTable(context);
+        synchronized (this) {
+            if (mLocations == null && generation == mGeneration) {
+                mLocations = locations;
+                mWarmCount++;
+            }
+        }
+        return Collections.unmodifiableMap(locations);
+    }
+
+    private static Map<String, Location> readTable(Context context) {
+        Map<String, Location> locations = new HashMap<String, Location>();
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI, LOCATION_PROJECTION, null, null, null);
+        if (cursor == null) {
+            return locations;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                // A null city id reads as 0, i.e. not resolved yet
+                String locationSetting = cursor.getString(1);
+                locations.put(locationSetting,
+                        new Location(cursor.getLong(0), locationSetting, cursor.getLong(2)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locations;
+    }
+
+    /**
+     * @return how many times the table has been read, for tests and benchmarks
+     */
+    public synchronized int getWarmCount() {
+        return mWarmCount;
+    }
+
+    synchronized void onInserted(Location location) {
+        mGeneration++;
+        if (mLocations != null) {
+            mLocations.put(location.locationSetting, location);
+        }
+    }
+
+    /**
+     * Forgets everything; the table is read again on next use.
+     */
+    public synchronized void invalidate() {
+        mGeneration++;
+        mLocations = null;
+    }
+}
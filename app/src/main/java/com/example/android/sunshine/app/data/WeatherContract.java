@@ -43,12 +43,20 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HOURLY = "hourly";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
+        return normalizeDate(startDate, new Time());
+    }
+
+    /**
+     * As {@link #normalizeDate(long)}, but works in the given Time, so that normalizing many
+     * dates in a row allocates nothing.  The Time's previous contents are overwritten.
+     */
+    public static long normalizeDate(long startDate, Time time) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
         time.set(startDate);
         int julianDay = Time.getJulianDay(startDate, time.gmtoff);
         return time.setJulianDay(julianDay);
@@ -81,6 +89,11 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // OpenWeatherMap's id for the city the location setting resolved to, once known.  Several
+        // location settings (e.g. neighbouring postal codes) can resolve to the same city, and
+        // are then fetched with a single request.
+        public static final String COLUMN_CITY_ID = "city_id";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -99,6 +112,15 @@ public class WeatherContract {
 
         public static final String TABLE_NAME = "weather";
 
+        // Sub-paths of a location's weather: its current day, and a range of its days
+        public static final String PATH_TODAY = "today";
+        public static final String PATH_RANGE = "range";
+
+        // Query parameters of a range
+        private static final String PARAM_START = "start";
+        private static final String PARAM_END = "end";
+        private static final String PARAM_LIMIT = "limit";
+
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
@@ -149,6 +171,36 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /**
+         * @return the uri of the location's current day: the first day stored from now on, a
+         * single row, so a location whose today isn't stored yet shows its next day, as its
+         * list does
+         */
+        public static Uri buildWeatherLocationToday(String locationSetting, long now) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(PATH_TODAY)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(now)))
+                    .build();
+        }
+
+        /**
+         * @param endDate the last day wanted, or 0 for every day from the start on
+         * @param limit   the most days wanted, or 0 for all of them
+         * @return the uri of the location's days from the start date on, in date order
+         */
+        public static Uri buildWeatherLocationWithRange(String locationSetting, long startDate,
+                                                        long endDate, int limit) {
+            Uri.Builder builder = CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_RANGE)
+                    .appendQueryParameter(PARAM_START, Long.toString(normalizeDate(startDate)));
+            if (endDate > 0) {
+                builder.appendQueryParameter(PARAM_END, Long.toString(normalizeDate(endDate)));
+            }
+            if (limit > 0) {
+                builder.appendQueryParameter(PARAM_LIMIT, Integer.toString(limit));
+            }
+            return builder.build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -164,5 +216,104 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static long getRangeStartFromUri(Uri uri) {
+            return getLongParameter(uri, PARAM_START);
+        }
+
+        /**
+         * @return the range's last day, or 0 if it has no end
+         */
+        public static long getRangeEndFromUri(Uri uri) {
+            return getLongParameter(uri, PARAM_END);
+        }
+
+        /**
+         * @return the most days the range wants, or 0 for all of them
+         */
+        public static int getRangeLimitFromUri(Uri uri) {
+            return (int) getLongParameter(uri, PARAM_LIMIT);
+        }
+
+        private static long getLongParameter(Uri uri, String name) {
+            String value = uri.getQueryParameter(name);
+            if (null != value && value.length() > 0)
+                return Long.parseLong(value);
+            else
+                return 0;
+        }
+    }
+
+    /* Inner class that defines the table contents of the hourly (3-hour) forecast table */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Every value is stored as an integer, so a row packs into a few bytes per column.  The
+        // scaled columns hold the value multiplied by their scale; use decode() to read them.
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the forecast period, in seconds since the epoch (UTC)
+        public static final String COLUMN_TIME = "time";
+        // Weather id as returned by API, to identify the icon and description
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Temperature in hundredths of a degree
+        public static final String COLUMN_TEMP = "temp";
+        // Humidity in whole percent
+        public static final String COLUMN_HUMIDITY = "humidity";
+        // Pressure in tenths of a hPa
+        public static final String COLUMN_PRESSURE = "pressure";
+        // Wind speed in hundredths of the API's unit
+        public static final String COLUMN_WIND_SPEED = "wind";
+        // Meteorological degrees, whole
+        public static final String COLUMN_DEGREES = "degrees";
+
+        public static final int TEMP_SCALE = 100;
+        public static final int PRESSURE_SCALE = 10;
+        public static final int WIND_SPEED_SCALE = 100;
+
+        public static long encode(double value, int scale) {
+            return Math.round(value * scale);
+        }
+
+        public static double decode(long value, int scale) {
+            return (double) value / scale;
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /**
+         * @param startTimeMillis the first period wanted is the one that contains this time
+         */
+        public static Uri buildHourlyLocationWithStartTime(String locationSetting,
+                                                           long startTimeMillis) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_TIME, Long.toString(startTimeMillis / 1000))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the start time in the uri, in seconds, or 0 if it has none
+         */
+        public static long getStartTimeFromUri(Uri uri) {
+            String timeString = uri.getQueryParameter(COLUMN_TIME);
+            if (null != timeString && timeString.length() > 0)
+                return Long.parseLong(timeString);
+            else
+                return 0;
+        }
     }
 }
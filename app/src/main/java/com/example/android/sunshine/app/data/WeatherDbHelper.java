@@ -15,10 +15,17 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -26,29 +33,93 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add a
+    // step from the version before to migrate().
+    static final int DATABASE_VERSION = 6;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // The oldest version migrate() knows how to bring up to date
+    static final int OLDEST_MIGRATED_VERSION = 2;
+
+    // Pages the write-ahead log may hold before a commit stops to copy them back into the
+    // database.  SQLite's own default, well above what a sync writes: syncs are checkpointed
+    // after their commit (see checkpoint()), this only bounds the log between them.
+    static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * For tests, to open a database other than the app's.
+     */
+    WeatherDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+    }
+
+    /**
+     * On Jelly Bean and up the database is opened in write-ahead-log mode, with a pool of read
+     * connections: the lists, the widgets, the wearable and Muzei then read the last committed
+     * forecast while a sync's transaction is open, rather than waiting for it.  Older releases
+     * keep the rollback journal, their connection pool has no concurrent readers.
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        if (sqLiteDatabase.enableWriteAheadLogging()) {
+            DatabaseUtils.longForQuery(sqLiteDatabase,
+                    "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES, null);
+        }
+    }
+
+    /**
+     * Copies what the write-ahead log holds back into the database, without waiting on readers:
+     * pages a reader still needs are left for the next checkpoint.  The provider runs this after
+     * each batch commits, on the writer's thread, so neither the readers nor the next sync's
+     * commit pay for it.  Does nothing without write-ahead logging.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    static void checkpoint(SQLiteDatabase sqLiteDatabase) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                || !sqLiteDatabase.isWriteAheadLoggingEnabled()) {
+            return;
+        }
+        Cursor cursor = sqLiteDatabase.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            // busy, pages in the log, pages copied back
+            if (cursor.moveToFirst()) {
+                Log.d(LOG_TAG, "Checkpointed " + cursor.getInt(2) + " of " + cursor.getInt(1)
+                        + " pages");
+            }
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
         // Create a table to hold locations.  A location consists of the string supplied in the
-        // location setting, the city name, and the latitude and longitude
+        // location setting, the city name, the latitude and longitude, and the city's id at OWM
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
                 LocationEntry._ID + " INTEGER PRIMARY KEY," +
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_CITY_ID + " INTEGER " +
                 " );";
 
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        createWeatherTable(sqLiteDatabase, WeatherEntry.TABLE_NAME);
+        createHourlyTable(sqLiteDatabase);
+        createIndexes(sqLiteDatabase);
+    }
+
+    private static void createWeatherTable(SQLiteDatabase sqLiteDatabase, String tableName) {
+        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + tableName + " (" +
                 // Why AutoIncrement here, and not above?
                 // Unique keys will be auto-generated in either case.  But for weather
                 // forecasting, it's reasonable to assume the user will want information
@@ -75,24 +146,135 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
 
                 // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
+                // per location, it's created a UNIQUE constraint.  A second row for the same
+                // day is refused: the provider updates the stored one in place instead, so the
+                // day keeps its _id across syncs (see WeatherUpserter).
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
-
-        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+                WeatherEntry.COLUMN_LOC_KEY + "));";
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
     }
 
+    private static void createHourlyTable(SQLiteDatabase sqLiteDatabase) {
+        // The 3-hour forecast: some 40 rows per location, so every column is an integer (see
+        // HourlyEntry for the scales) and the plain rowid is the key.
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry._ID + " INTEGER PRIMARY KEY," +
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TIME + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TEMP + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
+
+                " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                // One row per period per location.  Location first: the index SQLite builds
+                // for the constraint then serves "this location from this time on" range scans.
+                " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                HourlyEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+    }
+
+    /**
+     * Indexes for the provider's hot queries, beyond those SQLite builds for the constraints.
+     * TestQueryPlans checks that every one of those queries finds an index.
+     */
+    private static void createIndexes(SQLiteDatabase sqLiteDatabase) {
+        // A location's days from a date on, in date order, for the lists, the widgets and the
+        // sync's hashes of the stored days.  The unique (date, location_id) index leads with
+        // the wrong column for them; it still serves single days and the pruning of past days.
+        sqLiteDatabase.execSQL("CREATE INDEX " + WeatherEntry.TABLE_NAME + "_location_date ON " +
+                WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ")");
+        // The pruning of past periods, across every location
+        sqLiteDatabase.execSQL("CREATE INDEX " + HourlyEntry.TABLE_NAME + "_time ON " +
+                HourlyEntry.TABLE_NAME + " (" + HourlyEntry.COLUMN_TIME + ")");
+    }
+
+    /**
+     * Brings the database up to date one version at a time, keeping the cached forecasts and
+     * the location ids, so that an app update doesn't start every device from an empty list
+     * and a sync of everything at once.
+     *
+     * SQLiteOpenHelper runs this in a transaction, so the steps apply as a whole or not at all.
+     * A database older than {@link #OLDEST_MIGRATED_VERSION}, or one a step fails on, is
+     * rebuilt empty instead: it is only a cache, and losing it beats failing to open it.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (oldVersion >= OLDEST_MIGRATED_VERSION) {
+            try {
+                for (int version = oldVersion; version < newVersion; version++) {
+                    migrate(sqLiteDatabase, version);
+                }
+                return;
+            } catch (SQLException e) {
+                Log.e(LOG_TAG, "Could not migrate from version " + oldVersion + ", starting over",
+                        e);
+            }
+        }
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME + "_new");
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
+
+    /**
+     * Brings a database at the given version to the next one.  A schema change adds a case
+     * here, and a test of it from the version before.
+     */
+    static void migrate(SQLiteDatabase sqLiteDatabase, int fromVersion) {
+        switch (fromVersion) {
+            case 2:
+                // The city id each location setting resolved to
+                sqLiteDatabase.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                        LocationEntry.COLUMN_CITY_ID + " INTEGER");
+                break;
+            case 3:
+                createHourlyTable(sqLiteDatabase);
+                break;
+            case 4:
+                rebuildWeatherTableWithoutReplace(sqLiteDatabase);
+                break;
+            case 5:
+                createIndexes(sqLiteDatabase);
+                break;
+            default:
+                throw new SQLException("No migration from version " + fromVersion);
+        }
+    }
+
+    /**
+     * Version 5 drops the weather table's ON CONFLICT REPLACE.  SQLite can't alter a
+     * constraint, so the table is built anew and the rows copied over, their _ids and the
+     * AUTOINCREMENT counter with them.  onUpgrade already runs in a transaction.
+     */
+    private static void rebuildWeatherTableWithoutReplace(SQLiteDatabase sqLiteDatabase) {
+        String newTable = WeatherEntry.TABLE_NAME + "_new";
+        createWeatherTable(sqLiteDatabase, newTable);
+        String columns = WeatherEntry._ID + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherEntry.COLUMN_DEGREES;
+        sqLiteDatabase.execSQL("INSERT INTO " + newTable + " (" + columns + ") SELECT " +
+                columns + " FROM " + WeatherEntry.TABLE_NAME);
+        // So ids of rows deleted before the upgrade aren't handed out again either
+        sqLiteDatabase.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + newTable + "'");
+        sqLiteDatabase.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT '" + newTable +
+                "', seq FROM sqlite_sequence WHERE name = '" + WeatherEntry.TABLE_NAME + "'");
+        sqLiteDatabase.execSQL("DROP TABLE " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("ALTER TABLE " + newTable + " RENAME TO " + WeatherEntry.TABLE_NAME);
+    }
 }
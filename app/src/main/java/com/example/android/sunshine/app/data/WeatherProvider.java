@@ -17,25 +17,72 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private final LocationRegistry mLocationRegistry = LocationRegistry.getInstance();
+    // Null where it isn't supported
+    private ForecastCache mForecastCache;
+    // Off only while a test measures the database's own reads
+    private volatile boolean mForecastCacheEnabled = true;
+
+    // The batch running on this thread, if any
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+    // Set while explainQuery runs on this thread
+    private final ThreadLocal<Boolean> mExplaining = new ThreadLocal<Boolean>();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_TODAY = 103;
+    static final int WEATHER_RANGE = 104;
     static final int LOCATION = 300;
+    static final int HOURLY = 400;
+    static final int HOURLY_WITH_LOCATION = 401;
+
+    // The columns bulkInsert binds, by position, for each table; see WeatherUpserter for weather
+    private static final String[] HOURLY_INSERT_COLUMNS = {
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY,
+            WeatherContract.HourlyEntry.COLUMN_TIME,
+            WeatherContract.HourlyEntry.COLUMN_WEATHER_ID,
+            WeatherContract.HourlyEntry.COLUMN_TEMP,
+            WeatherContract.HourlyEntry.COLUMN_HUMIDITY,
+            WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+            WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+            WeatherContract.HourlyEntry.COLUMN_DEGREES
+    };
+    private static final String[] LOCATION_INSERT_COLUMNS = {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_CITY_ID
+    };
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sWeatherQueryBuilder;
+    private static final SQLiteQueryBuilder sLocationQueryBuilder;
+    private static final SQLiteQueryBuilder sHourlyQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,6 +96,23 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        sWeatherQueryBuilder = new SQLiteQueryBuilder();
+        sWeatherQueryBuilder.setTables(WeatherContract.WeatherEntry.TABLE_NAME);
+        sLocationQueryBuilder = new SQLiteQueryBuilder();
+        sLocationQueryBuilder.setTables(WeatherContract.LocationEntry.TABLE_NAME);
+        sHourlyQueryBuilder = new SQLiteQueryBuilder();
+        sHourlyQueryBuilder.setTables(WeatherContract.HourlyEntry.TABLE_NAME);
     }
 
     //location.location_setting = ?
@@ -62,48 +126,186 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
+    //location.location_setting = ? AND date >= ? AND date <= ?
+    private static final String sLocationSettingWithDateRangeSelection =
+            sLocationSettingWithStartDateSelection + "AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ? ";
+
     //location.location_setting = ? AND date = ?
     private static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //weather.location_id = ?
+    private static final String sWeatherLocationIdSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //weather.location_id = ? AND date >= ?
+    private static final String sWeatherLocationIdWithStartDateSelection =
+            sWeatherLocationIdSelection + "AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    //weather.location_id = ? AND date >= ? AND date <= ?
+    private static final String sWeatherLocationIdWithDateRangeSelection =
+            sWeatherLocationIdWithStartDateSelection + "AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ? ";
+
+    //weather.location_id = ? AND date = ?
+    private static final String sWeatherLocationIdAndDaySelection =
+            sWeatherLocationIdSelection + "AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    private static final String sWeatherDefaultSortOrder =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    /**
+     * @return the location's id as a selection argument, or the setting itself if the registry
+     * doesn't know it, in which case the setting selections must be used
+     */
+    private String resolveLocation(String locationSetting) {
+        LocationRegistry.Location location = mLocationRegistry.get(getContext(), locationSetting);
+        return location == null ? null : Long.toString(location.id);
+    }
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        // Filtering on the weather table's own column spares SQLite the lookup by setting
+        String locationId = resolveLocation(locationSetting);
 
         String[] selectionArgs;
         String selection;
 
         if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
+            selection = locationId != null ? sWeatherLocationIdSelection : sLocationSettingSelection;
+            selectionArgs = new String[]{locationId != null ? locationId : locationSetting};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+            selectionArgs = new String[]{locationId != null ? locationId : locationSetting,
+                    Long.toString(startDate)};
+            selection = locationId != null
+                    ? sWeatherLocationIdWithStartDateSelection
+                    : sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return query(sWeatherByLocationSettingQueryBuilder,
                 projection,
                 selection,
                 selectionArgs,
-                null,
-                null,
                 sortOrder
         );
     }
 
+    /**
+     * Reads a location's current day or a range of its days, with the range's limit applied by
+     * SQLite, so that a reader wanting one day is handed one row.
+     */
+    private Cursor getWeatherByLocationSettingInRange(
+            Uri uri, int match, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long startDate;
+        long endDate;
+        int limit;
+        if (match == WEATHER_TODAY) {
+            startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+            endDate = 0;
+            limit = 1;
+            // The first day from today on, whatever order was asked for
+            sortOrder = sWeatherDefaultSortOrder;
+        } else {
+            startDate = WeatherContract.WeatherEntry.getRangeStartFromUri(uri);
+            endDate = WeatherContract.WeatherEntry.getRangeEndFromUri(uri);
+            limit = WeatherContract.WeatherEntry.getRangeLimitFromUri(uri);
+        }
+        String locationId = resolveLocation(locationSetting);
+        String location = locationId != null ? locationId : locationSetting;
+
+        String[] selectionArgs;
+        String selection;
+
+        if (endDate == 0) {
+            selection = locationId != null
+                    ? sWeatherLocationIdWithStartDateSelection
+                    : sLocationSettingWithStartDateSelection;
+            selectionArgs = new String[]{location, Long.toString(startDate)};
+        } else {
+            selection = locationId != null
+                    ? sWeatherLocationIdWithDateRangeSelection
+                    : sLocationSettingWithDateRangeSelection;
+            selectionArgs = new String[]{location, Long.toString(startDate),
+                    Long.toString(endDate)};
+        }
+
+        return query(sWeatherByLocationSettingQueryBuilder,
+                projection,
+                selection,
+                selectionArgs,
+                // A limit keeps the first days, so they must come in order
+                sortOrder == null ? sWeatherDefaultSortOrder : sortOrder,
+                limit > 0 ? Integer.toString(limit) : null
+        );
+    }
+
+    //location.location_setting = ? AND time >= ?
+    private static final String sLocationSettingWithStartTimeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " >= ? ";
+
+    //hourly.location_id = ?
+    private static final String sHourlyLocationIdSelection =
+            WeatherContract.HourlyEntry.TABLE_NAME +
+                    "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //hourly.location_id = ? AND time >= ?
+    private static final String sHourlyLocationIdWithStartTimeSelection =
+            sHourlyLocationIdSelection + "AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " >= ? ";
+
+    private static final String sHourlyDefaultSortOrder =
+            WeatherContract.HourlyEntry.COLUMN_TIME + " ASC";
+
+    // A 3-hour period is still current until it ends
+    private static final long HOURLY_PERIOD_SECONDS = 3 * 60 * 60;
+
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long startTime = WeatherContract.HourlyEntry.getStartTimeFromUri(uri);
+        String locationId = resolveLocation(locationSetting);
+
+        String[] selectionArgs;
+        String selection;
+
+        if (startTime == 0) {
+            selection = locationId != null ? sHourlyLocationIdSelection : sLocationSettingSelection;
+            selectionArgs = new String[]{locationId != null ? locationId : locationSetting};
+        } else {
+            selection = locationId != null
+                    ? sHourlyLocationIdWithStartTimeSelection
+                    : sLocationSettingWithStartTimeSelection;
+            selectionArgs = new String[]{locationId != null ? locationId : locationSetting,
+                    Long.toString(startTime - HOURLY_PERIOD_SECONDS + 1)};
+        }
+
+        return query(sHourlyByLocationSettingQueryBuilder,
+                projection,
+                selection,
+                selectionArgs,
+                sortOrder == null ? sHourlyDefaultSortOrder : sortOrder
+        );
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        String locationId = resolveLocation(locationSetting);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return query(sWeatherByLocationSettingQueryBuilder,
                 projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
-                null,
-                null,
+                locationId != null ? sWeatherLocationIdAndDaySelection : sLocationSettingAndDaySelection,
+                new String[]{locationId != null ? locationId : locationSetting, Long.toString(date)},
                 sortOrder
         );
     }
@@ -128,8 +330,15 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/"
+                + WeatherContract.WeatherEntry.PATH_TODAY, WEATHER_TODAY);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/"
+                + WeatherContract.WeatherEntry.PATH_RANGE, WEATHER_RANGE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
         return matcher;
     }
 
@@ -140,6 +349,12 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        // Whatever it held may predate this database
+        mLocationRegistry.invalidate();
+        // Copying a forecast's rows needs each value's type, which cursors give from Honeycomb
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            mForecastCache = new ForecastCache(ForecastCache.DEFAULT_MAX_ROWS);
+        }
         return true;
     }
 
@@ -157,13 +372,18 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             // Student: Uncomment and fill out these two cases
             case WEATHER_WITH_LOCATION_AND_DATE:
+            case WEATHER_TODAY:
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
+            case WEATHER_RANGE:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -175,52 +395,198 @@ public class WeatherProvider extends ContentProvider {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
-            // "weather/*/*"
-            case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+        Uri notificationUri = uri;
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            // "weather/*/today"
+            case WEATHER_TODAY:
+            // "weather/*/range"
+            case WEATHER_RANGE: {
+                retCursor = getForecast(uri, match, projection, sortOrder);
+                // Which days these are depends on every day of the location, not on one
+                notificationUri = WeatherContract.WeatherEntry.buildWeatherLocation(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
                 break;
             }
+            // "weather/*/*"
+            case WEATHER_WITH_LOCATION_AND_DATE:
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getForecast(uri, match, projection, sortOrder);
                 break;
             }
             // "weather"
             case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
+                retCursor = query(sWeatherQueryBuilder, projection, selection, selectionArgs,
+                        sortOrder);
                 break;
             }
             // "location"
             case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.LocationEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
+                retCursor = query(sLocationQueryBuilder, projection, selection, selectionArgs,
+                        sortOrder);
+                break;
+            }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = query(sHourlyQueryBuilder, projection, selection, selectionArgs,
+                        sortOrder);
                 break;
             }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return retCursor;
     }
 
+    /**
+     * Serves a location's forecast from the cache, or reads it and keeps it there.  Reads
+     * inside a batch see its uncommitted rows, and explained ones return a plan, so neither is
+     * cached; nor are reads the cache can't serve, or of a location the registry doesn't know.
+     */
+    private Cursor getForecast(Uri uri, int match, String[] projection, String sortOrder) {
+        String locationId = null;
+        ForecastCache.Slice slice = null;
+        long startDate = 0;
+        if (mForecastCache != null && mForecastCacheEnabled && mBatch.get() == null
+                && mExplaining.get() == null) {
+            locationId = resolveLocation(
+                    WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+            long endDate = Long.MAX_VALUE;
+            int limit = 0;
+            switch (match) {
+                case WEATHER_WITH_LOCATION_AND_DATE:
+                    startDate = WeatherContract.WeatherEntry.getDateFromUri(uri);
+                    endDate = startDate;
+                    break;
+                case WEATHER_TODAY:
+                    startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+                    limit = 1;
+                    sortOrder = sWeatherDefaultSortOrder;
+                    break;
+                case WEATHER_RANGE:
+                    startDate = WeatherContract.WeatherEntry.getRangeStartFromUri(uri);
+                    long rangeEnd = WeatherContract.WeatherEntry.getRangeEndFromUri(uri);
+                    endDate = rangeEnd != 0 ? rangeEnd : Long.MAX_VALUE;
+                    limit = WeatherContract.WeatherEntry.getRangeLimitFromUri(uri);
+                    break;
+                default:
+                    startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+            }
+            slice = ForecastCache.Slice.of(projection, sortOrder, startDate, endDate, limit);
+        }
+
+        if (locationId != null && slice != null) {
+            // Every reader of the location's days from startDate on shares one snapshot
+            String key = ForecastCache.keyFor(locationId, startDate);
+            Cursor hit = mForecastCache.get(key, slice);
+            if (hit != null) {
+                return hit;
+            }
+            // Taken before the read, so a write that commits during it keeps it out
+            int generation = mForecastCache.getGeneration();
+            Cursor snapshot = query(sWeatherByLocationSettingQueryBuilder,
+                    ForecastCache.SNAPSHOT_PROJECTION,
+                    sWeatherLocationIdWithStartDateSelection,
+                    new String[]{locationId, Long.toString(startDate)},
+                    sWeatherDefaultSortOrder);
+            return mForecastCache.put(key, generation, snapshot, slice);
+        }
+
+        switch (match) {
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+            case WEATHER_TODAY:
+            case WEATHER_RANGE:
+                return getWeatherByLocationSettingInRange(uri, match, projection, sortOrder);
+            default:
+                return getWeatherByLocationSetting(uri, projection, sortOrder);
+        }
+    }
+
+    /**
+     * @return the forecast cache, for tests and benchmarks, or null where it isn't supported
+     */
+    ForecastCache getForecastCache() {
+        return mForecastCache;
+    }
+
+    /**
+     * Turns the forecast cache off, so that every forecast is read from the database, or back
+     * on; for the tests and benchmarks of the database's reads.
+     */
+    void setForecastCacheEnabled(boolean enabled) {
+        mForecastCacheEnabled = enabled;
+    }
+
+    /**
+     * @return the hits and misses of the forecast cache of this process's provider, for dumps
+     */
+    public static String getForecastCacheStats(Context context) {
+        ContentProviderClient client = context.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        if (client == null) {
+            return "no provider";
+        }
+        try {
+            ContentProvider provider = client.getLocalContentProvider();
+            if (!(provider instanceof WeatherProvider)) {
+                return "not in this process";
+            }
+            ForecastCache cache = ((WeatherProvider) provider).mForecastCache;
+            return cache == null ? "off" : cache.toString();
+        } finally {
+            client.release();
+        }
+    }
+
+    /**
+     * Runs a query, or while explainQuery is running on this thread, explains it instead.
+     */
+    private Cursor query(SQLiteQueryBuilder builder, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder) {
+        return query(builder, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * As {@link #query(SQLiteQueryBuilder, String[], String, String[], String)}, returning at
+     * most limit rows, or all of them if it is null.
+     */
+    @SuppressWarnings("deprecation")
+    private Cursor query(SQLiteQueryBuilder builder, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder, String limit) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        if (mExplaining.get() != null) {
+            // The overload without selection arguments is API 11
+            String sql = builder.buildQuery(projection, selection, null, null, null, sortOrder,
+                    limit);
+            return db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        }
+        return builder.query(db, projection, selection, selectionArgs, null, null, sortOrder,
+                limit);
+    }
+
+    /**
+     * Like {@link #query}, but returns SQLite's plan for the query rather than its rows, one row
+     * per step with the step's description in the "detail" column.  For the query plan tests.
+     */
+    Cursor explainQuery(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        mExplaining.set(Boolean.TRUE);
+        try {
+            return query(uri, projection, selection, selectionArgs, sortOrder);
+        } finally {
+            mExplaining.remove();
+        }
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
@@ -229,11 +595,17 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
+        ChangeSet changes = new ChangeSet();
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                Batch batch = mBatch.get();
+                long _id;
+                if (batch != null) {
+                    _id = upsertWeather(batch.getWeatherUpserter(db), values, changes);
+                } else {
+                    _id = upsertWeather(db, values, changes);
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
@@ -246,12 +618,26 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                onLocationInserted(_id, values);
+                changes.add(uri);
+                break;
+            }
+            case HOURLY: {
+                Batch batch = mBatch.get();
+                long _id = batch != null
+                        ? batch.getHourlyInserter(db).insert(values)
+                        : db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.addHourly(values.getAsLong(WeatherContract.HourlyEntry.COLUMN_LOC_KEY));
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChanges(changes);
         return returnUri;
     }
 
@@ -260,28 +646,95 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
-        // this makes delete all rows return the number of rows deleted
-        if ( null == selection ) selection = "1";
-        switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        ChangeSet changes = new ChangeSet();
+        // The rows are read for their locations and days in the delete's own transaction
+        db.beginTransaction();
+        try {
+            collectChanges(db, match, selection, selectionArgs, changes);
+            // this makes delete all rows return the number of rows deleted
+            if ( null == selection ) selection = "1";
+            switch (match) {
+                case WEATHER:
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                case LOCATION:
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                case HOURLY:
+                    rowsDeleted = db.delete(
+                            WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (match == LOCATION) {
+                onLocationsChanged();
+            }
+            notifyChanges(changes);
         }
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
+    /**
+     * Adds what a delete or update of the selected rows will change: the locations and days of
+     * the weather rows, the locations of the hourly rows, or the location table.  Without a
+     * selection every row goes, and so does the table's uri.
+     */
+    private static void collectChanges(SQLiteDatabase db, int match, String selection,
+                                       String[] selectionArgs, ChangeSet changes) {
+        if (selection == null || match == LOCATION) {
+            switch (match) {
+                case WEATHER:
+                    changes.add(WeatherContract.WeatherEntry.CONTENT_URI);
+                    break;
+                case LOCATION:
+                    changes.add(WeatherContract.LocationEntry.CONTENT_URI);
+                    break;
+                case HOURLY:
+                    changes.add(WeatherContract.HourlyEntry.CONTENT_URI);
+                    break;
+            }
+            return;
+        }
+        Cursor cursor;
+        switch (match) {
+            case WEATHER:
+                cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                        new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                                WeatherContract.WeatherEntry.COLUMN_DATE},
+                        selection, selectionArgs, null, null, null, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        changes.addWeatherDay(cursor.getLong(0), cursor.getLong(1));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                break;
+            case HOURLY:
+                cursor = db.query(true, WeatherContract.HourlyEntry.TABLE_NAME,
+                        new String[]{WeatherContract.HourlyEntry.COLUMN_LOC_KEY},
+                        selection, selectionArgs, null, null, null, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        changes.addHourly(cursor.getLong(0));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                break;
+        }
+    }
+
+    private static void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
             long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
@@ -295,51 +748,307 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
+        ChangeSet changes = new ChangeSet();
+        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)
+                || values.containsKey(WeatherContract.HourlyEntry.COLUMN_TIME)) {
+            // The rows move to locations and days of their own: the whole table changes
+            changes.add(uri);
+        }
 
-        switch (match) {
-            case WEATHER:
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        // The rows are read for their locations and days in the update's own transaction
+        db.beginTransaction();
+        try {
+            collectChanges(db, match, selection, selectionArgs, changes);
+            switch (match) {
+                case WEATHER:
+                    normalizeDate(values);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    break;
+                case LOCATION:
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    break;
+                case HOURLY:
+                    rowsUpdated = db.update(WeatherContract.HourlyEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (match == LOCATION) {
+                onLocationsChanged();
+            }
+            notifyChanges(changes);
         }
         return rowsUpdated;
     }
 
+    /**
+     * Inserts each table's rows in one transaction through statements compiled once, and tells
+     * the observers of each changed day or location once, after the commit, however many rows
+     * there were (see {@link ChangeSet}).  Weather rows update the row stored for the same location
+     * and day in place (see {@link WeatherUpserter}).
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        int returnCount;
+        ChangeSet changes = new ChangeSet();
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+                returnCount = bulkInsertWeather(db, values, changes);
+                break;
+            case HOURLY:
+                returnCount = bulkInsertHourly(db, values, changes);
+                break;
+            case LOCATION:
+                returnCount = bulkInsertLocations(db, values);
+                if (returnCount != 0) {
+                    changes.add(uri);
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                break;
             default:
                 return super.bulkInsert(uri, values);
         }
+        notifyChanges(changes);
+        return returnCount;
+    }
+
+    private int bulkInsertWeather(SQLiteDatabase db, ContentValues[] values, ChangeSet changes) {
+        int returnCount = 0;
+        db.beginTransaction();
+        WeatherUpserter upserter = new WeatherUpserter(db);
+        try {
+            for (ContentValues value : values) {
+                if (upsertWeather(upserter, value, changes) != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            upserter.close();
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    /**
+     * Stores a single weather row, outside of any batch.
+     *
+     * @return the row's id, or -1 if it failed
+     */
+    private static long upsertWeather(SQLiteDatabase db, ContentValues values,
+                                      ChangeSet changes) {
+        db.beginTransaction();
+        WeatherUpserter upserter = new WeatherUpserter(db);
+        try {
+            long _id = upsertWeather(upserter, values, changes);
+            db.setTransactionSuccessful();
+            return _id;
+        } finally {
+            upserter.close();
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Stores a weather row, and adds its day to the changes if it was written rather than
+     * found up to date.
+     *
+     * @return the row's id, or -1 if it failed
+     */
+    private static long upsertWeather(WeatherUpserter upserter, ContentValues values,
+                                      ChangeSet changes) {
+        long _id = upserter.upsert(values);
+        if (upserter.wroteLast()) {
+            changes.addWeatherDay(
+                    values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                    values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+        }
+        return _id;
+    }
+
+        private int bulkInsertHourly(SQLiteDatabase db, ContentValues[] values, ChangeSet changes) {
+        int returnCount = 0;
+        db.beginTransaction();
+        BulkInserter inserter = new BulkInserter(db, WeatherContract.HourlyEntry.TABLE_NAME,
+                HOURLY_INSERT_COLUMNS);
+        try {
+            for (ContentValues value : values) {
+                if (inserter.insert(value) != -1) {
+                    returnCount++;
+                    changes.addHourly(
+                            value.getAsLong(WeatherContract.HourlyEntry.COLUMN_LOC_KEY));
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    private int bulkInsertLocations(SQLiteDatabase db, ContentValues[] values) {
+        List<LocationRegistry.Location> inserted = new ArrayList<LocationRegistry.Location>();
+        db.beginTransaction();
+        BulkInserter inserter = new BulkInserter(db, WeatherContract.LocationEntry.TABLE_NAME,
+                LOCATION_INSERT_COLUMNS);
+        try {
+            for (ContentValues value : values) {
+                long _id = inserter.insert(value);
+                if (_id != -1) {
+                    inserted.add(toLocation(_id, value));
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            db.endTransaction();
+        }
+        // Only once committed: until then, readers on other threads can't see the rows
+        for (LocationRegistry.Location location : inserted) {
+            mLocationRegistry.onInserted(location);
+        }
+        return inserted.size();
+    }
+
+    private static LocationRegistry.Location toLocation(long _id, ContentValues values) {
+        Long cityId = values.getAsLong(WeatherContract.LocationEntry.COLUMN_CITY_ID);
+        return new LocationRegistry.Location(_id,
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING),
+                cityId == null ? 0 : cityId);
+    }
+
+    /**
+     * Adds an inserted location to the registry, or if a batch is running, once it commits, so
+     * that a reader on another thread never resolves a setting to a row it can't see yet.
+     */
+    private void onLocationInserted(long _id, ContentValues values) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.insertedLocations.add(toLocation(_id, values));
+        } else {
+            mLocationRegistry.onInserted(toLocation(_id, values));
+        }
+    }
+
+    /**
+     * Empties the registry, or if a batch is running, once it ends: emptied any earlier, it
+     * could be read again from the table as it was before the batch.
+     */
+    private void onLocationsChanged() {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.locationsChanged = true;
+        } else {
+            mLocationRegistry.invalidate();
+        }
+    }
+
+    /**
+     * What a batch holds until it ends: what it changed, to be notified once it commits, its
+     * changes to the locations, to be passed on to the registry then, and the inserts it
+     * compiled, reused by every row it inserts.
+     */
+    private static class Batch {
+        final ChangeSet changes = new ChangeSet();
+        final List<LocationRegistry.Location> insertedLocations =
+                new ArrayList<LocationRegistry.Location>();
+        boolean locationsChanged;
+        private WeatherUpserter mWeatherUpserter;
+        private BulkInserter mHourlyInserter;
+
+        WeatherUpserter getWeatherUpserter(SQLiteDatabase db) {
+            if (mWeatherUpserter == null) {
+                mWeatherUpserter = new WeatherUpserter(db);
+            }
+            return mWeatherUpserter;
+        }
+
+        BulkInserter getHourlyInserter(SQLiteDatabase db) {
+            if (mHourlyInserter == null) {
+                mHourlyInserter = new BulkInserter(db, WeatherContract.HourlyEntry.TABLE_NAME,
+                        HOURLY_INSERT_COLUMNS);
+            }
+            return mHourlyInserter;
+        }
+
+        void close() {
+            if (mWeatherUpserter != null) {
+                mWeatherUpserter.close();
+            }
+            if (mHourlyInserter != null) {
+                mHourlyInserter.close();
+            }
+        }
+    }
+
+    /**
+     * Applies the whole batch in one transaction, so a sync replaces its forecasts and prunes
+     * the expired rows as one change: readers see either the old forecast or the new one,
+     * never a mix.  The observers of each changed location or day are told once, after the
+     * commit, rather than once per operation, and weather and hourly rows are stored through
+     * statements compiled once per batch.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Batch batch = new Batch();
+        ContentProviderResult[] results;
+        mBatch.set(batch);
+        try {
+            db.beginTransaction();
+            try {
+                results = super.applyBatch(operations);
+                db.setTransactionSuccessful();
+            } finally {
+                batch.close();
+                db.endTransaction();
+            }
+        } finally {
+            mBatch.remove();
+        }
+        // Committed; a batch that rolled back left the registry as it was, and still right
+        if (batch.locationsChanged) {
+            mLocationRegistry.invalidate();
+        } else {
+            for (LocationRegistry.Location location : batch.insertedLocations) {
+                mLocationRegistry.onInserted(location);
+            }
+        }
+        notifyChanges(batch.changes);
+        // After the observers are told, so their reloads get going first
+        WeatherDbHelper.checkpoint(db);
+        return results;
+    }
+
+    /**
+     * Tells the observers of what changed, or if a batch is running, once it commits.  The
+     * cached forecasts go first, so the observers' reloads read the new rows.
+     */
+    private void notifyChanges(ChangeSet changes) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.changes.addAll(changes);
+        } else if (!changes.isEmpty()) {
+            // e.g. a sync's prune that found nothing past, which must not empty the cache
+            if (mForecastCache != null) {
+                mForecastCache.invalidate();
+            }
+            for (Uri uri : changes.toUris(getContext(), mLocationRegistry)) {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+        }
     }
 
     // You do not need to call this method. This is a method specifically to assist the testing
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Stores weather rows by updating the row already stored for the same location and day in
+ * place, or inserting one if there is none.  A day that comes back in every sync so keeps its
+ * _id, which the lists and the widget rely on to follow it, and a day that comes back unchanged
+ * isn't written at all.
+ *
+ * SQLite only gained an upsert of its own in 3.24, so this is a lookup on the (date,
+ * location_id) index followed by an UPDATE or an INSERT, each compiled once.  Like
+ * {@link BulkInserter}, it is made for one bulk insert or batch, and must be used inside a
+ * transaction so no other writer can slip in between the lookup and the write.
+ */
+class WeatherUpserter {
+    private static final String LOG_TAG = WeatherUpserter.class.getSimpleName();
+
+    // The columns bound, by position; the location and the date must come first
+    static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int COLUMN_LOC_KEY = 0;
+    private static final int COLUMN_DATE = 1;
+
+    // The stored day's _id, by location and date
+    static final String LOOKUP_SQL = "SELECT " + WeatherEntry._ID + " FROM "
+            + WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+            + WeatherEntry.COLUMN_DATE + " = ?";
+
+    private final SQLiteDatabase mDb;
+    private final BulkInserter mInserter;
+    private final SQLiteStatement mLookup;
+    private final SQLiteStatement mUpdate;
+    // How many rows the last UPDATE wrote; executeUpdateDelete is API 11
+    private final SQLiteStatement mChanges;
+    private boolean mWroteLast;
+    // For normalizing dates, reused by every row
+    private final Time mTime = new Time();
+
+    WeatherUpserter(SQLiteDatabase db) {
+        mDb = db;
+        mInserter = new BulkInserter(db, WeatherEntry.TABLE_NAME, COLUMNS);
+        mLookup = db.compileStatement(LOOKUP_SQL);
+
+        // UPDATE weather SET location_id = COALESCE(?1, location_id), ... WHERE _id = ?11
+        //         AND (location_id IS NOT COALESCE(?1, location_id) OR ...)
+        // The numbered parameters are bound once and used twice.  A missing value keeps the
+        // stored one, and a row whose every value is unchanged is left untouched.
+        StringBuilder set = new StringBuilder(256);
+        StringBuilder changed = new StringBuilder(256);
+        for (int i = 0; i < COLUMNS.length; i++) {
+            String value = "COALESCE(?" + (i + 1) + ", " + COLUMNS[i] + ")";
+            set.append(i > 0 ? ", " : "").append(COLUMNS[i]).append(" = ").append(value);
+            changed.append(i > 0 ? " OR " : "").append(COLUMNS[i]).append(" IS NOT ").append(value);
+        }
+        mUpdate = db.compileStatement("UPDATE " + WeatherEntry.TABLE_NAME + " SET " + set
+                + " WHERE " + WeatherEntry._ID + " = ?" + (COLUMNS.length + 1)
+                + " AND (" + changed + ")");
+        mChanges = db.compileStatement("SELECT changes()");
+    }
+
+    /**
+     * Stores one row, its date normalized to the start of its day.
+     *
+     * @return the row's id, whether it was inserted, updated or already up to date, or -1 if
+     * it failed, as {@link SQLiteDatabase#insert} would; {@link #wroteLast()} tells which
+     */
+    long upsert(ContentValues values) {
+        mWroteLast = false;
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null || !mInserter.bind(values)) {
+            // Not a row this can store; the slow path reports why
+            values = new ContentValues(values);
+            if (date != null) {
+                values.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(date, mTime));
+            }
+            long id = mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+            mWroteLast = id != -1;
+            return id;
+        }
+        long normalizedDate = WeatherContract.normalizeDate(date, mTime);
+
+        long id;
+        mLookup.bindLong(1, locationId);
+        mLookup.bindLong(2, normalizedDate);
+        try {
+            id = mLookup.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // No row for that day yet
+            mInserter.bindLong(COLUMN_DATE, normalizedDate);
+            long insertedId = mInserter.execute();
+            mWroteLast = insertedId != -1;
+            return insertedId;
+        }
+
+        mUpdate.clearBindings();
+        BulkInserter.bindValues(mUpdate, COLUMNS, values);
+        mUpdate.bindLong(COLUMN_LOC_KEY + 1, locationId);
+        mUpdate.bindLong(COLUMN_DATE + 1, normalizedDate);
+        mUpdate.bindLong(COLUMNS.length + 1, id);
+        try {
+            mUpdate.execute();
+            mWroteLast = mChanges.simpleQueryForLong() > 0;
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error updating " + WeatherEntry.TABLE_NAME + " row " + id, e);
+            return -1;
+        }
+        return id;
+    }
+
+    /**
+     * @return whether the last {@link #upsert} wrote its row, rather than find it up to date or
+     * fail, so that only the days it changed are reported
+     */
+    boolean wroteLast() {
+        return mWroteLast;
+    }
+
+    void close() {
+        mInserter.close();
+        mLookup.close();
+        mUpdate.close();
+        mChanges.close();
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.android.sunshine.app.net;
+
+import android.os.SystemClock;
+
+import com.squareup.okhttp.Dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers host lookups for a while, so requests that need a new connection don't also pay for
+ * a DNS round trip each time.  We only ever talk to a handful of hosts.
+ *
+ * The records' own TTLs aren't available here, so entries are only kept long enough to cover a
+ * sync and its fan-out, which follow each other within seconds.
+ */
+public class CachingDns implements Dns {
+    public static final long DEFAULT_TTL_MILLIS = 60 * 1000;
+
+    private static class Entry {
+        final List<InetAddress> addresses;
+        final long expiresAt;
+
+        Entry(List<InetAddress> addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Dns mDelegate;
+    private final long mTtlMillis;
+    private final ConnectionStats mStats;
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+
+    public CachingDns(Dns delegate, long ttlMillis, ConnectionStats stats) {
+        mDelegate = delegate;
+        mTtlMillis = ttlMillis;
+        mStats = stats;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(hostname);
+            if (entry != null && entry.expiresAt > now) {
+                mStats.recordDnsLookup(true);
+                return entry.addresses;
+            }
+        }
+
+        // Look up outside the lock, a slow resolver must not hold up the other hosts
+        List<InetAddress> addresses = mDelegate.lookup(hostname);
+        mStats.recordDnsLookup(false);
+        synchronized (mEntries) {
+            mEntries.put(hostname, new Entry(addresses, now + mTtlMillis));
+        }
+        return addresses;
+    }
+
+    /**
+     * Forgets every lookup, e.g. after the network changed.
+     */
+    public void clear() {
+        synchronized (mEntries) {
+            mEntries.clear();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.android.sunshine.app.net;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+
+/**
+ * Stops requests to an upstream that is known to be failing.
+ *
+ * The breaker starts CLOSED and lets everything through.  After {@code failureThreshold}
+ * failures in a row it OPENs and turns every request away for {@code openMillis} (or for as long
+ * as the server's Retry-After asked, if that is longer).  Once that has passed it is HALF_OPEN:
+ * a single trial request is let through, which closes the breaker if it succeeds and opens it
+ * again if it fails.
+ *
+ * The state lives in memory, so it is shared by every sync while the sync process is alive.
+ */
+public class CircuitBreaker {
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final long DEFAULT_OPEN_MILLIS = 5 * 60 * 1000;
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Told about every state change.  Called with the breaker's lock held, so it must not call
+     * back into the breaker.
+     */
+    public interface Listener {
+        void onStateChanged(CircuitBreaker breaker, State from, State to);
+    }
+
+    /**
+     * Thrown instead of making a request while the breaker is open.
+     */
+    public static class OpenException extends IOException {
+        public OpenException(String name) {
+            super("Circuit breaker " + name + " is open");
+        }
+    }
+
+    private final String mName;
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+    private Listener mListener;
+
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenUntil;
+    private boolean mTrialInFlight;
+
+    public CircuitBreaker(String name) {
+        this(name, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        mName = name;
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * Claims the right to make a request.  Every successful call must be followed by
+     * {@link #recordSuccess()}, {@link #recordFailure(long)} or {@link #release()}.
+     *
+     * @throws OpenException if the upstream is known to be failing
+     */
+    public synchronized void acquire() throws OpenException {
+        if (mState == State.OPEN) {
+            if (now() < mOpenUntil) {
+                throw new OpenException(mName);
+            }
+            transitionTo(State.HALF_OPEN);
+        }
+        if (mState == State.HALF_OPEN) {
+            if (mTrialInFlight) {
+                // Someone is already finding out whether the upstream is back
+                throw new OpenException(mName);
+            }
+            mTrialInFlight = true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        mConsecutiveFailures = 0;
+        mTrialInFlight = false;
+        if (mState != State.CLOSED) {
+            transitionTo(State.CLOSED);
+        }
+    }
+
+    /**
+     * Gives back a claim whose request ended without telling anything about the upstream, e.g.
+     * because it was cancelled.
+     */
+    public synchronized void release() {
+        mTrialInFlight = false;
+    }
+
+    /**
+     * @param retryAfterMillis how long the server asked us to stay away, or -1
+     */
+    public synchronized void recordFailure(long retryAfterMillis) {
+        mConsecutiveFailures++;
+        mTrialInFlight = false;
+        if (mState == State.HALF_OPEN || mConsecutiveFailures >= mFailureThreshold) {
+            mOpenUntil = now() + Math.max(mOpenMillis, retryAfterMillis);
+            if (mState != State.OPEN) {
+                transitionTo(State.OPEN);
+            }
+        }
+    }
+
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    private void transitionTo(State state) {
+        State from = mState;
+        mState = state;
+        if (mListener != null) {
+            mListener.onStateChanged(this, from, state);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.android.sunshine.app.net;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the validators (ETag and Last-Modified) of responses we have already processed, keyed
+ * by request URI, so the next request for the same URI can be made conditional.
+ *
+ * Only the validators are kept, not the body: a 304 means the data we stored from the previous
+ * response is still current, so there is nothing to re-read.  The entries live in their own
+ * SharedPreferences file so they survive process death.  The API key is left out of the keys,
+ * so it is never written there; entries from before that are dropped.
+ *
+ * The counters are kept in memory, so parallel requests don't queue on a disk write each, and
+ * are saved by {@link #saveCounts()}, once per sync.
+ *
+ * Counters:
+ * <ul>
+ * <li>miss - a request made without validators, because there was no entry for the URI</li>
+ * <li>revalidated - a request made conditional with a stored entry</li>
+ * <li>hit - a conditional request the server answered with 304 Not Modified</li>
+ * </ul>
+ */
+public class ConditionalRequestCache {
+    static final String PREFS_NAME = "http_cache";
+
+    private static final String KEY_ETAG_PREFIX = "etag:";
+    private static final String KEY_LAST_MODIFIED_PREFIX = "last_modified:";
+    private static final String KEY_HIT_COUNT = "hit_count";
+    private static final String KEY_MISS_COUNT = "miss_count";
+    private static final String KEY_REVALIDATED_COUNT = "revalidated_count";
+    // The query parameter that carries OpenWeatherMap's API key
+    static final String API_KEY_PARAM = "APPID";
+
+    private final SharedPreferences mPrefs;
+    private final AtomicLong mHitCount;
+    private final AtomicLong mMissCount;
+    private final AtomicLong mRevalidatedCount;
+
+    public ConditionalRequestCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mHitCount = new AtomicLong(mPrefs.getLong(KEY_HIT_COUNT, 0));
+        mMissCount = new AtomicLong(mPrefs.getLong(KEY_MISS_COUNT, 0));
+        mRevalidatedCount = new AtomicLong(mPrefs.getLong(KEY_REVALIDATED_COUNT, 0));
+        removeKeysWithApiKey();
+    }
+
+    /**
+     * @return the uri without its API key, which is what entries are stored under
+     */
+    static String keyFor(String uri) {
+        int query = uri.indexOf('?');
+        if (query == -1) {
+            return uri;
+        }
+        StringBuilder key = new StringBuilder(uri.length()).append(uri, 0, query + 1);
+        boolean first = true;
+        for (String parameter : uri.substring(query + 1).split("&")) {
+            if (parameter.regionMatches(true, 0, API_KEY_PARAM + "=", 0,
+                    API_KEY_PARAM.length() + 1)) {
+                continue;
+            }
+            if (!first) {
+                key.append('&');
+            }
+            key.append(parameter);
+            first = false;
+        }
+        return key.toString();
+    }
+
+    /**
+     * Drops the entries stored under their full uri, API key and all, by older versions.
+     */
+    private void removeKeysWithApiKey() {
+        SharedPreferences.Editor editor = null;
+        for (String key : mPrefs.getAll().keySet()) {
+            String uri = getUri(key);
+            if (uri != null && !uri.equals(keyFor(uri))) {
+                if (editor == null) {
+                    editor = mPrefs.edit();
+                }
+                editor.remove(key);
+            }
+        }
+        if (editor != null) {
+            editor.apply();
+        }
+    }
+
+    /**
+     * @return the uri of an entry's preference, or null if the preference isn't an entry's
+     */
+    private static String getUri(String key) {
+        if (key.startsWith(KEY_ETAG_PREFIX)) {
+            return key.substring(KEY_ETAG_PREFIX.length());
+        } else if (key.startsWith(KEY_LAST_MODIFIED_PREFIX)) {
+            return key.substring(KEY_LAST_MODIFIED_PREFIX.length());
+        }
+        return null;
+    }
+
+    public String getETag(String uri) {
+        return mPrefs.getString(KEY_ETAG_PREFIX + keyFor(uri), null);
+    }
+
+    public String getLastModified(String uri) {
+        return mPrefs.getString(KEY_LAST_MODIFIED_PREFIX + keyFor(uri), null);
+    }
+
+    public boolean contains(String uri) {
+        return getETag(uri) != null || getLastModified(uri) != null;
+    }
+
+    /**
+     * Stores the validators of a response whose body has been fully processed.  Either value may
+     * be null; if both are, any previous entry for the URI is dropped.
+     */
+    public void put(String uri, String eTag, String lastModified) {
+        String key = keyFor(uri);
+        SharedPreferences.Editor editor = mPrefs.edit();
+        putOrRemove(editor, KEY_ETAG_PREFIX + key, eTag);
+        putOrRemove(editor, KEY_LAST_MODIFIED_PREFIX + key, lastModified);
+        editor.apply();
+    }
+
+    public void remove(String uri) {
+        String key = keyFor(uri);
+        mPrefs.edit()
+                .remove(KEY_ETAG_PREFIX + key)
+                .remove(KEY_LAST_MODIFIED_PREFIX + key)
+                .apply();
+    }
+
+    /**
+     * Drops the entries of every uri whose query parameter has the value, e.g. those of a
+     * location that is no longer synced.
+     */
+    public void removeWhere(String parameter, String value) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (String key : mPrefs.getAll().keySet()) {
+            String uri = getUri(key);
+            if (uri != null && value.equals(Uri.parse(uri).getQueryParameter(parameter))) {
+                editor.remove(key);
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * Drops every entry and resets the counters.
+     */
+    public void clear() {
+        mPrefs.edit().clear().commit();
+        mHitCount.set(0);
+        mMissCount.set(0);
+        mRevalidatedCount.set(0);
+    }
+
+    /**
+     * Saves the counters, without waiting for the write.
+     */
+    public void saveCounts() {
+        mPrefs.edit()
+                .putLong(KEY_HIT_COUNT, mHitCount.get())
+                .putLong(KEY_MISS_COUNT, mMissCount.get())
+                .putLong(KEY_REVALIDATED_COUNT, mRevalidatedCount.get())
+                .apply();
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    public long getRevalidatedCount() {
+        return mRevalidatedCount.get();
+    }
+
+    void recordHit() {
+        mHitCount.incrementAndGet();
+    }
+
+    void recordMiss() {
+        mMissCount.incrementAndGet();
+    }
+
+    void recordRevalidated() {
+        mRevalidatedCount.incrementAndGet();
+    }
+
+    private static void putOrRemove(SharedPreferences.Editor editor, String key, String value) {
+        if (value != null) {
+            editor.putString(key, value);
+        } else {
+            editor.remove(key);
+        }
+    }
+}
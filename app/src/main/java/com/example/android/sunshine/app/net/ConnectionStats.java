@@ -0,0 +1,68 @@
+package com.example.android.sunshine.app.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for the shared HTTP client: how many requests went out on a pooled connection rather
+ * than a new one, and how many host lookups were answered from the DNS cache.
+ */
+public class ConnectionStats {
+    private final AtomicLong mReusedConnections = new AtomicLong();
+    private final AtomicLong mNewConnections = new AtomicLong();
+    private final AtomicLong mDnsHits = new AtomicLong();
+    private final AtomicLong mDnsMisses = new AtomicLong();
+
+    void recordConnection(boolean reused) {
+        (reused ? mReusedConnections : mNewConnections).incrementAndGet();
+    }
+
+    void recordDnsLookup(boolean cached) {
+        (cached ? mDnsHits : mDnsMisses).incrementAndGet();
+    }
+
+    /**
+     * @return the number of requests sent on a connection an earlier request had opened
+     */
+    public long getReusedConnections() {
+        return mReusedConnections.get();
+    }
+
+    /**
+     * @return the number of requests that had to open a connection, with its TCP and TLS
+     * handshakes
+     */
+    public long getNewConnections() {
+        return mNewConnections.get();
+    }
+
+    public long getDnsHits() {
+        return mDnsHits.get();
+    }
+
+    public long getDnsMisses() {
+        return mDnsMisses.get();
+    }
+
+    /**
+     * @return the share of requests, between 0 and 1, that reused a pooled connection
+     */
+    public double getPoolHitRate() {
+        long reused = mReusedConnections.get();
+        long total = reused + mNewConnections.get();
+        return total == 0 ? 0 : (double) reused / total;
+    }
+
+    public void reset() {
+        mReusedConnections.set(0);
+        mNewConnections.set(0);
+        mDnsHits.set(0);
+        mDnsMisses.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "connections " + getReusedConnections() + " reused / " + getNewConnections()
+                + " new (" + Math.round(getPoolHitRate() * 100) + "% pool hits), dns "
+                + getDnsHits() + " cached / " + getDnsMisses() + " looked up";
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.android.sunshine.app.net;
+
+import android.os.SystemClock;
+
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.OkUrlFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Issues GET requests, made conditional through a {@link ConditionalRequestCache} when we already
+ * hold the data for the URI.
+ *
+ * Responses are requested gzipped and decoded as they are read.  Asking for gzip ourselves turns
+ * off HttpURLConnection's transparent decompression, which is what lets us count the bytes that
+ * actually crossed the wire separately from the decoded bytes.  Connect, read and total deadlines
+ * are applied to every request.
+ *
+ * Requests go through the {@link OkHttpClient} when one is given, normally the
+ * {@link SharedHttpClient}, so consecutive syncs reuse its pooled keep-alive connections.
+ * Responses are therefore closed by reading their body to the end and closing it, which hands the
+ * connection back to the pool, rather than by disconnecting.
+ *
+ * A response's validators are not stored when it arrives, but only once the caller reports that
+ * the body was processed with {@link #commit(Response)}.  Otherwise a response that failed to
+ * parse or store would be answered with a 304 next time and its data never reach the database.
+ */
+public class HttpFetcher {
+
+    /**
+     * An open response.  Must be closed once the body has been read.
+     */
+    public static class Response implements Closeable {
+        final String uri;
+        final HttpURLConnection connection;
+        final int responseCode;
+        final InputStream body;
+        final MeteredInputStream wireCounter;
+        final MeteredInputStream decodedCounter;
+        // Filled in by get(): until the connection was up, then until the status line arrived
+        long connectMillis;
+        long firstByteMillis;
+
+        Response(String uri, HttpURLConnection connection, int responseCode) {
+            this(uri, connection, responseCode, null, null, null);
+        }
+
+        Response(String uri, HttpURLConnection connection, int responseCode, InputStream body,
+                 MeteredInputStream wireCounter, MeteredInputStream decodedCounter) {
+            this.uri = uri;
+            this.connection = connection;
+            this.responseCode = responseCode;
+            this.body = body;
+            this.wireCounter = wireCounter;
+            this.decodedCounter = decodedCounter;
+        }
+
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        /**
+         * @return true if the server confirmed that what we stored from the previous response
+         * is still current.  There is no body in that case.
+         */
+        public boolean isNotModified() {
+            return responseCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        /**
+         * @return the decoded response body, or null for a 304.
+         */
+        public InputStream getBody() {
+            return body;
+        }
+
+        /**
+         * @return the number of body bytes read off the connection so far, before decoding
+         */
+        public long getWireBytes() {
+            return wireCounter == null ? 0 : wireCounter.getCount();
+        }
+
+        /**
+         * @return the number of body bytes read through {@link #getBody()} so far
+         */
+        public long getDecodedBytes() {
+            return decodedCounter == null ? 0 : decodedCounter.getCount();
+        }
+
+        /**
+         * @return how long it took to open the connection, or to take a pooled one, in
+         * milliseconds
+         */
+        public long getConnectMillis() {
+            return connectMillis;
+        }
+
+        /**
+         * @return how long the server took to start answering once connected, in milliseconds
+         */
+        public long getFirstByteMillis() {
+            return firstByteMillis;
+        }
+
+        /**
+         * @return the time spent waiting on the connection for the body so far, in milliseconds
+         */
+        public long getBodyReadMillis() {
+            return wireCounter == null ? 0 : wireCounter.getReadMillis();
+        }
+
+        /**
+         * Releases the connection.  If the body was read to the end, it goes back to the pool
+         * for the next request; otherwise it can't be reused and is closed.
+         */
+        @Override
+        public void close() {
+            InputStream in = body;
+            try {
+                if (in == null) {
+                    // A 304 has no body, but the (empty) stream must still be closed to
+                    // release the connection.
+                    in = connection.getInputStream();
+                }
+                in.close();
+            } catch (IOException e) {
+                // Then the connection can't be reused anyhow.
+                connection.disconnect();
+            }
+        }
+    }
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+    public static final int DEFAULT_TOTAL_TIMEOUT_MILLIS = 60 * 1000;
+
+    private final ConditionalRequestCache mCache;
+    private final OkUrlFactory mUrlFactory;
+    private int mConnectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private int mReadTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+    private int mTotalTimeoutMillis = DEFAULT_TOTAL_TIMEOUT_MILLIS;
+
+    /**
+     * @param cache where validators are kept, or null to make every request unconditional
+     */
+    public HttpFetcher(ConditionalRequestCache cache) {
+        this(cache, null);
+    }
+
+    /**
+     * @param cache where validators are kept, or null to make every request unconditional
+     * @param client the client to send requests through, or null for the platform's
+     *               HttpURLConnection
+     */
+    public HttpFetcher(ConditionalRequestCache cache, OkHttpClient client) {
+        mCache = cache;
+        mUrlFactory = client == null ? null : new OkUrlFactory(client);
+    }
+
+    /**
+     * @param connectMillis how long to wait for the connection to be established
+     * @param readMillis how long to wait for each read off the connection
+     * @param totalMillis how long the whole request, up to the end of the body, may take
+     */
+    public void setTimeouts(int connectMillis, int readMillis, int totalMillis) {
+        mConnectTimeoutMillis = connectMillis;
+        mReadTimeoutMillis = readMillis;
+        mTotalTimeoutMillis = totalMillis;
+    }
+
+    static long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Opens a GET request for the url.
+     *
+     * @throws IOException if the request could not be made
+     * @throws HttpStatusException if the server answered with an error status
+     */
+    public Response get(URL url) throws IOException {
+        String uri = url.toString();
+        long start = now();
+        long deadline = start + mTotalTimeoutMillis;
+        HttpURLConnection urlConnection = mUrlFactory != null
+                ? mUrlFactory.open(url)
+                : (HttpURLConnection) url.openConnection();
+        try {
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+            urlConnection.setReadTimeout(Math.min(mReadTimeoutMillis, mTotalTimeoutMillis));
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+            // We do our own revalidation, a platform response cache would hide the 304 from us.
+            urlConnection.setUseCaches(false);
+
+            if (mCache != null) {
+                String eTag = mCache.getETag(uri);
+                String lastModified = mCache.getLastModified(uri);
+                if (eTag != null || lastModified != null) {
+                    if (eTag != null) {
+                        urlConnection.setRequestProperty("If-None-Match", eTag);
+                    }
+                    if (lastModified != null) {
+                        urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+                    }
+                    mCache.recordRevalidated();
+                } else {
+                    mCache.recordMiss();
+                }
+            }
+
+            urlConnection.connect();
+            long connected = now();
+            int responseCode = urlConnection.getResponseCode();
+            long firstByte = now();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                if (mCache != null) {
+                    mCache.recordHit();
+                }
+                Response response = new Response(uri, urlConnection, responseCode);
+                response.connectMillis = connected - start;
+                response.firstByteMillis = firstByte - connected;
+                return response;
+            }
+            if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                throw new HttpStatusException(responseCode, HttpStatusException.parseRetryAfter(
+                        urlConnection.getHeaderField("Retry-After"), System.currentTimeMillis()));
+            }
+
+            MeteredInputStream wireCounter =
+                    new MeteredInputStream(urlConnection.getInputStream(), deadline);
+            InputStream decoded = wireCounter;
+            if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                decoded = new GZIPInputStream(wireCounter);
+            }
+            MeteredInputStream decodedCounter = wireCounter;
+            if (decoded != wireCounter) {
+                decodedCounter = new MeteredInputStream(decoded);
+            }
+            Response response = new Response(uri, urlConnection, responseCode, decodedCounter,
+                    wireCounter, decodedCounter);
+            response.connectMillis = connected - start;
+            response.firstByteMillis = firstByte - connected;
+            return response;
+        } catch (IOException e) {
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Records the validators of a response whose body has been successfully processed, so the
+     * next request for the same URI can be answered with a 304.
+     */
+    public void commit(Response response) {
+        if (mCache == null || response.isNotModified()) {
+            return;
+        }
+        mCache.put(response.uri,
+                response.connection.getHeaderField("ETag"),
+                response.connection.getHeaderField("Last-Modified"));
+    }
+
+    /**
+     * Forgets the validators for the url, so that the next request for it is unconditional.
+     */
+    public void invalidate(URL url) {
+        if (mCache != null) {
+            mCache.remove(url.toString());
+        }
+    }
+}
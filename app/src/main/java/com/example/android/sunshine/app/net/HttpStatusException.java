@@ -0,0 +1,69 @@
+package com.example.android.sunshine.app.net;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The server answered with an error status.
+ */
+public class HttpStatusException extends IOException {
+    private final int mStatusCode;
+    private final long mRetryAfterMillis;
+
+    /**
+     * @param retryAfterMillis how long the server asked us to wait, or -1 if it didn't say
+     */
+    public HttpStatusException(int statusCode, long retryAfterMillis) {
+        super("HTTP " + statusCode);
+        mStatusCode = statusCode;
+        mRetryAfterMillis = retryAfterMillis;
+    }
+
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /**
+     * @return how long the server asked us to wait through Retry-After, or -1 if it didn't say
+     */
+    public long getRetryAfterMillis() {
+        return mRetryAfterMillis;
+    }
+
+    /**
+     * @return true for the statuses that say the server, rather than the request, is the
+     * problem: 5xx and 429 Too Many Requests
+     */
+    public boolean isServerError() {
+        return mStatusCode >= 500 || mStatusCode == 429;
+    }
+
+    /**
+     * Parses a Retry-After header, which is either a number of seconds or an HTTP date.
+     *
+     * @return the delay in milliseconds, or -1 if the header is missing or unreadable
+     */
+    static long parseRetryAfter(String value, long nowMillis) {
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // Then it should be a date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(value);
+            return Math.max(0, date.getTime() - nowMillis);
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.android.sunshine.app.net;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+
+/**
+ * Counts the bytes read through it, and the time spent waiting on those reads, and optionally
+ * fails the read once a deadline has passed.
+ *
+ * The socket read timeout only bounds the gap between two packets, so a server trickling a byte
+ * every few seconds could otherwise hold a sync open indefinitely.
+ */
+public class MeteredInputStream extends FilterInputStream {
+    private final long mDeadlineMillis;
+    private long mCount;
+    private long mReadNanos;
+
+    /**
+     * @param deadlineMillis {@link android.os.SystemClock#elapsedRealtime()}-style time after
+     *                       which reads fail, or 0 for no deadline
+     */
+    public MeteredInputStream(InputStream in, long deadlineMillis) {
+        super(in);
+        mDeadlineMillis = deadlineMillis;
+    }
+
+    public MeteredInputStream(InputStream in) {
+        this(in, 0);
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the time spent inside reads of the underlying stream, in milliseconds
+     */
+    public long getReadMillis() {
+        return mReadNanos / 1000000;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkDeadline();
+        long start = System.nanoTime();
+        int b = super.read();
+        mReadNanos += System.nanoTime() - start;
+        if (b != -1) {
+            mCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        checkDeadline();
+        long start = System.nanoTime();
+        int read = super.read(buffer, offset, count);
+        mReadNanos += System.nanoTime() - start;
+        if (read > 0) {
+            mCount += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        checkDeadline();
+        long skipped = super.skip(byteCount);
+        mCount += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        // Re-reading marked bytes would count them twice
+        return false;
+    }
+
+    private void checkDeadline() throws SocketTimeoutException {
+        if (mDeadlineMillis != 0 && HttpFetcher.now() > mDeadlineMillis) {
+            throw new SocketTimeoutException("Response not complete within the total deadline");
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.android.sunshine.app.net;
+
+import android.content.Context;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.GenericLoaderFactory;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads Glide's URLs through our {@link OkHttpClient}, so the art shares its connection pool and
+ * DNS cache with the sync.
+ */
+public class OkHttpUrlLoader implements ModelLoader<GlideUrl, InputStream> {
+
+    public static class Factory implements ModelLoaderFactory<GlideUrl, InputStream> {
+        private final OkHttpClient mClient;
+
+        public Factory(OkHttpClient client) {
+            mClient = client;
+        }
+
+        @Override
+        public ModelLoader<GlideUrl, InputStream> build(Context context,
+                                                        GenericLoaderFactory factories) {
+            return new OkHttpUrlLoader(mClient);
+        }
+
+        @Override
+        public void teardown() {
+            // The client is shared, it outlives Glide
+        }
+    }
+
+    private final OkHttpClient mClient;
+
+    public OkHttpUrlLoader(OkHttpClient client) {
+        mClient = client;
+    }
+
+    @Override
+    public DataFetcher<InputStream> getResourceFetcher(GlideUrl model, int width, int height) {
+        return new OkHttpStreamFetcher(mClient, model);
+    }
+
+    static class OkHttpStreamFetcher implements DataFetcher<InputStream> {
+        private final OkHttpClient mClient;
+        private final GlideUrl mUrl;
+        private volatile Call mCall;
+        private ResponseBody mBody;
+        private InputStream mStream;
+
+        OkHttpStreamFetcher(OkHttpClient client, GlideUrl url) {
+            mClient = client;
+            mUrl = url;
+        }
+
+        @Override
+        public InputStream loadData(Priority priority) throws Exception {
+            Request request = new Request.Builder().url(mUrl.toString()).build();
+            mCall = mClient.newCall(request);
+            Response response = mCall.execute();
+            mBody = response.body();
+            if (!response.isSuccessful()) {
+                throw new IOException("Request failed with code: " + response.code());
+            }
+            mStream = mBody.byteStream();
+            return mStream;
+        }
+
+        @Override
+        public void cleanup() {
+            // Closing the body hands a fully read connection back to the pool
+            try {
+                if (mStream != null) {
+                    mStream.close();
+                }
+                if (mBody != null) {
+                    mBody.close();
+                }
+            } catch (IOException e) {
+                // Nothing to do, the image has been decoded
+            }
+        }
+
+        @Override
+        public String getId() {
+            return mUrl.toString();
+        }
+
+        @Override
+        public void cancel() {
+            Call call = mCall;
+            if (call != null) {
+                call.cancel();
+            }
+        }
+    }
+}
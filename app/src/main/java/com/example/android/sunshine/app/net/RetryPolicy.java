@@ -0,0 +1,83 @@
+package com.example.android.sunshine.app.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+/**
+ * Decides whether and when a failed request is retried: exponential backoff with full jitter,
+ * waiting at least as long as the server asked for through Retry-After.
+ *
+ * Full jitter picks each delay uniformly between 0 and the exponential cap, so that devices that
+ * failed at the same moment don't all come back at the same moment too.
+ */
+public class RetryPolicy {
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 1000;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 15 * 1000;
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom;
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, new Random());
+    }
+
+    /**
+     * @param maxAttempts how many times a request is made at most, including the first
+     * @param baseDelayMillis the cap of the delay before the first retry, doubled for each one
+     *                        after
+     * @param maxDelayMillis the longest we are willing to wait before a retry.  A Retry-After
+     *                       longer than this is not waited out, the request fails instead.
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, Random random) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mRandom = random;
+    }
+
+    /**
+     * @param attempt how many attempts have failed so far, 1 after the first
+     * @param failure why the last attempt failed
+     * @return how long to wait before the next attempt, or -1 to give up
+     */
+    public long getDelayMillis(int attempt, IOException failure) {
+        if (attempt >= mMaxAttempts || !isRetryable(failure)) {
+            return -1;
+        }
+        long cap = Math.min(mMaxDelayMillis, mBaseDelayMillis << Math.min(attempt - 1, 30));
+        long delay;
+        synchronized (mRandom) {
+            delay = (long) (mRandom.nextDouble() * cap);
+        }
+        if (failure instanceof HttpStatusException) {
+            long retryAfter = ((HttpStatusException) failure).getRetryAfterMillis();
+            if (retryAfter > mMaxDelayMillis) {
+                // The server is asking for more patience than a sync has
+                return -1;
+            }
+            delay = Math.max(delay, retryAfter);
+        }
+        return delay;
+    }
+
+    /**
+     * @return true if trying again could succeed: network failures and server errors, but not
+     * a request the server rejected, nor a cancelled sync
+     */
+    public static boolean isRetryable(IOException failure) {
+        if (failure instanceof HttpStatusException) {
+            return ((HttpStatusException) failure).isServerError();
+        }
+        if (failure instanceof CircuitBreaker.OpenException) {
+            return false;
+        }
+        // A SocketTimeoutException is an InterruptedIOException too, but is worth a retry
+        return !(failure instanceof InterruptedIOException)
+                || failure instanceof SocketTimeoutException;
+    }
+}
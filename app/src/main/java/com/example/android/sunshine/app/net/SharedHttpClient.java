@@ -0,0 +1,99 @@
+package com.example.android.sunshine.app.net;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Dns;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The one HTTP client of the app.  The sync, the notification icon and the widget art (through
+ * Glide) all go through it, so they share a pool of keep-alive connections and a DNS cache
+ * instead of each paying for their own handshakes.  On a high latency link the TCP and TLS
+ * handshakes are most of the time a request takes.
+ */
+public class SharedHttpClient {
+    // Enough for the forecast host and the art host, with some room for parallel syncs
+    static final int MAX_IDLE_CONNECTIONS = 5;
+    // Syncs are hours apart, but the fan-out after a sync follows within seconds
+    static final long KEEP_ALIVE_MILLIS = 5 * 60 * 1000;
+
+    private static OkHttpClient sClient;
+    private static CachingDns sDns;
+    private static final ConnectionStats sStats = new ConnectionStats();
+
+    private SharedHttpClient() {
+    }
+
+    public static synchronized OkHttpClient get(Context context) {
+        if (sClient == null) {
+            sDns = new CachingDns(Dns.SYSTEM, CachingDns.DEFAULT_TTL_MILLIS, sStats);
+            sClient = createClient(sDns, sStats);
+            // Addresses looked up on one network may not be reachable from the next.  Only
+            // needed while the process has a client, so not declared in the manifest.
+            context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    clearDnsCache();
+                }
+            }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+        return sClient;
+    }
+
+    public static ConnectionStats getStats() {
+        return sStats;
+    }
+
+    /**
+     * Drops the cached host lookups.  Called whenever the connectivity changes.
+     */
+    public static synchronized void clearDnsCache() {
+        if (sDns != null) {
+            sDns.clear();
+        }
+    }
+
+    static OkHttpClient createClient(Dns dns, ConnectionStats stats) {
+        OkHttpClient client = new OkHttpClient();
+        client.setConnectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MILLIS));
+        client.setDns(dns);
+        client.networkInterceptors().add(new ConnectionReuseInterceptor(stats));
+        return client;
+    }
+
+    /**
+     * Counts whether each request went out on a connection we had seen before.  Network
+     * interceptors run once the connection has been picked, so the connection tells.
+     */
+    static class ConnectionReuseInterceptor implements Interceptor {
+        private final ConnectionStats mStats;
+        private final Map<Connection, Boolean> mSeen =
+                Collections.synchronizedMap(new WeakHashMap<Connection, Boolean>());
+
+        ConnectionReuseInterceptor(ConnectionStats stats) {
+            mStats = stats;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Connection connection = chain.connection();
+            if (connection != null) {
+                mStats.recordConnection(mSeen.put(connection, Boolean.TRUE) != null);
+            }
+            return chain.proceed(chain.request());
+        }
+    }
+}
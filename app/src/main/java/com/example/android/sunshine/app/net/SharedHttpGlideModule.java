@@ -0,0 +1,26 @@
+package com.example.android.sunshine.app.net;
+
+import android.content.Context;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.module.GlideModule;
+
+import java.io.InputStream;
+
+/**
+ * Makes Glide load URLs through the {@link SharedHttpClient}.  Registered in the manifest.
+ */
+public class SharedHttpGlideModule implements GlideModule {
+    @Override
+    public void applyOptions(Context context, GlideBuilder builder) {
+        // The defaults are fine
+    }
+
+    @Override
+    public void registerComponents(Context context, Glide glide) {
+        glide.register(GlideUrl.class, InputStream.class,
+                new OkHttpUrlLoader.Factory(SharedHttpClient.get(context)));
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.android.sunshine.app.net;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.android.sunshine.app.Utility;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Per-day totals of the bytes the sync moved, kept in their own SharedPreferences file.
+ *
+ * Wire bytes are the response bodies as they came off the socket (compressed, when the server
+ * sent them gzipped); decoded bytes are what the parser actually read.  The difference is what
+ * compression saved us.  Only the last {@link #DAYS_TO_KEEP} days are kept.
+ */
+public class TransferLedger {
+    static final String PREFS_NAME = "transfer_ledger";
+    static final int DAYS_TO_KEEP = 30;
+
+    private static final String SUFFIX_SYNCS = ".syncs";
+    private static final String SUFFIX_WIRE_BYTES = ".wire";
+    private static final String SUFFIX_DECODED_BYTES = ".decoded";
+
+    /**
+     * The totals for one day.
+     */
+    public static class Day {
+        // yyyyMMdd, in the device's time zone
+        public final String date;
+        public final long syncs;
+        public final long wireBytes;
+        public final long decodedBytes;
+
+        Day(String date, long syncs, long wireBytes, long decodedBytes) {
+            this.date = date;
+            this.syncs = syncs;
+            this.wireBytes = wireBytes;
+            this.decodedBytes = decodedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return date + ": " + syncs + " syncs, " + wireBytes + " bytes on the wire, "
+                    + decodedBytes + " bytes decoded";
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+
+    public TransferLedger(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Adds one sync's traffic to today's totals.
+     */
+    public synchronized void recordSync(long wireBytes, long decodedBytes) {
+        String today = formatDay(System.currentTimeMillis());
+        SharedPreferences.Editor editor = mPrefs.edit();
+        editor.putLong(today + SUFFIX_SYNCS, mPrefs.getLong(today + SUFFIX_SYNCS, 0) + 1);
+        editor.putLong(today + SUFFIX_WIRE_BYTES,
+                mPrefs.getLong(today + SUFFIX_WIRE_BYTES, 0) + wireBytes);
+        editor.putLong(today + SUFFIX_DECODED_BYTES,
+                mPrefs.getLong(today + SUFFIX_DECODED_BYTES, 0) + decodedBytes);
+        pruneOldDays(editor);
+        editor.commit();
+    }
+
+    public Day getDay(long dateInMillis) {
+        return readDay(formatDay(dateInMillis));
+    }
+
+    /**
+     * @return every day in the ledger, oldest first
+     */
+    public List<Day> getDays() {
+        List<String> dates = new ArrayList<String>();
+        for (String key : mPrefs.getAll().keySet()) {
+            if (key.endsWith(SUFFIX_SYNCS)) {
+                dates.add(key.substring(0, key.length() - SUFFIX_SYNCS.length()));
+            }
+        }
+        Collections.sort(dates);
+        List<Day> days = new ArrayList<Day>(dates.size());
+        for (String date : dates) {
+            days.add(readDay(date));
+        }
+        return days;
+    }
+
+    public void clear() {
+        mPrefs.edit().clear().commit();
+    }
+
+    private Day readDay(String date) {
+        return new Day(date,
+                mPrefs.getLong(date + SUFFIX_SYNCS, 0),
+                mPrefs.getLong(date + SUFFIX_WIRE_BYTES, 0),
+                mPrefs.getLong(date + SUFFIX_DECODED_BYTES, 0));
+    }
+
+    private void pruneOldDays(SharedPreferences.Editor editor) {
+        Calendar cutoff = Calendar.getInstance();
+        cutoff.add(Calendar.DAY_OF_YEAR, -DAYS_TO_KEEP);
+        String oldestKept = formatDay(cutoff.getTimeInMillis());
+        for (Map.Entry<String, ?> entry : mPrefs.getAll().entrySet()) {
+            String key = entry.getKey();
+            int dot = key.indexOf('.');
+            // The dates sort lexically, so a plain string comparison is enough
+            if (dot > 0 && key.substring(0, dot).compareTo(oldestKept) < 0) {
+                editor.remove(key);
+            }
+        }
+    }
+
+    private static String formatDay(long dateInMillis) {
+        return new SimpleDateFormat(Utility.DATE_FORMAT, Locale.US).format(new Date(dateInMillis));
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides how often each location needs syncing, from how much its forecast has been moving.
+ *
+ * A location starts at {@link SunshineSyncAdapter#SYNC_INTERVAL}.  Every
+ * {@link #LENGTHEN_AFTER_UNCHANGED} syncs in a row that change nothing stretch its interval by
+ * half; a change to today's or tomorrow's forecast halves it, and a severe condition (OWM codes
+ * 2xx, thunderstorms, and 9xx, extreme weather) in those days drops it straight to the minimum.
+ * Intervals stay within the configured bounds.
+ *
+ * There is still a single periodic sync; it runs at the shortest interval any saved location
+ * needs, and each run only fetches the locations that are due.  Every decision is appended to a
+ * bounded history, kept with the rest of the state in its own SharedPreferences file, so the
+ * policy can be tuned from real data.
+ */
+public class AdaptiveSyncScheduler {
+    private static final String LOG_TAG = AdaptiveSyncScheduler.class.getSimpleName();
+
+    static final String PREFS_NAME = "adaptive_sync";
+
+    public static final int DEFAULT_MIN_INTERVAL_SECONDS = 60 * 60;
+    public static final int DEFAULT_MAX_INTERVAL_SECONDS = 60 * 60 * 12;
+    static final int LENGTHEN_AFTER_UNCHANGED = 2;
+    static final int HISTORY_SIZE = 200;
+
+    public static final String REASON_FIRST_SYNC = "first sync";
+    public static final String REASON_FAILED = "failed";
+    public static final String REASON_SEVERE = "severe conditions";
+    public static final String REASON_NEAR_TERM_CHANGED = "today or tomorrow changed";
+    public static final String REASON_LATER_DAYS_CHANGED = "later days changed";
+    public static final String REASON_UNCHANGED = "unchanged";
+
+    private static final String SUFFIX_INTERVAL = ".interval";
+    private static final String SUFFIX_UNCHANGED = ".unchanged";
+    private static final String SUFFIX_SEVERE = ".severe";
+    private static final String SUFFIX_NEXT_SYNC = ".next";
+    private static final String KEY_SCHEDULED_PERIOD = "scheduled_period";
+    private static final String KEY_HISTORY = "history";
+
+    /**
+     * One interval decision for one location.
+     */
+    public static class Decision {
+        public final long time;
+        public final String locationSetting;
+        public final int fromSeconds;
+        public final int toSeconds;
+        public final String reason;
+
+        Decision(long time, String locationSetting, int fromSeconds, int toSeconds,
+                 String reason) {
+            this.time = time;
+            this.locationSetting = locationSetting;
+            this.fromSeconds = fromSeconds;
+            this.toSeconds = toSeconds;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return locationSetting + ": " + fromSeconds + "s -> " + toSeconds + "s, " + reason;
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+    private final int mMinIntervalSeconds;
+    private final int mMaxIntervalSeconds;
+
+    public AdaptiveSyncScheduler(Context context) {
+        this(context, DEFAULT_MIN_INTERVAL_SECONDS, DEFAULT_MAX_INTERVAL_SECONDS);
+    }
+
+    public AdaptiveSyncScheduler(Context context, int minIntervalSeconds, int maxIntervalSeconds) {
+        if (minIntervalSeconds <= 0 || maxIntervalSeconds < minIntervalSeconds) {
+            throw new IllegalArgumentException("Bad interval bounds: " + minIntervalSeconds
+                    + ", " + maxIntervalSeconds);
+        }
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mMinIntervalSeconds = minIntervalSeconds;
+        mMaxIntervalSeconds = maxIntervalSeconds;
+    }
+
+    /**
+     * @return the location's current sync interval, in seconds
+     */
+    public int getInterval(String locationSetting) {
+        return mPrefs.getInt(locationSetting + SUFFIX_INTERVAL,
+                clamp(SunshineSyncAdapter.SYNC_INTERVAL));
+    }
+
+    /**
+     * @return the locations that should be fetched by a periodic sync running now.  A location
+     * due before the next periodic sync is closer to now than to that one counts as due.
+     */
+    public List<String> getDueLocations(List<String> locationSettings, long nowMillis) {
+        long slackMillis = getScheduledPeriod() * 1000L / 2;
+        List<String> due = new ArrayList<String>();
+        for (String locationSetting : locationSettings) {
+            if (mPrefs.getLong(locationSetting + SUFFIX_NEXT_SYNC, 0) <= nowMillis + slackMillis) {
+                due.add(locationSetting);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Adjusts the interval of every location in the results.  Should not be called from the UI
+     * thread, it uses commit.
+     *
+     * @return the decisions taken, one per result
+     */
+    public List<Decision> record(List<ForecastSyncEngine.LocationResult> results, long nowMillis) {
+        List<Decision> decisions = new ArrayList<Decision>(results.size());
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (ForecastSyncEngine.LocationResult result : results) {
+            Decision decision = decide(result, nowMillis, editor);
+            Log.d(LOG_TAG, decision.toString());
+            decisions.add(decision);
+        }
+        appendHistory(editor, decisions);
+        editor.commit();
+        return decisions;
+    }
+
+    private Decision decide(ForecastSyncEngine.LocationResult result, long nowMillis,
+                            SharedPreferences.Editor editor) {
+        String setting = result.locationSetting;
+        boolean known = mPrefs.contains(setting + SUFFIX_INTERVAL);
+        int from = getInterval(setting);
+        int to = from;
+        int unchanged = mPrefs.getInt(setting + SUFFIX_UNCHANGED, 0);
+        String reason;
+
+        if (result.status != SunshineSyncAdapter.LOCATION_STATUS_OK) {
+            // Keep the interval, but try again soon rather than go without a forecast
+            reason = REASON_FAILED;
+            editor.putLong(setting + SUFFIX_NEXT_SYNC, nowMillis + mMinIntervalSeconds * 1000L);
+            return new Decision(nowMillis, setting, from, to, reason);
+        }
+
+        // A "not modified" answer has no days to look at, but then nothing has changed since
+        // the days that were looked at last time
+        boolean severe = result.forecast != null && result.forecast.hasDays()
+                ? hasSevereConditions(result.forecast)
+                : mPrefs.getBoolean(setting + SUFFIX_SEVERE, false);
+
+        if (!known) {
+            reason = REASON_FIRST_SYNC;
+            unchanged = 0;
+        } else if (severe) {
+            to = mMinIntervalSeconds;
+            reason = REASON_SEVERE;
+            unchanged = 0;
+        } else if (result.nearTermChanged) {
+            to = clamp(from / 2);
+            reason = REASON_NEAR_TERM_CHANGED;
+            unchanged = 0;
+        } else if (result.changedRows > 0) {
+            reason = REASON_LATER_DAYS_CHANGED;
+            unchanged = 0;
+        } else {
+            unchanged++;
+            reason = REASON_UNCHANGED + " x" + unchanged;
+            if (unchanged >= LENGTHEN_AFTER_UNCHANGED) {
+                to = clamp(from + from / 2);
+                unchanged = 0;
+            }
+        }
+
+        editor.putInt(setting + SUFFIX_INTERVAL, to);
+        editor.putInt(setting + SUFFIX_UNCHANGED, unchanged);
+        editor.putBoolean(setting + SUFFIX_SEVERE, severe);
+        editor.putLong(setting + SUFFIX_NEXT_SYNC, nowMillis + to * 1000L);
+        return new Decision(nowMillis, setting, from, to, reason);
+    }
+
+    static boolean hasSevereConditions(Forecast forecast) {
+        int days = Math.min(ForecastSyncEngine.NEAR_TERM_DAYS, forecast.days.size());
+        for (int i = 0; i < days; i++) {
+            ContentValues day = forecast.days.get(i);
+            Integer weatherId = day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+            if (weatherId != null && (weatherId / 100 == 2 || weatherId / 100 == 9)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the period the periodic sync needs for these locations: the shortest of their
+     * intervals
+     */
+    public int getPeriod(List<String> locationSettings) {
+        int period = mMaxIntervalSeconds;
+        for (String locationSetting : locationSettings) {
+            period = Math.min(period, getInterval(locationSetting));
+        }
+        return period;
+    }
+
+    /**
+     * @return the period the periodic sync was last scheduled with, in seconds
+     */
+    public int getScheduledPeriod() {
+        return mPrefs.getInt(KEY_SCHEDULED_PERIOD, SunshineSyncAdapter.SYNC_INTERVAL);
+    }
+
+    /**
+     * Remembers the period the periodic sync now runs at.
+     *
+     * @return true if it differs from the one scheduled before, i.e. the sync needs rescheduling
+     */
+    public boolean setScheduledPeriod(int periodSeconds) {
+        if (periodSeconds == getScheduledPeriod()) {
+            return false;
+        }
+        mPrefs.edit().putInt(KEY_SCHEDULED_PERIOD, periodSeconds).apply();
+        return true;
+    }
+
+    /**
+     * @return the last {@link #HISTORY_SIZE} decisions, oldest first
+     */
+    public List<Decision> getHistory() {
+        List<Decision> history = new ArrayList<Decision>();
+        JSONArray entries = readHistory();
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.optJSONObject(i);
+            if (entry == null) {
+                continue;
+            }
+            history.add(new Decision(entry.optLong("time"), entry.optString("location"),
+                    entry.optInt("from"), entry.optInt("to"), entry.optString("reason")));
+        }
+        return history;
+    }
+
+    /**
+     * Forgets a location, e.g. once it is no longer saved.  Its history stays.
+     */
+    public void remove(String locationSetting) {
+        mPrefs.edit()
+                .remove(locationSetting + SUFFIX_INTERVAL)
+                .remove(locationSetting + SUFFIX_UNCHANGED)
+                .remove(locationSetting + SUFFIX_SEVERE)
+                .remove(locationSetting + SUFFIX_NEXT_SYNC)
+                .apply();
+    }
+
+    public void clear() {
+        mPrefs.edit().clear().commit();
+    }
+
+    private int clamp(int intervalSeconds) {
+        return Math.max(mMinIntervalSeconds, Math.min(mMaxIntervalSeconds, intervalSeconds));
+    }
+
+    private JSONArray readHistory() {
+        String json = mPrefs.getString(KEY_HISTORY, null);
+        if (json != null) {
+            try {
+                return new JSONArray(json);
+            } catch (JSONException e) {
+                Log.w(LOG_TAG, "Discarding unreadable history", e);
+            }
+        }
+        return new JSONArray();
+    }
+
+    private void appendHistory(SharedPreferences.Editor editor, List<Decision> decisions) {
+        JSONArray entries = readHistory();
+        try {
+            for (Decision decision : decisions) {
+                entries.put(new JSONObject()
+                        .put("time", decision.time)
+                        .put("location", decision.locationSetting)
+                        .put("from", decision.fromSeconds)
+                        .put("to", decision.toSeconds)
+                        .put("reason", decision.reason));
+            }
+        } catch (JSONException e) {
+            // Only thrown for non-finite numbers, which none of these are
+            throw new IllegalStateException(e);
+        }
+        // JSONArray.remove() is API 19+, so copy out the entries that are kept
+        int first = Math.max(0, entries.length() - HISTORY_SIZE);
+        JSONArray kept = new JSONArray();
+        for (int i = first; i < entries.length(); i++) {
+            kept.put(entries.opt(i));
+        }
+        editor.putString(KEY_HISTORY, kept.toString());
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Serves forecasts from the {@link PayloadArchive} instead of the network.  Run through a
+ * {@link ForecastSyncEngine}, it replays the archived payloads through the same parse-and-store
+ * pipeline as a real sync, e.g. to reproduce a field issue or to re-run a changed parser:
+ *
+ * <pre>
+ * ForecastSyncEngine engine = new ForecastSyncEngine(context,
+ *         new ArchivedWeatherSource(new PayloadArchive(context)), 1);
+ * engine.commit(engine.fetchAll(Utility.getSavedLocations(context)));
+ * </pre>
+ *
+ * Each location gets the latest payload archived for it, dated as of when it was received.
+ */
+public class ArchivedWeatherSource implements WeatherSource {
+    private final PayloadArchive mArchive;
+
+    public ArchivedWeatherSource(PayloadArchive archive) {
+        mArchive = archive;
+    }
+
+    /**
+     * @throws IOException if nothing is archived for the location
+     */
+    @Override
+    public Forecast fetchDailyForecast(long cityId, String locationSetting, int days,
+                                       boolean allowNotModified)
+            throws IOException, JSONException {
+        PayloadArchive.Entry entry = mArchive.findLatest(cityId, locationSetting);
+        if (entry == null && cityId != 0) {
+            // It may have been archived before its city was known
+            entry = mArchive.findLatest(0, locationSetting);
+        }
+        if (entry == null) {
+            throw new IOException("Nothing archived for " + locationSetting);
+        }
+        Forecast forecast = OwmWeatherSource.parseForecast(
+                new InputStreamReader(new ByteArrayInputStream(entry.payload), "UTF-8"),
+                days, entry.fetchedAt);
+        forecast.decodedBytes = entry.payload.length;
+        return forecast;
+    }
+
+    /**
+     * @throws IOException always: only daily payloads are archived
+     */
+    @Override
+    public Forecast fetchHourlyForecast(long cityId, String locationSetting,
+                                        boolean allowNotModified) throws IOException {
+        throw new IOException("3-hour forecasts are not archived");
+    }
+
+    @Override
+    public void commit(Forecast forecast) {
+        // Replayed payloads have no validators to keep
+    }
+}
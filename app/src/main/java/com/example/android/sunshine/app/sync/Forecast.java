@@ -0,0 +1,54 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.net.HttpFetcher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The daily or 3-hour forecast of one place, as fetched by a {@link WeatherSource}.
+ *
+ * The days are rows for the weather table or, for a 3-hour forecast, one row per period for the
+ * hourly table.  Every column is filled in, including the normalized date or the period's time,
+ * except for the location key, which is only known once the forecast is stored.
+ */
+public class Forecast {
+    @SunshineSyncAdapter.LocationStatus
+    public int status = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+    // True if the source confirmed that the forecast stored from the last fetch is still current.
+    // There are no days in that case.
+    public boolean notModified;
+
+    // The source's id for the city, or 0 if it has none
+    public long cityId;
+    public String cityName;
+    public double cityLatitude;
+    public double cityLongitude;
+    public final List<ContentValues> days;
+
+    public long wireBytes;
+    public long decodedBytes;
+
+    // Where the time of the fetch went, in milliseconds.  Parsing reads the body as it goes, so
+    // the parse time is what was left once the waits for the body are taken out.
+    public long connectMillis;
+    public long firstByteMillis;
+    public long bodyReadMillis;
+    public long parseMillis;
+
+    // The response the forecast came from, whose validators are kept once it has been stored
+    HttpFetcher.Response response;
+
+    public Forecast(int expectedDays) {
+        days = new ArrayList<ContentValues>(expectedDays);
+    }
+
+    /**
+     * @return true if there are new days to store
+     */
+    public boolean hasDays() {
+        return status == SunshineSyncAdapter.LOCATION_STATUS_OK && !notModified && !days.isEmpty();
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.SuppressLint;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.TaskStackBuilder;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.stream.StreamModelLoader;
+import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.app.wearable.SunshineWearableService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Tells everything that shows the stored forecast outside of the app's own lists that it has
+ * changed: the widgets, the wearable, Muzei and the notification.  The sync adapter does this
+ * after a sync that changed something, {@link LocalRefreshService} after a change to how the
+ * stored forecast is displayed.
+ */
+public final class ForecastFanOut {
+    private static final String LOG_TAG = ForecastFanOut.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int WEATHER_NOTIFICATION_ID = 3004;
+
+    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_WEATHER_ID = 0;
+    private static final int INDEX_MAX_TEMP = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_SHORT_DESC = 3;
+
+    /**
+     * Serves Glide's art from its disk cache only: a load that isn't cached fails, rather than
+     * going to the network, and falls back to the bundled art.
+     */
+    private static final StreamModelLoader<String> CACHE_ONLY_LOADER = new StreamModelLoader<String>() {
+        @Override
+        public DataFetcher<InputStream> getResourceFetcher(final String model, int width, int height) {
+            return new DataFetcher<InputStream>() {
+                @Override
+                public InputStream loadData(Priority priority) throws Exception {
+                    throw new IOException("Not cached: " + model);
+                }
+
+                @Override
+                public void cleanup() {
+                }
+
+                @Override
+                public String getId() {
+                    // The same id as the network load, so its cached result is found
+                    return model;
+                }
+
+                @Override
+                public void cancel() {
+                }
+            };
+        }
+    };
+
+    private ForecastFanOut() {
+    }
+
+    public static void updateWidgets(Context context) {
+        // Setting the package ensures that only components in our app will receive the broadcast
+        Intent dataUpdatedIntent = new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                .setPackage(context.getPackageName());
+        context.sendBroadcast(dataUpdatedIntent);
+
+        SunshineWearableService.LOGD(LOG_TAG, "updateWidgets sendBroadcast");
+        Intent wearableUpdateIntent = new Intent(SunshineSyncAdapter.ACTION_WEARABLE_DATA_UPDATED)
+                .setPackage(context.getPackageName());
+        context.sendBroadcast(wearableUpdateIntent);
+    }
+
+    public static void updateMuzei(Context context) {
+        // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
+        // Muzei background on lower API level devices
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            context.startService(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                    .setClass(context, WeatherMuzeiSource.class));
+        }
+    }
+
+    /**
+     * Shows today's forecast in a notification, if notifications are on and the last one was
+     * more than a day ago.  Should not be called from the UI thread: it queries the provider and
+     * may fetch the art.
+     */
+    public static void notifyWeather(Context context) {
+        //checking the last update and notify if it' the first of the day
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (!areNotificationsEnabled(context, prefs)) {
+            return;
+        }
+
+        String lastNotificationKey = context.getString(R.string.pref_last_notification);
+        long lastSync = prefs.getLong(lastNotificationKey, 0);
+
+        if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
+            // Last sync was more than 1 day ago, let's send a notification with the weather.
+            if (postNotification(context, false)) {
+                //refreshing last sync
+                SharedPreferences.Editor editor = prefs.edit();
+                editor.putLong(lastNotificationKey, System.currentTimeMillis());
+                editor.putBoolean(context.getString(R.string.pref_notification_showing), true);
+                editor.commit();
+            }
+        }
+    }
+
+    /**
+     * Redraws the notification from the stored forecast, if it is still showing, e.g. after the
+     * units changed.  Makes no request: the art comes from the image cache or from the app's
+     * resources.  Should not be called from the UI thread.
+     */
+    public static void refreshNotification(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (!areNotificationsEnabled(context, prefs)
+                || !prefs.getBoolean(context.getString(R.string.pref_notification_showing), false)) {
+            return;
+        }
+        long lastNotification = prefs.getLong(context.getString(R.string.pref_last_notification), 0);
+        if (System.currentTimeMillis() - lastNotification < DAY_IN_MILLIS) {
+            postNotification(context, true);
+        }
+    }
+
+    /**
+     * Called once the user has swiped the notification away, so it isn't brought back by
+     * {@link #refreshNotification(Context)}.
+     */
+    public static void onNotificationDismissed(Context context) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putBoolean(context.getString(R.string.pref_notification_showing), false)
+                .apply();
+    }
+
+    private static boolean areNotificationsEnabled(Context context, SharedPreferences prefs) {
+        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
+        return prefs.getBoolean(displayNotificationsKey,
+                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
+    }
+
+    /**
+     * @return true if there was a forecast for today to show
+     */
+    private static boolean postNotification(Context context, boolean cachedArtOnly) {
+        String locationQuery = Utility.getPreferredLocation(context);
+
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+
+        // we'll query our contentProvider, as always
+        Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+
+        try {
+            if (!cursor.moveToFirst()) {
+                return false;
+            }
+            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
+            double high = cursor.getDouble(INDEX_MAX_TEMP);
+            double low = cursor.getDouble(INDEX_MIN_TEMP);
+            String desc = cursor.getString(INDEX_SHORT_DESC);
+
+            int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+            Resources resources = context.getResources();
+            int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+            String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+            // On Honeycomb and higher devices, we can retrieve the size of the large icon
+            // Prior to that, we use a fixed size
+            @SuppressLint("InlinedApi")
+            int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                    ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                    : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+            @SuppressLint("InlinedApi")
+            int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                    ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                    : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+            // Retrieve the large icon
+            Bitmap largeIcon;
+            try {
+                largeIcon = (cachedArtOnly
+                        ? Glide.with(context).using(CACHE_ONLY_LOADER).load(artUrl)
+                        : Glide.with(context).load(artUrl))
+                        .asBitmap()
+                        .error(artResourceId)
+                        .fitCenter()
+                        .into(largeIconWidth, largeIconHeight).get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+                largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
+            }
+            String title = context.getString(R.string.app_name);
+
+            // Define the text of the forecast.
+            String contentText = String.format(context.getString(R.string.format_notification),
+                    desc,
+                    Utility.formatTemperature(context, high),
+                    Utility.formatTemperature(context, low));
+
+            // NotificationCompatBuilder is a very convenient way to build backward-compatible
+            // notifications.  Just throw in some data.
+            NotificationCompat.Builder mBuilder =
+                    new NotificationCompat.Builder(context)
+                            .setColor(resources.getColor(R.color.primary_light))
+                            .setSmallIcon(iconId)
+                            .setLargeIcon(largeIcon)
+                            .setContentTitle(title)
+                            .setContentText(contentText)
+                            // A redraw must not make the notification buzz again
+                            .setOnlyAlertOnce(true);
+
+            // Make something interesting happen when the user clicks on the notification.
+            // In this case, opening the app is sufficient.
+            Intent resultIntent = new Intent(context, MainActivity.class);
+
+            // The stack builder object will contain an artificial back stack for the
+            // started Activity.
+            // This ensures that navigating backward from the Activity leads out of
+            // your application to the Home screen.
+            TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+            stackBuilder.addNextIntent(resultIntent);
+            PendingIntent resultPendingIntent =
+                    stackBuilder.getPendingIntent(
+                            0,
+                            PendingIntent.FLAG_UPDATE_CURRENT
+                    );
+            mBuilder.setContentIntent(resultPendingIntent);
+            mBuilder.setDeleteIntent(LocalRefreshService.getNotificationDismissedIntent(context));
+
+            NotificationManager mNotificationManager =
+                    (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+            // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+            mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+            return true;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * Pull parser for the OpenWeatherMap daily forecast response.
+ *
+ * Rather than reading the whole response into a String and building a JSONObject tree from it,
+ * this walks the stream with a {@link JsonReader} and hands every day to the {@link Callback}
+ * as soon as it has been read.  Only one day's worth of values is ever held at a time.
+ */
+public class ForecastJsonParser {
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_ID = "id";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * Receives the city a forecast is for.  Shared with {@link HourlyForecastJsonParser}, whose
+     * responses describe the city the same way.
+     */
+    public interface CityCallback {
+        /**
+         * @param cityId OWM's id for the city, or 0 if the response didn't carry one
+         */
+        void onCity(long cityId, String cityName, double lat, double lon);
+    }
+
+    /**
+     * Receives the pieces of the forecast as they are read off the stream.  OWM sends the city
+     * ahead of the list, but nothing in the format guarantees that, so implementations must not
+     * rely on {@link #onCity} being called before {@link #onDay}.
+     */
+    public interface Callback extends CityCallback {
+
+        /**
+         * @param dayIndex position of the day in the "list" array, 0 being the first day
+         * @param weatherValues the weather columns for the day, without the date or location key
+         */
+        void onDay(int dayIndex, ContentValues weatherValues);
+    }
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Reads a forecast from the given stream.
+     *
+     * @param in the response body.  It is not closed by this method.
+     * @param callback receives the city and each day as they are parsed
+     * @return the "cod" message code of the response, or {@link HttpURLConnection#HTTP_OK} if the
+     * response did not carry one.  Nothing is read past a non-OK code.
+     * @throws JSONException if the response is not a well-formed forecast
+     * @throws IOException if the underlying stream fails
+     */
+    public static int parse(Reader in, Callback callback) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            int messageCode = HttpURLConnection.HTTP_OK;
+            boolean sawCity = false;
+            boolean sawList = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    messageCode = reader.nextInt();
+                    if (messageCode != HttpURLConnection.HTTP_OK) {
+                        // An error response, there's no forecast to read.
+                        return messageCode;
+                    }
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, callback);
+                    sawCity = true;
+                } else if (OWM_LIST.equals(name)) {
+                    readList(reader, callback);
+                    sawList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (!sawList) {
+                throw new JSONException("No value for " + OWM_LIST);
+            }
+            if (!sawCity) {
+                throw new JSONException("No value for " + OWM_CITY);
+            }
+            return messageCode;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // JsonReader reports type mismatches and syntax errors through these, but to the
+            // caller they mean the same thing as a JSONException from the old tree parser.
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    static void readCity(JsonReader reader, CityCallback callback)
+            throws IOException, JSONException {
+        long cityId = 0;
+        String cityName = null;
+        Double lat = null;
+        Double lon = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_ID.equals(name)) {
+                cityId = reader.nextLong();
+            } else if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null) throw new JSONException("No value for " + OWM_CITY_NAME);
+        if (lat == null) throw new JSONException("No value for " + OWM_LATITUDE);
+        if (lon == null) throw new JSONException("No value for " + OWM_LONGITUDE);
+        callback.onCity(cityId, cityName, lat, lon);
+    }
+
+    private static void readList(JsonReader reader, Callback callback)
+            throws IOException, JSONException {
+        reader.beginArray();
+        for (int i = 0; reader.hasNext(); i++) {
+            callback.onDay(i, readDay(reader));
+        }
+        reader.endArray();
+    }
+
+    private static ContentValues readDay(JsonReader reader) throws IOException, JSONException {
+        ContentValues weatherValues = new ContentValues();
+        boolean sawWeather = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, reader.nextDouble());
+            } else if (OWM_HUMIDITY.equals(name)) {
+                // JSONObject.getInt truncated fractional values, so do the same here.
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, (int) reader.nextDouble());
+            } else if (OWM_WINDSPEED.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, reader.nextDouble());
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, reader.nextDouble());
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, reader.nextDouble());
+                    } else if (OWM_MIN.equals(tempName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    readWeather(reader, weatherValues);
+                    sawWeather = true;
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!sawWeather) throw new JSONException("No value for " + OWM_WEATHER);
+        requireValue(weatherValues, WeatherContract.WeatherEntry.COLUMN_PRESSURE, OWM_PRESSURE);
+        requireValue(weatherValues, WeatherContract.WeatherEntry.COLUMN_HUMIDITY, OWM_HUMIDITY);
+        requireValue(weatherValues, WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, OWM_WINDSPEED);
+        requireValue(weatherValues, WeatherContract.WeatherEntry.COLUMN_DEGREES, OWM_WIND_DIRECTION);
+        requireValue(weatherValues, WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, OWM_MAX);
+        requireValue(weatherValues, WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, OWM_MIN);
+        return weatherValues;
+    }
+
+    private static void readWeather(JsonReader reader, ContentValues weatherValues)
+            throws IOException, JSONException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DESCRIPTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, reader.nextString());
+            } else if (OWM_WEATHER_ID.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, (int) reader.nextDouble());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        requireValue(weatherValues, WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, OWM_DESCRIPTION);
+        requireValue(weatherValues, WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, OWM_WEATHER_ID);
+    }
+
+    private static void requireValue(ContentValues values, String column, String owmName)
+            throws JSONException {
+        if (!values.containsKey(column)) {
+            throw new JSONException("No value for " + owmName);
+        }
+    }
+}
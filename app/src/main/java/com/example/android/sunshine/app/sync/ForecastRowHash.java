@@ -0,0 +1,91 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * A 64-bit hash over the columns of a weather row that anything downstream shows, so a fresh
+ * forecast day can be compared with the stored row without writing it.
+ *
+ * Numbers are hashed as doubles, since SQLite hands the REAL columns back as doubles whatever
+ * type they were put in as.  The date and location aren't part of the hash: they are the row's
+ * key.
+ */
+final class ForecastRowHash {
+
+    /** The hashed columns, in the order {@link #of(Cursor, int)} expects them. */
+    static final String[] COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    // FNV-1a, 64 bit
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private ForecastRowHash() {
+    }
+
+    static long of(ContentValues values) {
+        long hash = mixLong(OFFSET_BASIS, toLong(values.getAsLong(COLUMNS[0])));
+        hash = mixString(hash, values.getAsString(COLUMNS[1]));
+        for (int i = 2; i < COLUMNS.length; i++) {
+            hash = mixDouble(hash, values.getAsDouble(COLUMNS[i]));
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes the row the cursor is on, whose {@link #COLUMNS} start at {@code firstColumn}.
+     */
+    static long of(Cursor cursor, int firstColumn) {
+        long hash = mixLong(OFFSET_BASIS,
+                cursor.isNull(firstColumn) ? 0 : cursor.getLong(firstColumn));
+        hash = mixString(hash, cursor.getString(firstColumn + 1));
+        for (int i = 2; i < COLUMNS.length; i++) {
+            int column = firstColumn + i;
+            hash = mixDouble(hash, cursor.isNull(column) ? null : cursor.getDouble(column));
+        }
+        return hash;
+    }
+
+    private static long toLong(Long value) {
+        return value == null ? 0 : value;
+    }
+
+    private static long mixDouble(long hash, Double value) {
+        // Null and 0 must not hash alike, or a cleared column would go unnoticed
+        return value == null ? mixByte(hash, 0xff) : mixLong(hash, Double.doubleToLongBits(value));
+    }
+
+    private static long mixString(long hash, String value) {
+        if (value == null) {
+            return mixByte(hash, 0xff);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = mixByte(mixByte(hash, c >>> 8), c);
+        }
+        // Terminate, so that adjacent strings can't run into each other
+        return mixByte(hash, 0);
+    }
+
+    private static long mixLong(long hash, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            hash = mixByte(hash, (int) (value >>> shift));
+        }
+        return hash;
+    }
+
+    private static long mixByte(long hash, int b) {
+        return (hash ^ (b & 0xff)) * PRIME;
+    }
+}
@@ -0,0 +1,604 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.LocationRegistry;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Syncs the forecast for a set of locations.
+ *
+ * Locations are first grouped by the city they resolved to on an earlier sync (the city id is
+ * kept in the location table), and each group is requested once, by city id.  OWM's
+ * forecast/daily endpoint only takes a single city per request (its multi-city "group" call
+ * returns current conditions only), so a group is one city: what this saves is the duplicate
+ * requests for location settings that point at the same place.  Locations not resolved yet are
+ * requested by their setting.
+ *
+ * Every request is made through the {@link WeatherSource} on its own task, at most {@code maxParallelFetches} at a
+ * time, its response is handed out to every location in the group, and the results are then
+ * written in a single batch, which the provider applies in one transaction.  Each location's
+ * outcome and latency is reported in its {@link LocationResult}, and the time and volume of each
+ * stage in the {@link SyncTrace} given, if any.
+ *
+ * A full response mostly repeats what is already stored, so only the days whose visible columns
+ * hash differently from the stored row ({@link ForecastRowHash}) are written.  A sync that
+ * changes nothing leaves the database, and its observers, untouched.
+ *
+ * With {@link #setHourlyEnabled(boolean)}, each group's 3-hour forecast is requested alongside
+ * its daily one and stored in the same batch.  The 3-hour forecast is a bonus: if it fails, the
+ * location's status is still that of its daily forecast.
+ */
+public class ForecastSyncEngine {
+    private static final String LOG_TAG = ForecastSyncEngine.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_PARALLEL_FETCHES = 4;
+    static final int FORECAST_DAYS = 14;
+    // Today and tomorrow, the days whose changes matter most
+    static final int NEAR_TERM_DAYS = 2;
+    // How long past periods of the 3-hour forecast are kept, so the current one is still there
+    static final long HOURLY_RETENTION_SECONDS = 3 * 60 * 60;
+
+    // How long an idle fetch thread is kept around between syncs
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * What happened to one location during a sync.
+     */
+    public static class LocationResult {
+        public final String locationSetting;
+        @SunshineSyncAdapter.LocationStatus
+        public int status = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+        // From the start of the request to the end of parsing
+        public long latencyMillis;
+        // True if the server said the forecast hasn't changed since the last sync
+        public boolean notModified;
+        // Only the first location of a group is charged with the bytes of the shared request
+        public long wireBytes;
+        public long decodedBytes;
+        // Weather rows of the location that were new or differed from the stored ones; the
+        // rest of the forecast was left alone
+        public int changedRows;
+        // True if one of the changed rows is today's or tomorrow's
+        public boolean nearTermChanged;
+        // 3-hour periods written for the location
+        public int hourlyRows;
+
+        // The forecast fetched for the location, or null if the fetch failed outright
+        Forecast forecast;
+        // The 3-hour forecast fetched for the location, or null if it wasn't fetched or failed
+        Forecast hourly;
+
+        LocationResult(String locationSetting) {
+            this.locationSetting = locationSetting;
+        }
+
+        boolean hasNewForecast() {
+            return status == SunshineSyncAdapter.LOCATION_STATUS_OK
+                    && forecast != null && forecast.hasDays();
+        }
+
+        boolean hasNewHourly() {
+            return hourly != null && hourly.hasDays();
+        }
+
+        /**
+         * @return a result for another location of the same group, sharing this one's response
+         */
+        LocationResult copyFor(String otherLocationSetting) {
+            LocationResult copy = new LocationResult(otherLocationSetting);
+            copy.status = status;
+            copy.latencyMillis = latencyMillis;
+            copy.notModified = notModified;
+            copy.forecast = forecast;
+            copy.hourly = hourly;
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            return locationSetting + ": status " + status + ", " + latencyMillis + "ms"
+                    + (notModified ? ", not modified" : "") + ", " + changedRows + " rows changed";
+        }
+    }
+
+    /**
+     * The locations answered by a single request.
+     */
+    static class FetchGroup {
+        // The source's id for the city, or 0 to query by the location setting
+        final long cityId;
+        final List<String> locationSettings = new ArrayList<String>();
+
+        FetchGroup(long cityId) {
+            this.cityId = cityId;
+        }
+    }
+
+    private final Context mContext;
+    private final WeatherSource mSource;
+    private final ThreadPoolExecutor mExecutor;
+    private final LocationRegistry mLocationRegistry = LocationRegistry.getInstance();
+    private volatile boolean mHourlyEnabled;
+
+    public ForecastSyncEngine(Context context, WeatherSource source, int maxParallelFetches) {
+        mContext = context;
+        mSource = source;
+        mExecutor = new ThreadPoolExecutor(maxParallelFetches, maxParallelFetches,
+                THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        // Periodic syncs are hours apart, there's no point keeping the threads in between
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Whether to fetch and store the 3-hour forecast as well.  Off by default.
+     */
+    public void setHourlyEnabled(boolean hourlyEnabled) {
+        mHourlyEnabled = hourlyEnabled;
+    }
+
+    public List<LocationResult> fetchAll(List<String> locationSettings)
+            throws InterruptedException {
+        return fetchAll(locationSettings, new SyncTrace());
+    }
+
+    /**
+     * Fetches and parses the forecast of every location, in parallel.  Nothing is stored yet;
+     * pass the results to {@link #commit(List, SyncTrace)} for that.
+     *
+     * @return one result per location, in the order given
+     * @throws InterruptedException if the sync was cancelled while waiting on the fetches
+     */
+    public List<LocationResult> fetchAll(List<String> locationSettings, final SyncTrace trace)
+            throws InterruptedException {
+        Map<String, Long> cityIds = new HashMap<String, Long>();
+        for (Map.Entry<String, LocationRegistry.Location> entry
+                : mLocationRegistry.getAll(mContext).entrySet()) {
+            cityIds.put(entry.getKey(), entry.getValue().cityId);
+        }
+        List<FetchGroup> groups = groupByCity(locationSettings, cityIds);
+
+        List<Future<LocationResult>> futures = new ArrayList<Future<LocationResult>>(groups.size());
+        for (final FetchGroup group : groups) {
+            futures.add(mExecutor.submit(new Callable<LocationResult>() {
+                @Override
+                public LocationResult call() {
+                    return fetchGroup(group, trace);
+                }
+            }));
+        }
+        // Queued behind all the daily requests, so they are never held up by the 3-hour ones
+        List<Future<Forecast>> hourlyFutures = new ArrayList<Future<Forecast>>();
+        if (mHourlyEnabled) {
+            for (final FetchGroup group : groups) {
+                hourlyFutures.add(mExecutor.submit(new Callable<Forecast>() {
+                    @Override
+                    public Forecast call() {
+                        return fetchHourly(group, trace);
+                    }
+                }));
+            }
+        }
+
+        Map<String, LocationResult> resultsBySetting = new HashMap<String, LocationResult>();
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                List<String> groupSettings = groups.get(i).locationSettings;
+                LocationResult result;
+                try {
+                    result = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error syncing " + groupSettings, e);
+                    result = new LocationResult(groupSettings.get(0));
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+                }
+                if (!hourlyFutures.isEmpty()) {
+                    try {
+                        result.hourly = hourlyFutures.get(i).get();
+                    } catch (ExecutionException e) {
+                        Log.e(LOG_TAG, "Error fetching the 3-hour forecast for " + groupSettings, e);
+                    }
+                    if (result.hourly != null) {
+                        result.wireBytes += result.hourly.wireBytes;
+                        result.decodedBytes += result.hourly.decodedBytes;
+                    }
+                }
+                // Hand the one response out to every location that asked for this city
+                resultsBySetting.put(result.locationSetting, result);
+                for (int j = 1; j < groupSettings.size(); j++) {
+                    resultsBySetting.put(groupSettings.get(j), result.copyFor(groupSettings.get(j)));
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<LocationResult> future : futures) {
+                future.cancel(true);
+            }
+            for (Future<Forecast> future : hourlyFutures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+
+        List<LocationResult> results = new ArrayList<LocationResult>(locationSettings.size());
+        for (String locationSetting : locationSettings) {
+            results.add(resultsBySetting.get(locationSetting));
+        }
+        return results;
+    }
+
+    /**
+     * Groups the locations that resolved to the same city on an earlier sync.  Locations whose
+     * city isn't known yet get a group of their own.  Groups keep the order of their first
+     * location, so the preferred location is always requested first.
+     */
+    static List<FetchGroup> groupByCity(List<String> locationSettings,
+                                        Map<String, Long> cityIds) {
+        Map<Long, FetchGroup> groupsByCity = new HashMap<Long, FetchGroup>();
+        List<FetchGroup> groups = new ArrayList<FetchGroup>();
+        for (String locationSetting : locationSettings) {
+            Long cityId = cityIds.get(locationSetting);
+            FetchGroup group;
+            if (cityId == null || cityId == 0) {
+                group = new FetchGroup(0);
+                groups.add(group);
+            } else {
+                group = groupsByCity.get(cityId);
+                if (group == null) {
+                    group = new FetchGroup(cityId);
+                    groupsByCity.put(cityId, group);
+                    groups.add(group);
+                }
+            }
+            group.locationSettings.add(locationSetting);
+        }
+        return groups;
+    }
+
+    public int commit(List<LocationResult> results)
+            throws RemoteException, OperationApplicationException {
+        return commit(results, new SyncTrace());
+    }
+
+    /**
+     * Stores the days of every new forecast that differ from the stored ones, and the periods of
+     * every new 3-hour forecast, and prunes the days and periods that have passed, as a single
+     * provider batch.  Each result's {@link LocationResult#changedRows} and
+     * {@link LocationResult#hourlyRows} are set along the way.
+     *
+     * @return the number of weather rows written, 0 if nothing visible changed
+     */
+    public int commit(List<LocationResult> results, SyncTrace trace)
+            throws RemoteException, OperationApplicationException {
+        long lookupStart = SystemClock.elapsedRealtime();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        Map<String, LocationRegistry.Location> storedLocations = null;
+        int rowCount = 0;
+        int comparedRows = 0;
+        int locationRows = 0;
+        int hourlyRows = 0;
+
+        for (LocationResult result : results) {
+            boolean newForecast = result.hasNewForecast();
+            boolean newHourly = result.hasNewHourly();
+            if (!newForecast && !newHourly) {
+                continue;
+            }
+            // Both carry the city, the daily one is preferred if there is one
+            Forecast forecast = newForecast ? result.forecast : result.hourly;
+            if (storedLocations == null) {
+                storedLocations = mLocationRegistry.getAll(mContext);
+            }
+            LocationRegistry.Location stored = storedLocations.get(result.locationSetting);
+            int locationBackReference = -1;
+            if (stored == null) {
+                ContentValues locationValues = new ContentValues();
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, forecast.cityName);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, result.locationSetting);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, forecast.cityLatitude);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, forecast.cityLongitude);
+                if (forecast.cityId != 0) {
+                    locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, forecast.cityId);
+                }
+                operations.add(ContentProviderOperation
+                        .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                        .withValues(locationValues)
+                        .build());
+                // The weather rows pick up the new location's id from the insert's result
+                locationBackReference = operations.size() - 1;
+                locationRows++;
+            } else if (forecast.cityId != 0 && forecast.cityId != stored.cityId) {
+                // Locations stored before the city id was kept learn it on their next full fetch
+                operations.add(ContentProviderOperation
+                        .newUpdate(WeatherContract.LocationEntry.CONTENT_URI)
+                        .withSelection(WeatherContract.LocationEntry._ID + " = ?",
+                                new String[]{Long.toString(stored.id)})
+                        .withValue(WeatherContract.LocationEntry.COLUMN_CITY_ID, forecast.cityId)
+                        .build());
+                locationRows++;
+            }
+
+            if (newHourly) {
+                // A period always replaces the one stored for the same time
+                for (ContentValues periodValues : result.hourly.days) {
+                    ContentProviderOperation.Builder builder = ContentProviderOperation
+                            .newInsert(WeatherContract.HourlyEntry.CONTENT_URI)
+                            .withValues(periodValues);
+                    if (locationBackReference == -1) {
+                        builder.withValue(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, stored.id);
+                    } else {
+                        builder.withValueBackReference(WeatherContract.HourlyEntry.COLUMN_LOC_KEY,
+                                locationBackReference);
+                    }
+                    operations.add(builder.build());
+                }
+                result.hourlyRows = result.hourly.days.size();
+                hourlyRows += result.hourlyRows;
+            }
+            if (!newForecast) {
+                continue;
+            }
+
+            // A location that isn't stored yet has nothing to compare against
+            Map<Long, Long> storedHashes = stored == null
+                    ? Collections.<Long, Long>emptyMap()
+                    : loadRowHashes(stored.id);
+            int changedRows = 0;
+            for (int day = 0; day < forecast.days.size(); day++) {
+                ContentValues weatherValues = forecast.days.get(day);
+                Long storedHash = storedHashes.get(WeatherContract.normalizeDate(
+                        weatherValues.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)));
+                if (storedHash != null && storedHash == ForecastRowHash.of(weatherValues)) {
+                    continue;
+                }
+                changedRows++;
+                if (day < NEAR_TERM_DAYS) {
+                    result.nearTermChanged = true;
+                }
+                ContentProviderOperation.Builder builder = ContentProviderOperation
+                        .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withValues(weatherValues);
+                if (locationBackReference == -1) {
+                    builder.withValue(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, stored.id);
+                } else {
+                    builder.withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                            locationBackReference);
+                }
+                operations.add(builder.build());
+            }
+            result.changedRows = changedRows;
+            rowCount += changedRows;
+            comparedRows += forecast.days.size();
+        }
+        trace.addStage(SyncTrace.STAGE_STORE_LOOKUP, null,
+                SystemClock.elapsedRealtime() - lookupStart, 0, comparedRows);
+
+        // delete old data so we don't build up an endless history.  Days pass whether or not
+        // the forecast changed, so this runs on every sync; a delete of nothing notifies no one.
+        operations.add(ContentProviderOperation
+                .newDelete(WeatherContract.HourlyEntry.CONTENT_URI)
+                .withSelection(WeatherContract.HourlyEntry.COLUMN_TIME + " < ?",
+                        new String[]{Long.toString(System.currentTimeMillis() / 1000
+                                - HOURLY_RETENTION_SECONDS)})
+                .build());
+        operations.add(ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(getYesterday())})
+                .build());
+
+        // One transaction, so its parts can't be timed apart; the rows of each are counted
+        long batchStart = SystemClock.elapsedRealtime();
+        ContentProviderResult[] batchResults = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        Integer prunedHourly = batchResults[batchResults.length - 2].count;
+        Integer pruned = batchResults[batchResults.length - 1].count;
+        trace.addStage(SyncTrace.STAGE_STORE_BATCH,
+                locationRows + " location rows, " + rowCount + " weather rows, "
+                        + hourlyRows + " hourly rows, " + (pruned == null ? 0 : pruned)
+                        + " days and " + (prunedHourly == null ? 0 : prunedHourly)
+                        + " periods pruned",
+                SystemClock.elapsedRealtime() - batchStart, 0, operations.size());
+
+        // Only now that the rows are safely stored may the server answer 304 for them
+        for (LocationResult result : results) {
+            if (result.hasNewForecast()) {
+                mSource.commit(result.forecast);
+            }
+            if (result.hasNewHourly()) {
+                mSource.commit(result.hourly);
+            }
+        }
+        return rowCount;
+    }
+
+    /**
+     * Requests the forecast for a group.  The result is for the group's first location.
+     */
+    LocationResult fetchGroup(FetchGroup group, SyncTrace trace) {
+        LocationResult result = new LocationResult(group.locationSettings.get(0));
+        long start = SystemClock.elapsedRealtime();
+
+        // "Not modified" is only safe to act on if the rows from the last response are still
+        // there for every location that shares it (the database may have been cleared since),
+        // otherwise ask for the full forecast.
+        boolean allowNotModified = true;
+        for (String locationSetting : group.locationSettings) {
+            if (!hasStoredForecast(locationSetting)) {
+                allowNotModified = false;
+                break;
+            }
+        }
+
+        try {
+            Forecast forecast = mSource.fetchDailyForecast(group.cityId, result.locationSetting,
+                    FORECAST_DAYS, allowNotModified);
+            result.forecast = forecast;
+            result.status = forecast.status;
+            result.notModified = forecast.notModified;
+            result.wireBytes = forecast.wireBytes;
+            result.decodedBytes = forecast.decodedBytes;
+            String subject = group.locationSettings.toString();
+            trace.addStage(SyncTrace.STAGE_CONNECT, subject, forecast.connectMillis, 0, 0);
+            trace.addStage(SyncTrace.STAGE_FIRST_BYTE, subject, forecast.firstByteMillis, 0, 0);
+            trace.addStage(SyncTrace.STAGE_BODY_READ, subject, forecast.bodyReadMillis,
+                    forecast.wireBytes, 0);
+            trace.addStage(SyncTrace.STAGE_PARSE, subject, forecast.parseMillis,
+                    forecast.decodedBytes, forecast.days.size());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error fetching " + group.locationSettings, e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            result.latencyMillis = SystemClock.elapsedRealtime() - start;
+        }
+        if (result.status != SunshineSyncAdapter.LOCATION_STATUS_OK) {
+            trace.addStage(SyncTrace.STAGE_FETCH_FAILED,
+                    group.locationSettings + " status " + result.status,
+                    result.latencyMillis, 0, 0);
+        }
+        return result;
+    }
+
+    /**
+     * Requests the 3-hour forecast for a group.
+     *
+     * @return the forecast, or null if it couldn't be had; that is logged and traced, not thrown
+     */
+    Forecast fetchHourly(FetchGroup group, SyncTrace trace) {
+        long start = SystemClock.elapsedRealtime();
+        boolean allowNotModified = true;
+        for (String locationSetting : group.locationSettings) {
+            if (!hasStoredHourly(locationSetting)) {
+                allowNotModified = false;
+                break;
+            }
+        }
+
+        String subject = "hourly " + group.locationSettings;
+        try {
+            Forecast hourly = mSource.fetchHourlyForecast(group.cityId,
+                    group.locationSettings.get(0), allowNotModified);
+            trace.addStage(SyncTrace.STAGE_CONNECT, subject, hourly.connectMillis, 0, 0);
+            trace.addStage(SyncTrace.STAGE_FIRST_BYTE, subject, hourly.firstByteMillis, 0, 0);
+            trace.addStage(SyncTrace.STAGE_BODY_READ, subject, hourly.bodyReadMillis,
+                    hourly.wireBytes, 0);
+            trace.addStage(SyncTrace.STAGE_PARSE, subject, hourly.parseMillis,
+                    hourly.decodedBytes, hourly.days.size());
+            if (hourly.status == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                return hourly;
+            }
+            trace.addStage(SyncTrace.STAGE_FETCH_FAILED, subject + " status " + hourly.status,
+                    SystemClock.elapsedRealtime() - start, 0, 0);
+        } catch (IOException | JSONException e) {
+            Log.e(LOG_TAG, "Error fetching the 3-hour forecast for " + group.locationSettings, e);
+            trace.addStage(SyncTrace.STAGE_FETCH_FAILED, subject,
+                    SystemClock.elapsedRealtime() - start, 0, 0);
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the database holds 3-hour periods from now onwards for the location.
+     */
+    private boolean hasStoredHourly(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocationWithStartTime(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.HourlyEntry.TABLE_NAME + "." + WeatherContract.HourlyEntry._ID},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return true if the database holds forecast rows from today onwards for the location.
+     */
+    private boolean hasStoredForecast(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the {@link ForecastRowHash} of every weather row stored for the location, by date
+     */
+    private Map<Long, Long> loadRowHashes(long locationId) {
+        Map<Long, Long> hashes = new HashMap<Long, Long>();
+        String[] projection = new String[ForecastRowHash.COLUMNS.length + 1];
+        projection[0] = WeatherContract.WeatherEntry.COLUMN_DATE;
+        System.arraycopy(ForecastRowHash.COLUMNS, 0, projection, 1, ForecastRowHash.COLUMNS.length);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                projection,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)},
+                null);
+        if (cursor == null) {
+            return hashes;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                hashes.put(cursor.getLong(0), ForecastRowHash.of(cursor, 1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return hashes;
+    }
+
+    private static long getYesterday() {
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        dayTime = new Time();
+        return dayTime.setJulianDay(julianStartDay - 1);
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * Pull parser for the OpenWeatherMap 3-hour forecast response (the "forecast" endpoint), the
+ * counterpart of {@link ForecastJsonParser} for the daily one.
+ *
+ * Each period is handed to the {@link Callback} as a row for the hourly table, with its time
+ * and values already in the table's integer encoding.
+ */
+public class HourlyForecastJsonParser {
+
+    static final String OWM_LIST = "list";
+    static final String OWM_TIME = "dt";
+
+    // Temperature, pressure and humidity are children of the "main" object
+    static final String OWM_MAIN = "main";
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+
+    static final String OWM_WIND = "wind";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_WEATHER_ID = "id";
+
+    /**
+     * Receives the city and each period as they are read off the stream, in no guaranteed order.
+     */
+    public interface Callback extends ForecastJsonParser.CityCallback {
+        /**
+         * @param hourlyValues the hourly columns for the period, without the location key
+         */
+        void onPeriod(ContentValues hourlyValues);
+    }
+
+    private HourlyForecastJsonParser() {
+    }
+
+    /**
+     * Reads a 3-hour forecast from the given stream.
+     *
+     * @param in the response body.  It is not closed by this method.
+     * @return the "cod" message code of the response, or {@link HttpURLConnection#HTTP_OK} if the
+     * response did not carry one.  Nothing is read past a non-OK code.
+     * @throws JSONException if the response is not a well-formed forecast
+     * @throws IOException if the underlying stream fails
+     */
+    public static int parse(Reader in, Callback callback) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            int messageCode = HttpURLConnection.HTTP_OK;
+            boolean sawCity = false;
+            boolean sawList = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (ForecastJsonParser.OWM_MESSAGE_CODE.equals(name)) {
+                    // This endpoint sends the code as a string, which nextInt() also reads
+                    messageCode = reader.nextInt();
+                    if (messageCode != HttpURLConnection.HTTP_OK) {
+                        return messageCode;
+                    }
+                } else if (ForecastJsonParser.OWM_CITY.equals(name)) {
+                    ForecastJsonParser.readCity(reader, callback);
+                    sawCity = true;
+                } else if (OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        callback.onPeriod(readPeriod(reader));
+                    }
+                    reader.endArray();
+                    sawList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (!sawList) {
+                throw new JSONException("No value for " + OWM_LIST);
+            }
+            if (!sawCity) {
+                throw new JSONException("No value for " + ForecastJsonParser.OWM_CITY);
+            }
+            return messageCode;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    private static ContentValues readPeriod(JsonReader reader) throws IOException, JSONException {
+        ContentValues hourlyValues = new ContentValues();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TIME.equals(name)) {
+                hourlyValues.put(HourlyEntry.COLUMN_TIME, reader.nextLong());
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(mainName)) {
+                        hourlyValues.put(HourlyEntry.COLUMN_TEMP,
+                                HourlyEntry.encode(reader.nextDouble(), HourlyEntry.TEMP_SCALE));
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        hourlyValues.put(HourlyEntry.COLUMN_PRESSURE,
+                                HourlyEntry.encode(reader.nextDouble(), HourlyEntry.PRESSURE_SCALE));
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        hourlyValues.put(HourlyEntry.COLUMN_HUMIDITY, (int) reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        hourlyValues.put(HourlyEntry.COLUMN_WIND_SPEED,
+                                HourlyEntry.encode(reader.nextDouble(), HourlyEntry.WIND_SPEED_SCALE));
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        hourlyValues.put(HourlyEntry.COLUMN_DEGREES, Math.round(reader.nextDouble()));
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Only the first condition counts, as for the daily forecast
+                reader.beginArray();
+                if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                            hourlyValues.put(HourlyEntry.COLUMN_WEATHER_ID, (int) reader.nextDouble());
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        requireValue(hourlyValues, HourlyEntry.COLUMN_TIME, OWM_TIME);
+        requireValue(hourlyValues, HourlyEntry.COLUMN_TEMP, OWM_TEMPERATURE);
+        requireValue(hourlyValues, HourlyEntry.COLUMN_PRESSURE, OWM_PRESSURE);
+        requireValue(hourlyValues, HourlyEntry.COLUMN_HUMIDITY, OWM_HUMIDITY);
+        requireValue(hourlyValues, HourlyEntry.COLUMN_WEATHER_ID, OWM_WEATHER_ID);
+        // Calm periods can come without any wind
+        if (!hourlyValues.containsKey(HourlyEntry.COLUMN_WIND_SPEED)) {
+            hourlyValues.put(HourlyEntry.COLUMN_WIND_SPEED, 0);
+        }
+        if (!hourlyValues.containsKey(HourlyEntry.COLUMN_DEGREES)) {
+            hourlyValues.put(HourlyEntry.COLUMN_DEGREES, 0);
+        }
+        return hourlyValues;
+    }
+
+    private static void requireValue(ContentValues values, String column, String owmName)
+            throws JSONException {
+        if (!values.containsKey(column)) {
+            throw new JSONException("No value for " + owmName);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.android.sunshine.app.sync;
+
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Redraws everything that shows the stored forecast, without syncing.  Temperatures are stored
+ * in metric and only converted for display, so a change of units needs no new data: the open
+ * lists, the widgets, the wearable, Muzei and the notification are all updated from the database
+ * in one pass.
+ *
+ * It also hears about the notification being dismissed, so the redraw won't bring it back, and
+ * about locations that are no longer synced, so what was kept about them can be dropped.
+ */
+public class LocalRefreshService extends IntentService {
+    private static final String ACTION_DISPLAY_CHANGED =
+            "com.example.android.sunshine.app.sync.action.DISPLAY_CHANGED";
+    private static final String ACTION_NOTIFICATION_DISMISSED =
+            "com.example.android.sunshine.app.sync.action.NOTIFICATION_DISMISSED";
+    private static final String ACTION_LOCATION_DROPPED =
+            "com.example.android.sunshine.app.sync.action.LOCATION_DROPPED";
+    private static final String EXTRA_LOCATION_SETTING =
+            "com.example.android.sunshine.app.sync.extra.LOCATION_SETTING";
+
+    public LocalRefreshService() {
+        super("LocalRefreshService");
+    }
+
+    /**
+     * Starts a redraw from the stored forecast, e.g. after the units changed.
+     */
+    public static void startActionDisplayChanged(Context context) {
+        context.startService(new Intent(context, LocalRefreshService.class)
+                .setAction(ACTION_DISPLAY_CHANGED));
+    }
+
+    /**
+     * Starts dropping what is kept about a location that is no longer synced.
+     */
+    public static void startActionLocationDropped(Context context, String locationSetting) {
+        context.startService(new Intent(context, LocalRefreshService.class)
+                .setAction(ACTION_LOCATION_DROPPED)
+                .putExtra(EXTRA_LOCATION_SETTING, locationSetting));
+    }
+
+    static PendingIntent getNotificationDismissedIntent(Context context) {
+        return PendingIntent.getService(context, 0,
+                new Intent(context, LocalRefreshService.class)
+                        .setAction(ACTION_NOTIFICATION_DISMISSED),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (intent == null) {
+            return;
+        }
+        if (ACTION_DISPLAY_CHANGED.equals(intent.getAction())) {
+            refresh(this);
+        } else if (ACTION_NOTIFICATION_DISMISSED.equals(intent.getAction())) {
+            ForecastFanOut.onNotificationDismissed(this);
+        } else if (ACTION_LOCATION_DROPPED.equals(intent.getAction())) {
+            SunshineSyncAdapter.forgetLocation(this,
+                    intent.getStringExtra(EXTRA_LOCATION_SETTING));
+        }
+    }
+
+    /**
+     * The redraw itself, on the calling thread.  Should not be called from the UI thread.
+     */
+    static void refresh(Context context) {
+        // Loaders of the open lists and the detail view reload on this
+        context.getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        ForecastFanOut.updateWidgets(context);
+        ForecastFanOut.updateMuzei(context);
+        ForecastFanOut.refreshNotification(context);
+    }
+}
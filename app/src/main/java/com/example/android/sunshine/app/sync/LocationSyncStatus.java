@@ -0,0 +1,87 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * The outcome of the last sync of each location, kept in its own SharedPreferences file.
+ *
+ * The global location status preference only describes the preferred location; this records the
+ * status, latency, time and number of changed weather rows of the last attempt for every saved
+ * location.
+ */
+public class LocationSyncStatus {
+    static final String PREFS_NAME = "location_sync_status";
+
+    private static final String SUFFIX_STATUS = ".status";
+    private static final String SUFFIX_LATENCY = ".latency";
+    private static final String SUFFIX_TIME = ".time";
+    private static final String SUFFIX_CHANGED_ROWS = ".changed_rows";
+
+    private final SharedPreferences mPrefs;
+
+    public LocationSyncStatus(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Records the results of one sync.  Should not be called from the UI thread, it uses commit.
+     */
+    public void record(Iterable<ForecastSyncEngine.LocationResult> results) {
+        long now = System.currentTimeMillis();
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (ForecastSyncEngine.LocationResult result : results) {
+            editor.putInt(result.locationSetting + SUFFIX_STATUS, result.status);
+            editor.putLong(result.locationSetting + SUFFIX_LATENCY, result.latencyMillis);
+            editor.putLong(result.locationSetting + SUFFIX_TIME, now);
+            editor.putInt(result.locationSetting + SUFFIX_CHANGED_ROWS, result.changedRows);
+        }
+        editor.commit();
+    }
+
+    @SunshineSyncAdapter.LocationStatus
+    @SuppressWarnings("ResourceType")
+    public int getStatus(String locationSetting) {
+        return mPrefs.getInt(locationSetting + SUFFIX_STATUS,
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+
+    /**
+     * @return how long the last sync of the location took, in milliseconds, or -1 if it has
+     * never been synced
+     */
+    public long getLatency(String locationSetting) {
+        return mPrefs.getLong(locationSetting + SUFFIX_LATENCY, -1);
+    }
+
+    /**
+     * @return when the location was last synced, or 0 if it has never been synced
+     */
+    public long getLastSyncTime(String locationSetting) {
+        return mPrefs.getLong(locationSetting + SUFFIX_TIME, 0);
+    }
+
+    /**
+     * @return how many of the location's weather rows the last sync wrote, or -1 if it has never
+     * been synced
+     */
+    public int getChangedRows(String locationSetting) {
+        return mPrefs.getInt(locationSetting + SUFFIX_CHANGED_ROWS, -1);
+    }
+
+    /**
+     * Forgets a location, e.g. once it is no longer saved.
+     */
+    public void remove(String locationSetting) {
+        mPrefs.edit()
+                .remove(locationSetting + SUFFIX_STATUS)
+                .remove(locationSetting + SUFFIX_LATENCY)
+                .remove(locationSetting + SUFFIX_TIME)
+                .remove(locationSetting + SUFFIX_CHANGED_ROWS)
+                .apply();
+    }
+
+    public void clear() {
+        mPrefs.edit().clear().commit();
+    }
+}
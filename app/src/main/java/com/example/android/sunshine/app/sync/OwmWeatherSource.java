@@ -0,0 +1,351 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.net.ConditionalRequestCache;
+import com.example.android.sunshine.app.net.HttpFetcher;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Fetches forecasts from OpenWeatherMap's forecast/daily endpoint, and 3-hour forecasts from its
+ * forecast endpoint.
+ */
+public class OwmWeatherSource implements WeatherSource {
+
+    public static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+
+    // Five days of 3-hour periods
+    static final int HOURLY_PERIODS = 40;
+
+    private static final String QUERY_PARAM = "q";
+    private static final String CITY_ID_PARAM = "id";
+
+    /**
+     * Collects the days emitted by {@link ForecastJsonParser} into a {@link Forecast}.
+     */
+    static class ForecastCollector implements ForecastJsonParser.Callback {
+        final Forecast forecast;
+        final Time dayTime;
+        final int julianStartDay;
+
+        /**
+         * @param fetchedAtMillis when the payload was received: its first day is that day
+         */
+        ForecastCollector(int expectedDays, long fetchedAtMillis) {
+            this.forecast = new Forecast(expectedDays);
+
+            // OWM returns daily forecasts based upon the local time of the city that is being
+            // asked for, which means that we need to know the GMT offset to translate this data
+            // properly.
+
+            // Since this data is also sent in-order and the first day is always the
+            // current day, we're going to take advantage of that to get a nice
+            // normalized UTC date for all of our weather.
+
+            Time now = new Time();
+            now.set(fetchedAtMillis);
+
+            // we start at the day returned by local time. Otherwise this is a mess.
+            this.julianStartDay = Time.getJulianDay(fetchedAtMillis, now.gmtoff);
+
+            // now we work exclusively in UTC
+            this.dayTime = new Time();
+        }
+
+        @Override
+        public void onCity(long cityId, String cityName, double lat, double lon) {
+            forecast.cityId = cityId;
+            forecast.cityName = cityName;
+            forecast.cityLatitude = lat;
+            forecast.cityLongitude = lon;
+        }
+
+        @Override
+        public void onDay(int dayIndex, ContentValues weatherValues) {
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            long dateTime = dayTime.setJulianDay(julianStartDay + dayIndex);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+            forecast.days.add(weatherValues);
+        }
+    }
+
+    /**
+     * Collects the periods emitted by {@link HourlyForecastJsonParser} into a {@link Forecast}.
+     */
+    static class HourlyCollector implements HourlyForecastJsonParser.Callback {
+        final Forecast forecast = new Forecast(HOURLY_PERIODS);
+
+        @Override
+        public void onCity(long cityId, String cityName, double lat, double lon) {
+            forecast.cityId = cityId;
+            forecast.cityName = cityName;
+            forecast.cityLatitude = lat;
+            forecast.cityLongitude = lon;
+        }
+
+        @Override
+        public void onPeriod(ContentValues hourlyValues) {
+            forecast.days.add(hourlyValues);
+        }
+    }
+
+    /**
+     * Turns a response body into a forecast.
+     */
+    private interface PayloadParser {
+        Forecast parse(Reader reader, long fetchedAtMillis) throws IOException, JSONException;
+    }
+
+    private static final PayloadParser HOURLY_PARSER = new PayloadParser() {
+        @Override
+        public Forecast parse(Reader reader, long fetchedAtMillis)
+                throws IOException, JSONException {
+            return parseHourlyForecast(reader);
+        }
+    };
+
+    private final HttpFetcher mFetcher;
+    private final String mBaseUrl;
+    private final String mHourlyBaseUrl;
+    private final String mApiKey;
+    private PayloadArchive mArchive;
+
+    public OwmWeatherSource(HttpFetcher fetcher) {
+        this(fetcher, FORECAST_BASE_URL, BuildConfig.OPEN_WEATHER_MAP_API_KEY);
+    }
+
+    /**
+     * @param baseUrl the forecast/daily endpoint, ending in '?'.  The 3-hour forecast is expected
+     *                next to it, at forecast.
+     */
+    public OwmWeatherSource(HttpFetcher fetcher, String baseUrl, String apiKey) {
+        mFetcher = fetcher;
+        mBaseUrl = baseUrl;
+        mHourlyBaseUrl = baseUrl.replace("/forecast/daily?", "/forecast?");
+        mApiKey = apiKey;
+    }
+
+    /**
+     * @param archive where to keep a copy of every daily payload received, or null to keep none
+     */
+    public void setArchive(PayloadArchive archive) {
+        mArchive = archive;
+    }
+
+    /**
+     * Drops the validators of every request made for a location, once it is no longer synced.
+     *
+     * @param cityId OWM's id for the city, or 0 if it was never learnt
+     */
+    static void forgetValidators(ConditionalRequestCache cache, String locationSetting,
+                                 long cityId) {
+        cache.removeWhere(QUERY_PARAM, locationSetting);
+        if (cityId != 0) {
+            cache.removeWhere(CITY_ID_PARAM, Long.toString(cityId));
+        }
+    }
+
+    @Override
+    public Forecast fetchDailyForecast(long cityId, String locationSetting, final int days,
+                                       boolean allowNotModified)
+            throws IOException, JSONException {
+        return fetch(buildForecastUrl(mBaseUrl, cityId, locationSetting, days), cityId,
+                locationSetting, allowNotModified, true, new PayloadParser() {
+                    @Override
+                    public Forecast parse(Reader reader, long fetchedAtMillis)
+                            throws IOException, JSONException {
+                        return parseForecast(reader, days, fetchedAtMillis);
+                    }
+                });
+    }
+
+    @Override
+    public Forecast fetchHourlyForecast(long cityId, String locationSetting,
+                                        boolean allowNotModified)
+            throws IOException, JSONException {
+        // The 3-hour forecast is only offered as the whole five days
+        return fetch(buildForecastUrl(mHourlyBaseUrl, cityId, locationSetting, 0), cityId,
+                locationSetting, allowNotModified, false, HOURLY_PARSER);
+    }
+
+    /**
+     * @param archive true to keep a copy of the payload in the archive, if there is one
+     */
+    private Forecast fetch(URL url, long cityId, String locationSetting, boolean allowNotModified,
+                           boolean archive, PayloadParser parser)
+            throws IOException, JSONException {
+        if (!allowNotModified) {
+            mFetcher.invalidate(url);
+        }
+
+        // These two need to be declared outside the try/catch
+        // so that they can be closed in the finally block.
+        HttpFetcher.Response response = null;
+        Reader reader = null;
+        Forecast forecast = null;
+
+        try {
+            // Create the request to OpenWeatherMap, and open the connection
+            response = mFetcher.get(url);
+
+            if (response.isNotModified()) {
+                // Nothing has changed since the last sync, so there is nothing to parse.
+                forecast = new Forecast(0);
+                forecast.notModified = true;
+                forecast.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                forecast.cityId = cityId;
+                return forecast;
+            }
+
+            InputStream inputStream = response.getBody();
+            if (inputStream == null) {
+                forecast = new Forecast(0);
+                forecast.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                return forecast;
+            }
+            // The response is parsed straight off the stream, deflated on the way for the
+            // archive.  An empty stream surfaces as an EOFException from the parser.
+            PayloadArchive.Recorder recorder = null;
+            if (archive && mArchive != null) {
+                inputStream = recorder = new PayloadArchive.Recorder(inputStream);
+            }
+            reader = new InputStreamReader(inputStream, "UTF-8");
+            long fetchedAt = System.currentTimeMillis();
+            long parseStart = SystemClock.elapsedRealtime();
+            try {
+                forecast = parser.parse(reader, fetchedAt);
+            } catch (JSONException e) {
+                // The payloads that don't parse are the ones most worth keeping
+                if (recorder != null) {
+                    mArchive.appendDeflated(fetchedAt, cityId, locationSetting,
+                            recorder.getRawLength(), recorder.finish());
+                }
+                throw e;
+            }
+            forecast.parseMillis = Math.max(0, SystemClock.elapsedRealtime() - parseStart
+                    - response.getBodyReadMillis());
+            if (forecast.status == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                forecast.response = response;
+            }
+            if (recorder != null) {
+                mArchive.appendDeflated(fetchedAt, cityId, locationSetting,
+                        recorder.getRawLength(), recorder.finish());
+            }
+            return forecast;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    // Nothing useful to do, the response has been read
+                }
+            }
+            if (response != null) {
+                response.close();
+                if (forecast != null) {
+                    forecast.wireBytes = response.getWireBytes();
+                    forecast.decodedBytes = response.getDecodedBytes();
+                    forecast.connectMillis = response.getConnectMillis();
+                    forecast.firstByteMillis = response.getFirstByteMillis();
+                    forecast.bodyReadMillis = response.getBodyReadMillis();
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses a forecast/daily payload.
+     *
+     * @param fetchedAtMillis when the payload was received, which dates its days
+     * @return the forecast, with its status set from the payload's message code
+     */
+    static Forecast parseForecast(Reader reader, int days, long fetchedAtMillis)
+            throws IOException, JSONException {
+        ForecastCollector collector = new ForecastCollector(days, fetchedAtMillis);
+        int messageCode = ForecastJsonParser.parse(reader, collector);
+        return applyMessageCode(collector.forecast, messageCode);
+    }
+
+    /**
+     * Parses a 3-hour forecast payload.  Its rows are for the hourly table.
+     */
+    static Forecast parseHourlyForecast(Reader reader) throws IOException, JSONException {
+        HourlyCollector collector = new HourlyCollector();
+        int messageCode = HourlyForecastJsonParser.parse(reader, collector);
+        return applyMessageCode(collector.forecast, messageCode);
+    }
+
+    private static Forecast applyMessageCode(Forecast forecast, int messageCode) {
+        // do we have an error?
+        switch (messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                forecast.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                forecast.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                forecast.days.clear();
+                break;
+            default:
+                forecast.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                forecast.days.clear();
+                break;
+        }
+        return forecast;
+    }
+
+    @Override
+    public void commit(Forecast forecast) {
+        if (forecast.response != null) {
+            mFetcher.commit(forecast.response);
+        }
+    }
+
+    /**
+     * @param cityId OWM's id for the city, or 0 to query by the location setting instead
+     * @param days the number of days to ask for, or 0 to leave it to the endpoint
+     */
+    URL buildForecastUrl(String baseUrl, long cityId, String locationQuery, int days)
+            throws IOException {
+        String format = "json";
+        String units = "metric";
+
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        Uri.Builder builder = Uri.parse(baseUrl).buildUpon();
+        if (cityId != 0) {
+            builder.appendQueryParameter(CITY_ID_PARAM, Long.toString(cityId));
+        } else {
+            builder.appendQueryParameter(QUERY_PARAM, locationQuery);
+        }
+        builder.appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units);
+        if (days > 0) {
+            builder.appendQueryParameter(DAYS_PARAM, Integer.toString(days));
+        }
+        Uri builtUri = builder
+                .appendQueryParameter(APPID_PARAM, mApiKey)
+                .build();
+
+        return new URL(builtUri.toString());
+    }
+}
@@ -0,0 +1,446 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * An append-only archive of the raw forecast payloads the sync received, so that field issues
+ * can be reproduced, and the pipeline re-run after a parser change, without fetching again (see
+ * {@link ArchivedWeatherSource}).
+ *
+ * Payloads are deflated and appended, one record per payload, to segment files in the app's
+ * private files directory.  Each record is written with a single channel write.  Once a segment
+ * reaches {@link #DEFAULT_SEGMENT_BYTES} the next one is started, and only the newest
+ * {@link #DEFAULT_MAX_SEGMENTS} segments are kept.  Segments are read back memory-mapped; a
+ * record cut short by a crash ends its segment, it doesn't spoil the others.
+ *
+ * A record is: magic, fetch time, city id, location setting (length-prefixed UTF-8), raw length,
+ * compressed length, CRC32 of the compressed bytes, then the compressed bytes.
+ */
+public class PayloadArchive {
+    private static final String LOG_TAG = PayloadArchive.class.getSimpleName();
+
+    static final String DIRECTORY_NAME = "payload_archive";
+    public static final int DEFAULT_SEGMENT_BYTES = 256 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 4;
+
+    private static final String SEGMENT_PREFIX = "payloads-";
+    private static final String SEGMENT_SUFFIX = ".bin";
+    private static final int MAGIC = 0x53554e31; // "SUN1"
+    private static final int HEADER_BYTES = 4 + 8 + 8 + 2 + 4 + 4 + 8;
+    // Deflate can't shrink data by more than about 1032:1
+    private static final int MAX_DEFLATE_RATIO = 1032;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * One archived payload.
+     */
+    public static class Entry {
+        // When the payload was received, in System.currentTimeMillis() time
+        public final long fetchedAt;
+        // The city the payload was requested for, or 0 if it was requested by location setting
+        public final long cityId;
+        public final String locationSetting;
+        public final byte[] payload;
+
+        Entry(long fetchedAt, long cityId, String locationSetting, byte[] payload) {
+            this.fetchedAt = fetchedAt;
+            this.cityId = cityId;
+            this.locationSetting = locationSetting;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Deflates everything read through it as it goes, so a payload that is parsed straight off
+     * the network can be archived afterwards without ever being held whole: only the compressed
+     * bytes are buffered.  Closing it releases the deflater.
+     */
+    public static class Recorder extends FilterInputStream {
+        private final Deflater mDeflater = new Deflater();
+        private final ByteArrayOutputStream mCompressed = new ByteArrayOutputStream(4 * 1024);
+        private final byte[] mBuffer = new byte[4096];
+        private final byte[] mOneByte = new byte[1];
+        private int mRawLength;
+        private boolean mFinished;
+
+        public Recorder(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mOneByte[0] = (byte) b;
+                record(mOneByte, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                record(buffer, offset, read);
+            }
+            return read;
+        }
+
+        private void record(byte[] buffer, int offset, int count) {
+            if (mFinished) {
+                return;
+            }
+            mRawLength += count;
+            // The deflater doesn't copy its input, so it is drained before the caller reuses it
+            mDeflater.setInput(buffer, offset, count);
+            while (!mDeflater.needsInput()) {
+                drain();
+            }
+        }
+
+        private void drain() {
+            int deflated = mDeflater.deflate(mBuffer);
+            if (deflated > 0) {
+                mCompressed.write(mBuffer, 0, deflated);
+            }
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            // Skipped bytes must still make it into the copy
+            byte[] buffer = new byte[(int) Math.min(byteCount, 4096)];
+            long skipped = 0;
+            while (skipped < byteCount) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, byteCount - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Ends the recording; what is read from now on isn't recorded.
+         *
+         * @return the bytes read so far, deflated
+         */
+        public byte[] finish() {
+            if (!mFinished) {
+                mFinished = true;
+                mDeflater.finish();
+                while (!mDeflater.finished()) {
+                    drain();
+                }
+            }
+            return mCompressed.toByteArray();
+        }
+
+        /**
+         * @return how many bytes were read before the recording ended
+         */
+        public int getRawLength() {
+            return mRawLength;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                mDeflater.end();
+            }
+        }
+    }
+
+    private final File mDirectory;
+    private final int mSegmentBytes;
+    private final int mMaxSegments;
+    private int mCurrentSegment = -1;
+
+    public PayloadArchive(Context context) {
+        this(new File(context.getFilesDir(), DIRECTORY_NAME), DEFAULT_SEGMENT_BYTES,
+                DEFAULT_MAX_SEGMENTS);
+    }
+
+    public PayloadArchive(File directory, int segmentBytes, int maxSegments) {
+        mDirectory = directory;
+        mSegmentBytes = segmentBytes;
+        mMaxSegments = maxSegments;
+    }
+
+    /**
+     * Appends a payload.  Failures are logged, never thrown: losing an archive record must not
+     * fail the sync.
+     */
+    public void append(long fetchedAt, long cityId, String locationSetting, byte[] payload) {
+        // Compress outside the lock, parallel fetches only wait for each other's writes
+        appendDeflated(fetchedAt, cityId, locationSetting, payload.length, deflate(payload));
+    }
+
+    /**
+     * Appends a payload that was deflated as it was read, e.g. by a {@link Recorder}.  Failures
+     * are logged, never thrown.
+     *
+     * @param rawLength the payload's length before it was deflated
+     */
+    public void appendDeflated(long fetchedAt, long cityId, String locationSetting,
+                               int rawLength, byte[] compressed) {
+        byte[] setting = locationSetting.getBytes(UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(compressed);
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + setting.length + compressed.length);
+        record.putInt(MAGIC)
+                .putLong(fetchedAt)
+                .putLong(cityId)
+                .putShort((short) setting.length)
+                .put(setting)
+                .putInt(rawLength)
+                .putInt(compressed.length)
+                .putLong(crc.getValue())
+                .put(compressed);
+        record.flip();
+
+        synchronized (this) {
+            try {
+                write(record);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Could not archive the payload for " + locationSetting, e);
+            }
+        }
+    }
+
+    private void write(ByteBuffer record) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Could not create " + mDirectory);
+        }
+        if (mCurrentSegment == -1) {
+            int[] segments = listSegments();
+            mCurrentSegment = segments.length == 0 ? 0 : segments[segments.length - 1];
+        }
+        File segment = segmentFile(mCurrentSegment);
+        if (segment.length() > 0 && segment.length() + record.remaining() > mSegmentBytes) {
+            mCurrentSegment++;
+            segment = segmentFile(mCurrentSegment);
+            deleteOldSegments();
+        }
+
+        FileOutputStream out = new FileOutputStream(segment, true);
+        try {
+            FileChannel channel = out.getChannel();
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void deleteOldSegments() {
+        int[] segments = listSegments();
+        // The new segment isn't on disk yet, so keep one fewer
+        for (int i = 0; i < segments.length - (mMaxSegments - 1); i++) {
+            if (!segmentFile(segments[i]).delete()) {
+                Log.w(LOG_TAG, "Could not delete archive segment " + segments[i]);
+            }
+        }
+    }
+
+    /**
+     * @return every archived payload, oldest first
+     */
+    public synchronized List<Entry> readAll() {
+        List<Entry> entries = new ArrayList<Entry>();
+        for (int segment : listSegments()) {
+            try {
+                readSegment(segmentFile(segment), entries);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Could not read archive segment " + segment, e);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return the most recent payload requested for the city or, if cityId is 0, for the
+     * location setting, or null if there is none
+     */
+    public Entry findLatest(long cityId, String locationSetting) {
+        List<Entry> entries = readAll();
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Entry entry = entries.get(i);
+            if (cityId != 0 ? entry.cityId == cityId
+                    : entry.locationSetting.equals(locationSetting)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the bytes the archive takes on disk
+     */
+    public synchronized long getSize() {
+        long size = 0;
+        for (int segment : listSegments()) {
+            size += segmentFile(segment).length();
+        }
+        return size;
+    }
+
+    public synchronized void clear() {
+        for (int segment : listSegments()) {
+            segmentFile(segment).delete();
+        }
+        mCurrentSegment = -1;
+    }
+
+    private static void readSegment(File file, List<Entry> entries) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.remaining() >= HEADER_BYTES) {
+                Entry entry = readRecord(buffer);
+                if (entry == null) {
+                    Log.w(LOG_TAG, "Archive segment " + file.getName() + " ends in a bad record");
+                    return;
+                }
+                entries.add(entry);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Entry readRecord(ByteBuffer buffer) {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                return null;
+            }
+            long fetchedAt = buffer.getLong();
+            long cityId = buffer.getLong();
+            int settingLength = buffer.getShort() & 0xffff;
+            if (settingLength > buffer.remaining()) {
+                return null;
+            }
+            byte[] setting = new byte[settingLength];
+            buffer.get(setting);
+            int rawLength = buffer.getInt();
+            int compressedLength = buffer.getInt();
+            long expectedCrc = buffer.getLong();
+            // Lengths read off a damaged record mustn't size an allocation: the compressed bytes
+            // must fit in what is left of the segment, and the payload within what deflate can
+            // have shrunk into them
+            if (compressedLength < 0 || compressedLength > buffer.remaining() || rawLength < 0
+                    || rawLength / MAX_DEFLATE_RATIO > compressedLength) {
+                return null;
+            }
+            byte[] compressed = new byte[compressedLength];
+            buffer.get(compressed);
+
+            CRC32 crc = new CRC32();
+            crc.update(compressed);
+            if (crc.getValue() != expectedCrc) {
+                return null;
+            }
+            return new Entry(fetchedAt, cityId, new String(setting, UTF_8),
+                    inflate(compressed, rawLength));
+        } catch (BufferUnderflowException | DataFormatException e) {
+            return null;
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int rawLength) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] raw = new byte[rawLength];
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, rawLength - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Payload cut short");
+                }
+                length += inflated;
+            }
+            return raw;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private File segmentFile(int segment) {
+        return new File(mDirectory, SEGMENT_PREFIX + segment + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * @return the numbers of the segments on disk, in ascending order
+     */
+    private int[] listSegments() {
+        String[] names = mDirectory.list();
+        if (names == null) {
+            return new int[0];
+        }
+        List<Integer> segments = new ArrayList<Integer>(names.length);
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    segments.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(segments);
+        int[] sorted = new int[segments.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = segments.get(i);
+        }
+        return sorted;
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import com.example.android.sunshine.app.net.CircuitBreaker;
+import com.example.android.sunshine.app.net.HttpStatusException;
+import com.example.android.sunshine.app.net.RetryPolicy;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Wraps a {@link WeatherSource} with retries and a circuit breaker.
+ *
+ * Failed requests are retried as the {@link RetryPolicy} says.  Every request first goes through
+ * the {@link CircuitBreaker}: while the upstream is known to be failing, fetches fail straight
+ * away with a {@link CircuitBreaker.OpenException} instead of adding to its load.  The 3-hour
+ * forecast is another endpoint, which can fail on its own, so it has a breaker of its own: an
+ * outage of it must not stop the daily forecasts.
+ */
+public class ResilientWeatherSource implements WeatherSource {
+    private static final String LOG_TAG = ResilientWeatherSource.class.getSimpleName();
+
+    private final WeatherSource mDelegate;
+    private final RetryPolicy mRetryPolicy;
+    private final CircuitBreaker mBreaker;
+    private final CircuitBreaker mHourlyBreaker;
+
+    public ResilientWeatherSource(WeatherSource delegate, RetryPolicy retryPolicy,
+                                  CircuitBreaker breaker) {
+        this(delegate, retryPolicy, breaker, new CircuitBreaker(breaker.getName() + " hourly"));
+    }
+
+    /**
+     * @param breaker the daily forecast's breaker
+     * @param hourlyBreaker the 3-hour forecast's breaker
+     */
+    public ResilientWeatherSource(WeatherSource delegate, RetryPolicy retryPolicy,
+                                  CircuitBreaker breaker, CircuitBreaker hourlyBreaker) {
+        mDelegate = delegate;
+        mRetryPolicy = retryPolicy;
+        mBreaker = breaker;
+        mHourlyBreaker = hourlyBreaker;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return mBreaker;
+    }
+
+    public CircuitBreaker getHourlyCircuitBreaker() {
+        return mHourlyBreaker;
+    }
+
+    /**
+     * One request to the delegate.
+     */
+    private interface Fetch {
+        Forecast run() throws IOException, JSONException;
+    }
+
+    @Override
+    public Forecast fetchDailyForecast(final long cityId, final String locationSetting,
+                                       final int days, final boolean allowNotModified)
+            throws IOException, JSONException {
+        return fetch(locationSetting, mBreaker, new Fetch() {
+            @Override
+            public Forecast run() throws IOException, JSONException {
+                return mDelegate.fetchDailyForecast(
+                        cityId, locationSetting, days, allowNotModified);
+            }
+        });
+    }
+
+    @Override
+    public Forecast fetchHourlyForecast(final long cityId, final String locationSetting,
+                                        final boolean allowNotModified)
+            throws IOException, JSONException {
+        return fetch(locationSetting, mHourlyBreaker, new Fetch() {
+            @Override
+            public Forecast run() throws IOException, JSONException {
+                return mDelegate.fetchHourlyForecast(cityId, locationSetting, allowNotModified);
+            }
+        });
+    }
+
+    private Forecast fetch(String locationSetting, CircuitBreaker breaker, Fetch fetch)
+            throws IOException, JSONException {
+        for (int attempt = 1; ; attempt++) {
+            breaker.acquire();
+            IOException failure;
+            try {
+                Forecast forecast = fetch.run();
+                breaker.recordSuccess();
+                return forecast;
+            } catch (IOException e) {
+                failure = e;
+            } catch (JSONException | RuntimeException e) {
+                // The upstream answered, so it isn't down, even if the answer was bad
+                breaker.recordSuccess();
+                throw e;
+            }
+
+            if (RetryPolicy.isRetryable(failure)) {
+                breaker.recordFailure(failure instanceof HttpStatusException
+                        ? ((HttpStatusException) failure).getRetryAfterMillis() : -1);
+            } else if (failure instanceof HttpStatusException) {
+                // The server is up, it just rejected the request
+                breaker.recordSuccess();
+            } else {
+                // Cancelled: we learnt nothing about the upstream
+                breaker.release();
+            }
+
+            long delay = mRetryPolicy.getDelayMillis(attempt, failure);
+            if (delay < 0) {
+                throw failure;
+            }
+            Log.d(LOG_TAG, "Attempt " + attempt + " for " + locationSetting + " failed ("
+                    + failure + "), retrying in " + delay + "ms");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                // The sync was cancelled
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Cancelled while waiting to retry");
+            }
+        }
+    }
+
+    @Override
+    public void commit(Forecast forecast) {
+        mDelegate.commit(forecast);
+    }
+}
@@ -5,6 +5,12 @@ import android.content.Intent;
 import android.os.IBinder;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherProvider;
+import com.example.android.sunshine.app.net.SharedHttpClient;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class SunshineSyncService extends Service {
     private static final Object sSyncAdapterLock = new Object();
     private static SunshineSyncAdapter sSunshineSyncAdapter = null;
@@ -23,4 +29,18 @@ public class SunshineSyncService extends Service {
     public IBinder onBind(Intent intent) {
         return sSunshineSyncAdapter.getSyncAdapterBinder();
     }
-}
\ No newline at end of file
+
+    /**
+     * Prints the recent sync traces, the HTTP client's and the forecast cache's counts, and how
+     * many immediate sync requests were merged, for {@code adb shell dumpsys activity service
+     * com.example.android.sunshine.app/.sync.SunshineSyncService}.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("HTTP client: " + SharedHttpClient.getStats());
+        writer.println("Forecast cache: " + WeatherProvider.getForecastCacheStats(this));
+        writer.println("Immediate sync requests: "
+                + SunshineSyncAdapter.getSyncRequestCoalescer(this));
+        SyncTraceLog.dump(writer);
+    }
+}
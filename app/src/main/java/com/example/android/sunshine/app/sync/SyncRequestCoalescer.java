@@ -0,0 +1,159 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Merges bursts of immediate sync requests into a single sync.
+ *
+ * Changing the location, changing the units and creating the sync account each ask for an
+ * expedited sync, often within moments of each other.  The first request opens a window of
+ * {@code windowMillis}; every request that arrives before it closes rides along, and when it
+ * closes one sync is requested.  Until that sync starts, further requests are absorbed by it too,
+ * since it only reads the settings once it runs.  A request that arrives while a sync is running
+ * may have changed what that sync already read, so it is held, and all such requests are merged
+ * into one follow-up sync once the running one finishes.
+ *
+ * The state lives in memory; the settings screen and the sync adapter run in the same process,
+ * so they share one coalescer (see {@link SunshineSyncAdapter#syncImmediately}).
+ */
+public class SyncRequestCoalescer {
+    private static final String LOG_TAG = SyncRequestCoalescer.class.getSimpleName();
+
+    public static final long DEFAULT_WINDOW_MILLIS = 1000;
+    // A requested sync that hasn't started by then is taken to have been dropped by the system
+    static final long OUTSTANDING_EXPIRY_MILLIS = 10 * 60 * 1000;
+
+    private final Handler mHandler;
+    private final long mWindowMillis;
+    private final Runnable mRequestSync;
+    private final Runnable mWindowCloser = new Runnable() {
+        @Override
+        public void run() {
+            closeWindow();
+        }
+    };
+
+    private boolean mWindowOpen;
+    // When the last coalesced sync was requested, or -1 once it has started
+    private long mOutstandingSince = -1;
+    private boolean mRunning;
+    private boolean mFollowUp;
+
+    private int mRequestCount;
+    private int mAbsorbedCount;
+    private int mSyncCount;
+
+    /**
+     * @param handler     runs the window's timer
+     * @param requestSync asks the system for the sync; run once per window, off the lock
+     */
+    public SyncRequestCoalescer(Handler handler, long windowMillis, Runnable requestSync) {
+        mHandler = handler;
+        mWindowMillis = windowMillis;
+        mRequestSync = requestSync;
+    }
+
+    /**
+     * Asks for a sync as soon as possible.
+     */
+    public synchronized void request() {
+        mRequestCount++;
+        if (mWindowOpen || isOutstanding() || (mRunning && mFollowUp)) {
+            mAbsorbedCount++;
+            return;
+        }
+        if (mRunning) {
+            // The first request the running sync can't be trusted to cover
+            mFollowUp = true;
+            return;
+        }
+        openWindow();
+    }
+
+    /**
+     * Called by the sync adapter as a sync starts.
+     *
+     * @param manual true for an immediate sync, which reads everything afresh, false for a
+     *               periodic one, which doesn't answer a request
+     */
+    public synchronized void onSyncStarted(boolean manual) {
+        mRunning = true;
+        if (manual) {
+            mOutstandingSince = -1;
+        }
+    }
+
+    /**
+     * Called by the sync adapter once a sync has finished, however it ended.
+     */
+    public synchronized void onSyncFinished() {
+        mRunning = false;
+        if (mFollowUp) {
+            mFollowUp = false;
+            if (mWindowOpen || isOutstanding()) {
+                mAbsorbedCount++;
+            } else {
+                openWindow();
+            }
+        }
+    }
+
+    private void openWindow() {
+        mWindowOpen = true;
+        mHandler.postDelayed(mWindowCloser, mWindowMillis);
+    }
+
+    /**
+     * Requests the sync for the open window, if there is one, without waiting for it to close.
+     */
+    void closeWindow() {
+        synchronized (this) {
+            if (!mWindowOpen) {
+                return;
+            }
+            mHandler.removeCallbacks(mWindowCloser);
+            mWindowOpen = false;
+            mOutstandingSince = now();
+            mSyncCount++;
+            Log.d(LOG_TAG, "Requesting sync: " + this);
+        }
+        mRequestSync.run();
+    }
+
+    private boolean isOutstanding() {
+        return mOutstandingSince != -1 && now() - mOutstandingSince < OUTSTANDING_EXPIRY_MILLIS;
+    }
+
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @return the requests made so far
+     */
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return the requests that were merged into another one's sync
+     */
+    public synchronized int getAbsorbedCount() {
+        return mAbsorbedCount;
+    }
+
+    /**
+     * @return the syncs actually requested from the system
+     */
+    public synchronized int getSyncCount() {
+        return mSyncCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mRequestCount + " requests, " + mSyncCount + " syncs, " + mAbsorbedCount
+                + " absorbed";
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Where the time of one sync went: every stage of it, from the requests to the fan-out, with its
+ * duration and the bytes and rows it handled.
+ *
+ * Fetches run in parallel and add their stages from their own threads, so stages may be added
+ * concurrently.  Finished traces are kept in the {@link SyncTraceLog}.
+ */
+public class SyncTrace {
+    public static final String STAGE_CONNECT = "connect";
+    public static final String STAGE_FIRST_BYTE = "first byte";
+    public static final String STAGE_BODY_READ = "body read";
+    public static final String STAGE_PARSE = "parse";
+    public static final String STAGE_FETCH_FAILED = "fetch failed";
+    public static final String STAGE_STORE_LOOKUP = "store lookup";
+    public static final String STAGE_STORE_BATCH = "store batch";
+    public static final String STAGE_FAN_OUT = "fan-out";
+
+    /**
+     * One stage of a sync.
+     */
+    public static class Stage {
+        public final String name;
+        // What the stage worked on: a location, a fan-out target, or a summary of the rows
+        public final String subject;
+        public final long millis;
+        public final long bytes;
+        public final int rows;
+
+        Stage(String name, String subject, long millis, long bytes, int rows) {
+            this.name = name;
+            this.subject = subject;
+            this.millis = millis;
+            this.bytes = bytes;
+            this.rows = rows;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(name);
+            if (subject != null) {
+                builder.append(" [").append(subject).append(']');
+            }
+            builder.append(": ").append(millis).append("ms");
+            if (bytes > 0) {
+                builder.append(", ").append(bytes).append(" bytes");
+            }
+            if (rows > 0) {
+                builder.append(", ").append(rows).append(" rows");
+            }
+            return builder.toString();
+        }
+    }
+
+    private final long mStartTime;
+    private final long mStartElapsed;
+    private final List<Stage> mStages = new ArrayList<Stage>();
+    private long mTotalMillis = -1;
+    private String mOutcome;
+
+    public SyncTrace() {
+        mStartTime = System.currentTimeMillis();
+        mStartElapsed = SystemClock.elapsedRealtime();
+    }
+
+    public void addStage(String name, String subject, long millis, long bytes, int rows) {
+        synchronized (mStages) {
+            mStages.add(new Stage(name, subject, millis, bytes, rows));
+        }
+    }
+
+    /**
+     * Marks the end of the sync.
+     *
+     * @param outcome a short description of how it ended, for the dump
+     */
+    public void finish(String outcome) {
+        mTotalMillis = SystemClock.elapsedRealtime() - mStartElapsed;
+        mOutcome = outcome;
+    }
+
+    /**
+     * @return when the sync started, in {@link System#currentTimeMillis()} time
+     */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    /**
+     * @return how long the whole sync took, or -1 if it hasn't finished
+     */
+    public long getTotalMillis() {
+        return mTotalMillis;
+    }
+
+    public String getOutcome() {
+        return mOutcome;
+    }
+
+    public List<Stage> getStages() {
+        synchronized (mStages) {
+            return Collections.unmodifiableList(new ArrayList<Stage>(mStages));
+        }
+    }
+
+    /**
+     * @return the stages with the given name
+     */
+    public List<Stage> getStages(String name) {
+        List<Stage> stages = new ArrayList<Stage>();
+        for (Stage stage : getStages()) {
+            if (stage.name.equals(name)) {
+                stages.add(stage);
+            }
+        }
+        return stages;
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US)
+                .format(new Date(mStartTime)) + ", " + mTotalMillis + "ms, " + mOutcome);
+        for (Stage stage : getStages()) {
+            writer.println("  " + stage);
+        }
+    }
+}
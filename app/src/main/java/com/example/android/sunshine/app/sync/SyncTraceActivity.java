@@ -0,0 +1,40 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.widget.TextView;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherProvider;
+import com.example.android.sunshine.app.net.SharedHttpClient;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Debug screen listing the recent {@link SyncTrace}s, the same as the sync service's dump.  Only
+ * reachable from the main menu in debug builds.
+ */
+public class SyncTraceActivity extends AppCompatActivity {
+
+    private TextView mTraceView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_sync_trace);
+        mTraceView = (TextView) findViewById(R.id.sync_trace_text);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        StringWriter text = new StringWriter();
+        PrintWriter writer = new PrintWriter(text);
+        writer.println("HTTP client: " + SharedHttpClient.getStats());
+        writer.println("Forecast cache: " + WeatherProvider.getForecastCacheStats(this));
+        SyncTraceLog.dump(writer);
+        writer.flush();
+        mTraceView.setText(text.toString());
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The traces of the last {@link #CAPACITY} syncs, in memory.
+ *
+ * The sync adapter, the debug screen and the service's dump all run in the app's process, so
+ * they share this one ring buffer.  It is read with
+ * {@code adb shell dumpsys activity service com.example.android.sunshine.app/.sync.SunshineSyncService}
+ * or from {@link SyncTraceActivity}.
+ */
+public final class SyncTraceLog {
+    static final int CAPACITY = 32;
+
+    private static final SyncTrace[] sTraces = new SyncTrace[CAPACITY];
+    // The number of traces ever recorded; the next one goes at sCount % CAPACITY
+    private static int sCount;
+
+    private SyncTraceLog() {
+    }
+
+    public static synchronized void record(SyncTrace trace) {
+        sTraces[sCount % CAPACITY] = trace;
+        sCount++;
+    }
+
+    /**
+     * @return the kept traces, most recent first
+     */
+    public static synchronized List<SyncTrace> getTraces() {
+        int kept = Math.min(sCount, CAPACITY);
+        List<SyncTrace> traces = new ArrayList<SyncTrace>(kept);
+        for (int i = 1; i <= kept; i++) {
+            traces.add(sTraces[(sCount - i) % CAPACITY]);
+        }
+        return traces;
+    }
+
+    public static void dump(PrintWriter writer) {
+        List<SyncTrace> traces = getTraces();
+        writer.println("Last " + traces.size() + " syncs, most recent first:");
+        for (SyncTrace trace : traces) {
+            trace.dump(writer);
+        }
+    }
+
+    public static synchronized void clear() {
+        for (int i = 0; i < CAPACITY; i++) {
+            sTraces[i] = null;
+        }
+        sCount = 0;
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+
+/**
+ * Where the sync gets its forecasts from.
+ *
+ * A source turns a location into a {@link Forecast}: it makes the request, parses the response
+ * and maps the service's error codes onto the location statuses.  Keeping this behind an
+ * interface lets the sync run against a local stand-in server, e.g. for benchmarks.
+ */
+public interface WeatherSource {
+
+    /**
+     * Fetches the daily forecast of one place.  Called on the sync engine's worker threads, so
+     * implementations must be thread safe.
+     *
+     * @param cityId the source's id for the city, from an earlier forecast, or 0 to look the
+     *               place up by its location setting
+     * @param locationSetting the location as the user entered it
+     * @param days the number of days to ask for
+     * @param allowNotModified false if the previous forecast is no longer stored, in which case
+     *                         the full forecast must be fetched even if it hasn't changed
+     * @throws IOException if the source could not be reached
+     * @throws JSONException if the response was not a valid forecast
+     */
+    Forecast fetchDailyForecast(long cityId, String locationSetting, int days,
+                                boolean allowNotModified) throws IOException, JSONException;
+
+    /**
+     * Fetches the 3-hour forecast of one place, as far ahead as the source offers it.  The rows
+     * of the result are for the hourly table.  Called on the sync engine's worker threads, like
+     * {@link #fetchDailyForecast}, and with the same arguments.
+     *
+     * @throws IOException if the source could not be reached, or has no 3-hour forecast
+     * @throws JSONException if the response was not a valid forecast
+     */
+    Forecast fetchHourlyForecast(long cityId, String locationSetting, boolean allowNotModified)
+            throws IOException, JSONException;
+
+    /**
+     * Called once a forecast has been stored, so the source may answer "not modified" for it
+     * from now on.
+     */
+    void commit(Forecast forecast);
+}
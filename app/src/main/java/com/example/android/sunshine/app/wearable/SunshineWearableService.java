@@ -69,12 +69,12 @@ public class SunshineWearableService extends IntentService implements GoogleApiC
 
             String location = Utility.getPreferredLocation(SunshineWearableService.this);
             Uri weatherForLocationUri = WeatherContract.WeatherEntry
-                    .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
+                    .buildWeatherLocationToday(location, System.currentTimeMillis());
             Cursor data = getContentResolver().query(weatherForLocationUri,
                     FORECAST_COLUMNS,
                     null,
                     null,
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+                    null);
             if (data == null) {
                 return;
             }